@@ -0,0 +1,87 @@
+package com.lota.LotaGuide;
+
+import com.lota.LotaGuide.client.ImageCache;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.common.ForgeConfigSpec;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.config.ModConfigEvent;
+
+/**
+ * Configuration for LotaGuide: client settings for image loading, server settings for book storage.
+ * Values are copied into static fields whenever the config is (re)loaded.
+ */
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.MOD)
+public class Config {
+    private static final ForgeConfigSpec.Builder CLIENT_BUILDER = new ForgeConfigSpec.Builder();
+
+    private static final ForgeConfigSpec.IntValue DISK_CACHE_SIZE_MB = CLIENT_BUILDER
+        .comment("Maximum size of the on-disk image cache in megabytes. 0 disables the disk cache.")
+        .defineInRange("diskCacheSizeMb", 256, 0, 8192);
+
+    private static final ForgeConfigSpec.IntValue DECODED_CACHE_SIZE_MB = CLIENT_BUILDER
+        .comment("Maximum size of the on-disk cache of decoded pixels in megabytes. Images found there skip",
+                 "decoding entirely; entries are about width x height x 4 bytes per frame. 0 disables it.")
+        .defineInRange("decodedCacheSizeMb", 512, 0, 16384);
+
+    private static final ForgeConfigSpec.IntValue MEMORY_CACHE_SIZE_MB = CLIENT_BUILDER
+        .comment("Texture memory budget for decoded book images in megabytes (width x height x 4 x frames).")
+        .defineInRange("memoryCacheSizeMb", 256, 16, 4096);
+
+    private static final ForgeConfigSpec.IntValue PREFETCH_PAGES_AHEAD = CLIENT_BUILDER
+        .comment("How many pages after the current one a book screen loads images for in the background.")
+        .defineInRange("prefetchPagesAhead", 3, 0, 16);
+
+    private static final ForgeConfigSpec.IntValue PREFETCH_PAGES_BEHIND = CLIENT_BUILDER
+        .comment("How many pages before the current one a book screen loads images for in the background.")
+        .defineInRange("prefetchPagesBehind", 1, 0, 16);
+
+    static final ForgeConfigSpec CLIENT_SPEC = CLIENT_BUILDER.build();
+
+    private static final ForgeConfigSpec.Builder SERVER_BUILDER = new ForgeConfigSpec.Builder();
+
+    private static final ForgeConfigSpec.BooleanValue SHARED_BOOK_CONTENT = SERVER_BUILDER
+        .comment("Keep the pages of signed books in the world's save data, stored once per distinct content,",
+                 "instead of on every copy. Books then carry only a content hash and page count, and clients",
+                 "download the pages once and cache them locally.")
+        .define("sharedBookContent", false);
+
+    private static final ForgeConfigSpec.BooleanValue IMAGE_RELAY = SERVER_BUILDER
+        .comment("Fetch book images on the server and stream them to clients, so each URL is downloaded",
+                 "from its host once instead of once per player. Clients without a working relay fetch directly.")
+        .define("imageRelay", false);
+
+    private static final ForgeConfigSpec.IntValue RELAY_CACHE_SIZE_MB = SERVER_BUILDER
+        .comment("Maximum size of the relay's on-disk image cache in megabytes. 0 keeps relayed images in memory only.")
+        .defineInRange("relayCacheSizeMb", 512, 0, 8192);
+
+    static final ForgeConfigSpec SERVER_SPEC = SERVER_BUILDER.build();
+
+    public static int diskCacheSizeMb = 256;
+    public static int decodedCacheSizeMb = 512;
+    public static int memoryCacheSizeMb = 256;
+    public static int prefetchPagesAhead = 3;
+    public static int prefetchPagesBehind = 1;
+    public static boolean sharedBookContent = false;
+    public static boolean imageRelay = false;
+    public static int relayCacheSizeMb = 512;
+
+    @SubscribeEvent
+    static void onLoad(final ModConfigEvent event) {
+        if (event.getConfig().getSpec() == CLIENT_SPEC) {
+            diskCacheSizeMb = DISK_CACHE_SIZE_MB.get();
+            decodedCacheSizeMb = DECODED_CACHE_SIZE_MB.get();
+            memoryCacheSizeMb = MEMORY_CACHE_SIZE_MB.get();
+            prefetchPagesAhead = PREFETCH_PAGES_AHEAD.get();
+            prefetchPagesBehind = PREFETCH_PAGES_BEHIND.get();
+            // The cache exists before the config is loaded and must follow later edits of the file too
+            DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () ->
+                ImageCache.getInstance().setMemoryBudget(memoryCacheSizeMb * 1024L * 1024L));
+        } else if (event.getConfig().getSpec() == SERVER_SPEC) {
+            sharedBookContent = SHARED_BOOK_CONTENT.get();
+            imageRelay = IMAGE_RELAY.get();
+            relayCacheSizeMb = RELAY_CACHE_SIZE_MB.get();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.lota.LotaGuide;
 
 import com.lota.LotaGuide.item.ImageBookItem;
 import com.lota.LotaGuide.item.SignedImageBookItem;
+import com.lota.LotaGuide.network.LotaNetwork;
 import com.mojang.logging.LogUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.registries.Registries;
@@ -15,6 +16,7 @@ import net.minecraftforge.event.server.ServerStartingEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
@@ -53,10 +55,14 @@ public class LotaGuide {
         ITEMS.register(modEventBus);
         CREATIVE_MODE_TABS.register(modEventBus);
         
+        context.registerConfig(ModConfig.Type.CLIENT, Config.CLIENT_SPEC);
+        context.registerConfig(ModConfig.Type.SERVER, Config.SERVER_SPEC);
+        
         MinecraftForge.EVENT_BUS.register(this);
     }
 
     private void commonSetup(final FMLCommonSetupEvent event) {
+        LotaNetwork.register();
         LOGGER.info("LotaGuide mod initialized");
     }
 
@@ -0,0 +1,152 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.data.BookContentStore;
+import com.lota.LotaGuide.network.LotaNetwork;
+import com.lota.LotaGuide.network.RequestBookContentPacket;
+import com.mojang.logging.LogUtils;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.loading.FMLPaths;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Client copy of book pages kept in the server's {@link BookContentStore}.
+ * Content is immutable per hash, so it is cached in memory and on disk across sessions and servers,
+ * and each book is downloaded at most once. Content is checked against its hash wherever it comes from.
+ * Main thread only; disk reads and writes run on the I/O pool.
+ */
+@OnlyIn(Dist.CLIENT)
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+public final class BookContentCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String CACHE_DIR = "lotaguide/book_cache";
+    private static final int MAX_LOADED = 64;
+
+    private static final Map<String, CompoundTag> LOADED = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompoundTag> eldest) {
+            return size() > MAX_LOADED;
+        }
+    };
+    private static final Map<String, CompletableFuture<CompoundTag>> PENDING = new HashMap<>();
+
+    private BookContentCache() {}
+
+    /**
+     * The pages stored under {@code hash}, from memory, disk or the server, in that order.
+     * Completes on the main thread with null if the server does not know the hash or the connection closed.
+     */
+    public static CompletableFuture<CompoundTag> fetch(String hash) {
+        if (!BookContentStore.isValidHash(hash)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompoundTag content = LOADED.get(hash);
+        if (content != null) {
+            return CompletableFuture.completedFuture(content);
+        }
+
+        CompletableFuture<CompoundTag> pending = PENDING.get(hash);
+        if (pending == null) {
+            CompletableFuture<CompoundTag> created = new CompletableFuture<>();
+            PENDING.put(hash, created);
+            CompletableFuture.supplyAsync(() -> readDisk(hash), Util.ioPool())
+                .exceptionally(error -> null)
+                .thenAccept(stored -> Minecraft.getInstance().execute(() -> onDiskRead(hash, created, stored)));
+            pending = created;
+        }
+        return pending;
+    }
+
+    private static void onDiskRead(String hash, CompletableFuture<CompoundTag> pending, @Nullable CompoundTag stored) {
+        // Already answered, e.g. completed with null on logout
+        if (pending.isDone() || PENDING.get(hash) != pending) return;
+        if (stored != null) {
+            PENDING.remove(hash);
+            LOADED.put(hash, stored);
+            pending.complete(stored);
+        } else {
+            LotaNetwork.CHANNEL.sendToServer(new RequestBookContentPacket(hash));
+        }
+    }
+
+    /**
+     * Handles the server's answer to a fetch. Content that does not match the requested hash is treated
+     * as unknown, so a bad answer is never cached under a hash other books may share.
+     */
+    public static void receive(String hash, @Nullable CompoundTag content) {
+        CompletableFuture<CompoundTag> pending = PENDING.remove(hash);
+        if (pending == null) return;
+        if (content != null && !BookContentStore.hash(content).equals(hash)) {
+            LOGGER.warn("Discarding book content that does not match its hash {}", hash);
+            content = null;
+        }
+        if (content != null) {
+            LOADED.put(hash, content);
+            CompoundTag stored = content;
+            Util.ioPool().execute(() -> writeDisk(hash, stored));
+        }
+        pending.complete(content);
+    }
+
+    @SubscribeEvent
+    static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        // No answers will come on this connection
+        for (CompletableFuture<CompoundTag> pending : PENDING.values()) {
+            pending.complete(null);
+        }
+        PENDING.clear();
+    }
+
+    private static Path fileFor(String hash) {
+        return FMLPaths.GAMEDIR.get().resolve(CACHE_DIR).resolve(hash + ".dat");
+    }
+
+    @Nullable
+    private static CompoundTag readDisk(String hash) {
+        File file = fileFor(hash).toFile();
+        if (!file.isFile()) return null;
+        try {
+            CompoundTag content = NbtIo.readCompressed(file);
+            // A damaged or edited file is dropped and downloaded again
+            return BookContentStore.hash(content).equals(hash) ? content : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeDisk(String hash, CompoundTag content) {
+        Path file = fileFor(hash);
+        try {
+            Files.createDirectories(file.getParent());
+            // Write aside and move, so a crash never leaves a truncated entry under the hash
+            Path tmp = Files.createTempFile(file.getParent(), hash, ".tmp");
+            try {
+                NbtIo.writeCompressed(content, tmp.toFile());
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException ignored) {
+            // Only costs a download next session
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.data.ImageBookData;
+import com.lota.LotaGuide.network.BookEditPacket;
+import com.lota.LotaGuide.network.LotaNetwork;
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.InteractionHand;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.entity.player.Player;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Sends an edit screen's changes to the server as batches of per-page diffs.
+ * Keeps a shadow copy of what the server has; structural changes (pages added or removed) are
+ * recorded as they happen, field changes are found by comparing against the shadow when a batch
+ * is flushed. Batches go out at most once per {@link #FLUSH_INTERVAL_MILLIS} while editing, and
+ * immediately on close or signing. A signing batch also records the hash and size of every page image
+ * the client has loaded, so readers of the book can use their stored copy without asking the host.
+ * <p>
+ * Batches name the inventory slot of the book and a {@link BookEditPacket#baseline baseline}, so the server
+ * only applies them to the book they were made for: of the shadow they were diffed against or, for a full
+ * batch, of the book as the server last accepted it. A rejected full batch means the slot no longer holds
+ * this book, and the screen stops syncing.
+ */
+@OnlyIn(Dist.CLIENT)
+public class BookEditSync {
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    // Shared by all screens, so batches from a reopened screen never look stale to the server
+    private static int nextSequence;
+    // Set by a rejected batch: the server's copy is unknown, so the next batch sends the whole book
+    private static boolean resyncNeeded;
+    // Sequence of the last full batch; rejections of batches sent before it are already answered by it
+    private static int resyncSequence = -1;
+    // The unsign request waiting for its answer, if any
+    private static int unsignSequence = -1;
+    @Nullable
+    private static Consumer<Boolean> unsignCallback;
+    // The most recently opened screen's sync; acks for other screens' batches are ignored
+    @Nullable
+    private static BookEditSync active;
+
+    private final int slot;
+    private ImageBookData shadow;
+    private final List<BookEditPacket.Op> structural = new ArrayList<>();
+    private long lastFlush;
+    // Baseline of the server's copy after the last accepted batch; rejected batches leave the copy as it was
+    private int confirmed;
+    // Baseline each unanswered batch leaves the server's copy at, by sequence
+    private final Map<Integer, Integer> unanswered = new HashMap<>();
+    private boolean detached;
+
+    public BookEditSync(int slot, ImageBookData data) {
+        this.slot = slot;
+        this.shadow = data.copy();
+        this.confirmed = BookEditPacket.baseline(shadow);
+        active = this;
+    }
+
+    /**
+     * Records that a page was appended to the edited book.
+     */
+    public void pageAdded() {
+        structural.add(BookEditPacket.Op.addPage());
+        shadow.addPage();
+    }
+
+    /**
+     * Records that page {@code index} was removed from the edited book.
+     */
+    public void pageRemoved(int index) {
+        structural.add(BookEditPacket.Op.removePage(index));
+        shadow.removePage(index);
+    }
+
+    /**
+     * Sends pending changes once the flush interval has passed. Call from the screen's tick.
+     */
+    public void tick(ImageBookData data, long now) {
+        if (now - lastFlush >= FLUSH_INTERVAL_MILLIS) {
+            flush(data, BookEditPacket.Action.EDIT);
+        }
+    }
+
+    /**
+     * Sends every change since the last batch. An {@link BookEditPacket.Action#EDIT} batch without changes is skipped.
+     */
+    public void flush(ImageBookData data, BookEditPacket.Action action) {
+        lastFlush = System.currentTimeMillis();
+        if (detached) return;
+        if (action == BookEditPacket.Action.SIGN) {
+            recordImages(data);
+        }
+        boolean full = resyncNeeded;
+        List<BookEditPacket.Op> ops;
+        if (full) {
+            ops = new ArrayList<>();
+            ImageBookData blank = new ImageBookData();
+            for (int i = 1; i < data.getPageCount(); i++) {
+                ops.add(BookEditPacket.Op.addPage());
+                blank.addPage();
+            }
+            diff(blank, data, ops);
+        } else {
+            ops = new ArrayList<>(structural);
+            diff(shadow, data, ops);
+        }
+        if (ops.isEmpty() && action == BookEditPacket.Action.EDIT) return;
+
+        int sequence = nextSequence++;
+        int baseline = full ? confirmed : BookEditPacket.baseline(shadow);
+        LotaNetwork.CHANNEL.sendToServer(new BookEditPacket(slot, sequence, action, full, baseline, ops));
+        if (full) {
+            resyncSequence = sequence;
+        }
+        resyncNeeded = false;
+        structural.clear();
+        shadow = data.copy();
+        unanswered.put(sequence, BookEditPacket.baseline(shadow));
+    }
+
+    /**
+     * Asks the server to turn the player's own signed book in {@code slot} back into a writable one.
+     * {@code onResult} runs on the main thread with whether it did, unless another unsign is requested first.
+     */
+    public static void unsign(int slot, Consumer<Boolean> onResult) {
+        unsignSequence = nextSequence++;
+        unsignCallback = onResult;
+        LotaNetwork.CHANNEL.sendToServer(new BookEditPacket(slot, unsignSequence, BookEditPacket.Action.UNSIGN, false, 0, List.of()));
+    }
+
+    public static void onAck(int sequence, boolean accepted) {
+        if (sequence == unsignSequence) {
+            Consumer<Boolean> callback = unsignCallback;
+            unsignSequence = -1;
+            unsignCallback = null;
+            if (callback != null) {
+                callback.accept(accepted);
+            }
+            return;
+        }
+        BookEditSync sync = active;
+        if (sync != null) {
+            Integer after = sync.unanswered.remove(sequence);
+            if (after != null && accepted) {
+                sync.confirmed = after;
+            } else if (after != null && sequence == resyncSequence) {
+                // Even the whole book was refused against what the server last accepted: the slot holds another book
+                sync.detached = true;
+                Player player = Minecraft.getInstance().player;
+                if (player != null) {
+                    player.displayClientMessage(Component.translatable("screen.lotaguide.image_book.sync_lost"), true);
+                }
+                return;
+            }
+        }
+        // A batch sent before the last full one was diffed against a copy that batch replaced
+        if (!accepted && sequence >= resyncSequence) {
+            resyncNeeded = true;
+        }
+    }
+
+    /**
+     * The inventory slot of the item in {@code hand}, as batches address it.
+     */
+    public static int slotOf(Player player, InteractionHand hand) {
+        return hand == InteractionHand.MAIN_HAND ? player.getInventory().selected : Inventory.SLOT_OFFHAND;
+    }
+
+    /**
+     * Records the hash and size of each page image that is in memory. Pages whose image is not loaded
+     * keep what they had, which for a page whose URL was changed is nothing.
+     */
+    private static void recordImages(ImageBookData data) {
+        ImageCache cache = ImageCache.getInstance();
+        for (ImageBookData.Page page : data.getPages()) {
+            ImageCache.CachedImage image = page.getImageUrl().isEmpty() ? null : cache.getIfLoaded(page.getImageUrl());
+            if (image != null && image.getContentHash() != null) {
+                page.setImageInfo(image.getContentHash(), image.getWidth(), image.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Adds an op for every field of {@code to} that differs from {@code from}. Both must have the same page count.
+     */
+    private static void diff(ImageBookData from, ImageBookData to, List<BookEditPacket.Op> ops) {
+        for (int i = 0; i < to.getPageCount(); i++) {
+            ImageBookData.Page before = from.getPage(i);
+            ImageBookData.Page after = to.getPage(i);
+            if (!before.getImageUrl().equals(after.getImageUrl())) {
+                ops.add(BookEditPacket.Op.setUrl(i, after.getImageUrl()));
+            }
+            if (!before.getText().equals(after.getText())) {
+                ops.add(BookEditPacket.Op.setText(i, after.getText()));
+            }
+            if (before.getFontSize() != after.getFontSize()) {
+                ops.add(BookEditPacket.Op.setFontSize(i, after.getFontSize()));
+            }
+            // After SET_URL, which clears the recorded image on the server as it does here
+            if (!before.getImageHash().equals(after.getImageHash())
+                    || before.getImageWidth() != after.getImageWidth() || before.getImageHeight() != after.getImageHeight()) {
+                ops.add(BookEditPacket.Op.setImageInfo(i, after.getImageHash(), after.getImageWidth(), after.getImageHeight()));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.data.ImageBookView;
+import net.minecraft.client.Minecraft;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts loading a signed book's images as soon as it lands in the player's hotbar
+ * (which includes the main hand), long before the book is opened.
+ * Loads run at {@link ImageLoadScheduler.Priority#BACKGROUND}, which {@link ImageCache}
+ * only admits into free budget, so warming up never evicts anything. Each slot's prefetches
+ * are withdrawn once its book leaves the slot, so loads for books put away stop too.
+ */
+@OnlyIn(Dist.CLIENT)
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+public final class BookWarmup {
+    // Book data last seen in each hotbar slot, compared by identity so an unchanged stack costs nothing
+    private static final CompoundTag[] SEEN = new CompoundTag[Inventory.getSelectionSize()];
+    // Prefetches each slot's book holds
+    private static final List<List<ImageCache.Prefetch>> PREFETCHED = new ArrayList<>();
+
+    static {
+        for (int slot = 0; slot < SEEN.length; slot++) {
+            PREFETCHED.add(new ArrayList<>());
+        }
+    }
+
+    private BookWarmup() {}
+
+    @SubscribeEvent
+    static void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) return;
+
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.player == null) {
+            Arrays.fill(SEEN, null);
+            for (int slot = 0; slot < SEEN.length; slot++) {
+                withdraw(takePrefetched(slot));
+            }
+            return;
+        }
+
+        // Withdrawn only after every slot has warmed up, so a book moved between slots keeps its loads
+        List<ImageCache.Prefetch> released = new ArrayList<>();
+        Inventory inventory = mc.player.getInventory();
+        for (int slot = 0; slot < SEEN.length; slot++) {
+            ItemStack stack = inventory.getItem(slot);
+            CompoundTag tag = stack.is(LotaGuide.SIGNED_IMAGE_BOOK.get()) ? stack.getTag() : null;
+            if (tag != SEEN[slot]) {
+                SEEN[slot] = tag;
+                released.addAll(takePrefetched(slot));
+                if (tag != null) {
+                    ImageBookView book = ImageBookView.of(stack);
+                    String hash = book.getContentHash();
+                    if (hash == null) {
+                        warmUp(slot, book);
+                    } else {
+                        // Pages kept on the server: fetching them now also makes opening the book instant
+                        int target = slot;
+                        BookContentCache.fetch(hash).thenAccept(content -> {
+                            // The slot may hold something else by the time the pages arrive
+                            if (content != null && SEEN[target] == tag) warmUp(target, ImageBookView.of(content));
+                        });
+                    }
+                }
+            }
+        }
+        withdraw(released);
+    }
+
+    private static void warmUp(int slot, ImageBookView book) {
+        ImageCache cache = ImageCache.getInstance();
+        List<ImageCache.Prefetch> prefetched = PREFETCHED.get(slot);
+        for (int i = 0; i < book.getPageCount(); i++) {
+            String url = book.getImageUrl(i);
+            ImageCache.Prefetch prefetch = url.isEmpty() ? null
+                : cache.prefetch(url, ImageLoadScheduler.Priority.BACKGROUND, book.getImageHash(i));
+            if (prefetch != null) {
+                prefetched.add(prefetch);
+            }
+        }
+    }
+
+    private static List<ImageCache.Prefetch> takePrefetched(int slot) {
+        List<ImageCache.Prefetch> prefetched = PREFETCHED.get(slot);
+        PREFETCHED.set(slot, new ArrayList<>());
+        return prefetched;
+    }
+
+    private static void withdraw(List<ImageCache.Prefetch> prefetches) {
+        ImageCache cache = ImageCache.getInstance();
+        for (ImageCache.Prefetch prefetch : prefetches) {
+            cache.cancelPrefetch(prefetch);
+        }
+    }
+}
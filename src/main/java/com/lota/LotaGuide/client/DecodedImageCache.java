@@ -0,0 +1,364 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.data.ImageBookData;
+import com.mojang.logging.LogUtils;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent tier of decoded pixels, below {@link ImageDiskCache}'s raw bodies. An image found here
+ * skips decoding, scaling and colour conversion: its frames are read straight from a memory-mapped file.
+ * <p>
+ * Entries are keyed by the SHA-256 of the source bytes plus the display bounds the frames were scaled
+ * for, as {@code <hash>-<width>x<height>.pix}. The file is little-endian:
+ * <pre>
+ *   int magic, int version, int width, int height,   original image size
+ *   int frameWidth, int frameHeight, int frameCount  stored frame size
+ *   int[frameCount * frameWidth * frameHeight]       ABGR pixels (NativeImage order), frame after frame
+ *   int[frameCount]                                  frame delays in milliseconds
+ * </pre>
+ * Delays come last so frames can be written as they are decoded. Files of another version or with
+ * a size that does not match their header are ignored and overwritten. The total size is capped;
+ * the least recently used entries are pruned first.
+ */
+@OnlyIn(Dist.CLIENT)
+public class DecodedImageCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String SUFFIX = ".pix";
+    // "LGPX" read as a little-endian int
+    private static final int MAGIC = 0x5850474C;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+    private static final int HEADER_BYTES = HEADER_INTS * 4;
+    private static final int MAX_FRAMES = 10000;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Long> sizes = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private volatile boolean indexed = false;
+
+    public DecodedImageCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Frames of a stored entry, read in order from the mapped file. Each call to
+     * {@link #nextFrame(int[])} is one bulk copy out of the mapping.
+     */
+    public static class Frames implements StreamingAnimation.FrameSource {
+        private final int width;
+        private final int height;
+        private final int frameWidth;
+        private final int frameHeight;
+        private final IntBuffer pixels;
+        private final int[] delays;
+        private int next;
+
+        private Frames(int width, int height, int frameWidth, int frameHeight, IntBuffer pixels, int[] delays) {
+            this.width = width;
+            this.height = height;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.pixels = pixels;
+            this.delays = delays;
+        }
+
+        /** Original image width, as the decoder reported it. */
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public int getFrameWidth() { return frameWidth; }
+        public int getFrameHeight() { return frameHeight; }
+        public int getFrameCount() { return delays.length; }
+
+        @Override
+        public int nextFrame(int[] abgr) {
+            if (next >= delays.length) return -1;
+            int count = frameWidth * frameHeight;
+            pixels.get(next * count, abgr, 0, count);
+            return delays[next++];
+        }
+
+        @Override
+        public void rewind() {
+            next = 0;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Returns the stored frames of the image with SHA-256 {@code contentHash} as scaled for the given
+     * display bounds, or null if there are none or the file is unusable.
+     */
+    @Nullable
+    public Frames read(String contentHash, int boundsWidth, int boundsHeight) {
+        if (!isEnabled() || !ImageBookData.isValidImageHash(contentHash)) return null;
+        ensureIndexed();
+
+        String key = keyFor(contentHash, boundsWidth, boundsHeight);
+        Path file = directory.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                remove(key);
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            int width = mapped.getInt(8);
+            int height = mapped.getInt(12);
+            int frameWidth = mapped.getInt(16);
+            int frameHeight = mapped.getInt(20);
+            int frameCount = mapped.getInt(24);
+            boolean valid = mapped.getInt(0) == MAGIC && mapped.getInt(4) == VERSION
+                && width > 0 && height > 0
+                && frameWidth > 0 && frameHeight > 0 && frameWidth <= ImageBookData.MAX_IMAGE_DIMENSION
+                && frameHeight <= ImageBookData.MAX_IMAGE_DIMENSION
+                && frameCount > 0 && frameCount <= MAX_FRAMES
+                && size == HEADER_BYTES + 4L * frameCount * ((long) frameWidth * frameHeight + 1);
+            if (!valid) {
+                remove(key);
+                return null;
+            }
+
+            int pixelBytes = 4 * frameCount * frameWidth * frameHeight;
+            IntBuffer pixels = mapped.slice(HEADER_BYTES, pixelBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int[] delays = new int[frameCount];
+            mapped.slice(HEADER_BYTES + pixelBytes, frameCount * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(delays);
+            touch(file);
+            return new Frames(width, height, frameWidth, frameHeight, pixels, delays);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts an entry for the image with SHA-256 {@code contentHash} as scaled for the given display bounds,
+     * or returns null if the cache is disabled. Nothing becomes visible until {@link Writer#commit}.
+     */
+    @Nullable
+    public Writer writer(@Nullable String contentHash, int boundsWidth, int boundsHeight) {
+        if (!isEnabled() || !ImageBookData.isValidImageHash(contentHash)) return null;
+        // Indexing deletes stray temporary files, so it must run before this writer creates one
+        ensureIndexed();
+        return new Writer(keyFor(contentHash, boundsWidth, boundsHeight));
+    }
+
+    /**
+     * Writes one entry frame by frame into a temporary file, moved into place on commit.
+     * Any write error quietly abandons the entry: the decoded image itself is unaffected.
+     */
+    public class Writer {
+        private final String key;
+        @Nullable private Path tmp;
+        @Nullable private FileChannel channel;
+        @Nullable private ByteBuffer frameBuffer;
+        private int frameWidth;
+        private int frameHeight;
+        private int[] delays = new int[16];
+        private int frameCount;
+        private boolean failed;
+
+        private Writer(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Appends a frame of {@code width * height} ABGR pixels. Every frame must have the same size.
+         */
+        public void frame(int[] abgr, int width, int height, int delay) {
+            if (failed) return;
+            try {
+                if (channel == null) {
+                    open(width, height);
+                } else if (width != frameWidth || height != frameHeight) {
+                    abort();
+                    return;
+                }
+                if (frameCount == MAX_FRAMES) {
+                    abort();
+                    return;
+                }
+                frameBuffer.clear();
+                frameBuffer.asIntBuffer().put(abgr, 0, width * height);
+                writeFully(frameBuffer);
+                if (frameCount == delays.length) {
+                    delays = Arrays.copyOf(delays, delays.length * 2);
+                }
+                delays[frameCount++] = delay;
+            } catch (IOException e) {
+                // Includes ClosedByInterruptException from a cancelled decode
+                abort();
+            }
+        }
+
+        /**
+         * Finishes the entry with the original image size and makes it visible to {@link #read}.
+         */
+        public void commit(int width, int height) {
+            if (failed || channel == null || frameCount == 0) {
+                abort();
+                return;
+            }
+            try {
+                ByteBuffer trailer = ByteBuffer.allocate(frameCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.asIntBuffer().put(delays, 0, frameCount);
+                writeFully(trailer);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.asIntBuffer().put(new int[] { MAGIC, VERSION, width, height, frameWidth, frameHeight, frameCount });
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                long size = channel.size();
+                channel.close();
+
+                Files.move(tmp, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+                Long previous = sizes.put(key, size);
+                totalBytes.addAndGet(size - (previous != null ? previous : 0L));
+                if (totalBytes.get() > maxBytes) {
+                    prune();
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to store decoded image {}", key, e);
+                abort();
+            }
+        }
+
+        /**
+         * Discards the entry. Safe to call at any point, and more than once.
+         */
+        public void abort() {
+            failed = true;
+            try {
+                if (channel != null) channel.close();
+                if (tmp != null) Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {}
+            frameBuffer = null;
+        }
+
+        private void open(int width, int height) throws IOException {
+            frameWidth = width;
+            frameHeight = height;
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            // Filled in on commit, once the frame count is known
+            writeFully(ByteBuffer.allocate(HEADER_BYTES));
+            frameBuffer = ByteBuffer.allocate(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits within its size cap.
+     */
+    public synchronized void prune() {
+        if (totalBytes.get() <= maxBytes) return;
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        } catch (IOException e) {
+            return;
+        }
+
+        files.sort(Comparator.comparing(DecodedImageCache::lastAccess));
+        for (Path file : files) {
+            if (totalBytes.get() <= maxBytes) break;
+            String name = file.getFileName().toString();
+            remove(name.substring(0, name.length() - SUFFIX.length()));
+        }
+    }
+
+    private void remove(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + SUFFIX));
+        } catch (IOException ignored) {
+            // Still mapped on some platforms; pruned again later
+            return;
+        }
+        Long size = sizes.remove(key);
+        if (size != null) {
+            totalBytes.addAndGet(-size);
+        }
+    }
+
+    private synchronized void ensureIndexed() {
+        if (indexed) return;
+        indexed = true;
+        if (!Files.isDirectory(directory)) return;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(path);
+                    } else if (name.endsWith(SUFFIX)) {
+                        long size = Files.size(path);
+                        sizes.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                        totalBytes.addAndGet(size);
+                    }
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Failed to index decoded image cache directory {}", directory, e);
+        }
+    }
+
+    private static String keyFor(String contentHash, int boundsWidth, int boundsHeight) {
+        return contentHash + "-" + boundsWidth + "x" + boundsHeight;
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+
+    private static FileTime lastAccess(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
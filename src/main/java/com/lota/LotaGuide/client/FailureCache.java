@@ -0,0 +1,128 @@
+package com.lota.LotaGuide.client;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Negative cache for image URLs that failed to load.
+ * Kept apart from the texture cache so failures neither take texture budget nor disappear
+ * with its evictions. Each failure is retried after a delay that depends on its {@link Kind}
+ * and doubles with every consecutive failure of the same URL, up to a per-kind cap.
+ */
+public class FailureCache {
+    private static final int MAX_ENTRIES = 256;
+
+    public enum Kind {
+        /** Not an http(s) URL; retrying cannot help. */
+        INVALID_URL(-1, -1),
+        /** 5xx, 408 or 429: the server may recover soon. */
+        HTTP_SERVER(5_000, 10 * 60_000),
+        /** Other non-200 statuses, such as 403 or 404. */
+        HTTP_CLIENT(10 * 60_000, 24 * 60 * 60_000),
+        TIMEOUT(5_000, 5 * 60_000),
+        /** Connection refused, unknown host and other transport errors. */
+        NETWORK(10_000, 5 * 60_000),
+        TOO_LARGE(60 * 60_000, 24 * 60 * 60_000),
+        /** Empty body or data no decoder understands. */
+        UNSUPPORTED_FORMAT(30 * 60_000, 24 * 60 * 60_000),
+        /** Decoded fine but the texture could not be created. */
+        TEXTURE(5_000, 5 * 60_000);
+
+        private final long baseDelayMillis;
+        private final long maxDelayMillis;
+
+        Kind(long baseDelayMillis, long maxDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        public boolean isRetryable() {
+            return baseDelayMillis >= 0;
+        }
+
+        /**
+         * Delay before retrying after {@code attempts} consecutive failures.
+         */
+        long retryDelay(int attempts) {
+            int doublings = Math.min(Math.max(0, attempts - 1), 30);
+            return Math.min(maxDelayMillis, baseDelayMillis << doublings);
+        }
+
+        /**
+         * Classifies a non-200, non-304 HTTP status.
+         */
+        public static Kind forStatus(int status) {
+            return status >= 500 || status == 408 || status == 429 ? HTTP_SERVER : HTTP_CLIENT;
+        }
+    }
+
+    public static class Failure {
+        private final Kind kind;
+        private final String message;
+        private final int attempts;
+        private final long retryAt;
+
+        private Failure(Kind kind, String message, int attempts, long retryAt) {
+            this.kind = kind;
+            this.message = message;
+            this.attempts = attempts;
+            this.retryAt = retryAt;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getMessage() { return message; }
+        /** Consecutive failures of this URL, including this one. */
+        public int getAttempts() { return attempts; }
+
+        public boolean isRetryable() {
+            return kind.isRetryable();
+        }
+
+        /**
+         * Whether the URL may be requested again at {@code now}.
+         */
+        public boolean isDue(long now) {
+            return kind.isRetryable() && now >= retryAt;
+        }
+
+        public long millisUntilRetry(long now) {
+            return Math.max(0, retryAt - now);
+        }
+    }
+
+    private final Map<String, Failure> failures = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Records a failure of {@code url} and schedules its next retry.
+     */
+    public synchronized Failure record(String url, Kind kind, String message, long now) {
+        Failure previous = failures.get(url);
+        int attempts = previous != null ? previous.attempts + 1 : 1;
+        long retryAt = kind.isRetryable() ? now + kind.retryDelay(attempts) : Long.MAX_VALUE;
+        Failure failure = new Failure(kind, message, attempts, retryAt);
+        failures.put(url, failure);
+        return failure;
+    }
+
+    @Nullable
+    public synchronized Failure get(String url) {
+        return failures.get(url);
+    }
+
+    /**
+     * Forgets a URL's failures, e.g. after it finally loaded.
+     */
+    public synchronized void remove(String url) {
+        failures.remove(url);
+    }
+
+    public synchronized void clear() {
+        failures.clear();
+    }
+}
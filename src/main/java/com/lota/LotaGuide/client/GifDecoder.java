@@ -0,0 +1,387 @@
+package com.lota.LotaGuide.client;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Minimal, allocation-light GIF decoder for animations.
+ * Frames are LZW-decoded straight into one reused ARGB canvas; Graphic Control Extensions
+ * (delay, disposal method, transparency) are read directly from the block stream.
+ * All working buffers are allocated once per decoder, so decoding a frame allocates nothing.
+ * <p>
+ * Usage: call {@link #advance()} repeatedly; after each call {@link #getCanvas()} holds
+ * the fully composited frame. {@link #rewind()} restarts at the first frame.
+ */
+public class GifDecoder {
+    private static final int MAX_CODES = 4096;
+    private static final int DEFAULT_DELAY = 100;
+
+    private static final int DISPOSE_BACKGROUND = 2;
+    private static final int DISPOSE_PREVIOUS = 3;
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int[] globalColorTable;
+    private final int firstBlock;
+
+    private final BufferedImage image;
+    private final int[] canvas;
+    private int[] savedCanvas;
+    private final int[] localColorTable = new int[256];
+
+    // LZW tables, reused for every frame
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] pixelStack = new byte[MAX_CODES + 1];
+
+    private int position;
+
+    // Graphic Control Extension for the next image
+    private int pendingDelay;
+    private int pendingDisposal;
+    private int pendingTransparent = -1;
+
+    // How to clean up after the frame currently on the canvas
+    private int lastDisposal;
+    private int lastX;
+    private int lastY;
+    private int lastWidth;
+    private int lastHeight;
+
+    public GifDecoder(byte[] data) throws IOException {
+        this.data = data;
+        if (data.length < 13 || data[0] != 'G' || data[1] != 'I' || data[2] != 'F') {
+            throw new IOException("Not a GIF");
+        }
+        position = 6;
+        this.width = readShort();
+        this.height = readShort();
+        int packed = readByte();
+        position += 2; // background colour index, pixel aspect ratio
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid GIF dimensions");
+        }
+
+        if ((packed & 0x80) != 0) {
+            this.globalColorTable = new int[256];
+            readColorTable(globalColorTable, 2 << (packed & 7));
+        } else {
+            this.globalColorTable = null;
+        }
+        this.firstBlock = position;
+
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.canvas = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /**
+     * The current composited frame as ARGB pixels, row-major. Shared with {@link #getImage()}.
+     */
+    public int[] getCanvas() { return canvas; }
+
+    /**
+     * The current composited frame, backed by the same pixels as {@link #getCanvas()}.
+     */
+    public BufferedImage getImage() { return image; }
+
+    /**
+     * Counts the frames without decoding any pixel data.
+     */
+    public int countFrames() {
+        int saved = position;
+        int count = 0;
+        try {
+            position = firstBlock;
+            while (position < data.length) {
+                int block = readByte();
+                if (block == 0x2C) {
+                    position += 8;
+                    int packed = readByte();
+                    if ((packed & 0x80) != 0) {
+                        position += 3 * (2 << (packed & 7));
+                    }
+                    position++; // LZW minimum code size
+                    skipSubBlocks();
+                    count++;
+                } else if (block == 0x21) {
+                    position++;
+                    skipSubBlocks();
+                } else {
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+            // Truncated file: count what we could see
+        }
+        position = saved;
+        return count;
+    }
+
+    /**
+     * Restarts decoding at the first frame with an empty canvas.
+     */
+    public void rewind() {
+        position = firstBlock;
+        pendingDelay = 0;
+        pendingDisposal = 0;
+        pendingTransparent = -1;
+        lastDisposal = 0;
+        Arrays.fill(canvas, 0);
+    }
+
+    /**
+     * Decodes the next frame onto the canvas and returns its delay in milliseconds,
+     * or -1 if there are no more frames.
+     */
+    public int advance() throws IOException {
+        while (position < data.length) {
+            int block = readByte();
+            switch (block) {
+                case 0x21 -> readExtension();
+                case 0x2C -> {
+                    readFrame();
+                    int delay = pendingDelay > 0 ? pendingDelay : DEFAULT_DELAY;
+                    pendingDelay = 0;
+                    pendingDisposal = 0;
+                    pendingTransparent = -1;
+                    return delay;
+                }
+                case 0x3B -> {
+                    return -1;
+                }
+                default -> throw new IOException("Unknown GIF block 0x" + Integer.toHexString(block));
+            }
+        }
+        return -1;
+    }
+
+    private void readExtension() throws IOException {
+        int label = readByte();
+        if (label == 0xF9) {
+            int size = readByte();
+            int start = position;
+            if (size >= 4) {
+                int packed = readByte();
+                int delay = readShort();
+                int transparent = readByte();
+                pendingDisposal = (packed >> 2) & 7;
+                pendingDelay = delay * 10;
+                pendingTransparent = (packed & 1) != 0 ? transparent : -1;
+            }
+            position = start + size;
+        }
+        skipSubBlocks();
+    }
+
+    private void readFrame() throws IOException {
+        int frameX = readShort();
+        int frameY = readShort();
+        int frameWidth = readShort();
+        int frameHeight = readShort();
+        int packed = readByte();
+        boolean interlaced = (packed & 0x40) != 0;
+
+        int[] colorTable;
+        if ((packed & 0x80) != 0) {
+            readColorTable(localColorTable, 2 << (packed & 7));
+            colorTable = localColorTable;
+        } else {
+            colorTable = globalColorTable;
+        }
+
+        // Undo the previous frame according to its disposal method
+        if (lastDisposal == DISPOSE_BACKGROUND) {
+            clearRect(lastX, lastY, lastWidth, lastHeight);
+        } else if (lastDisposal == DISPOSE_PREVIOUS && savedCanvas != null) {
+            System.arraycopy(savedCanvas, 0, canvas, 0, canvas.length);
+        }
+
+        if (pendingDisposal == DISPOSE_PREVIOUS) {
+            if (savedCanvas == null) {
+                savedCanvas = new int[canvas.length];
+            }
+            System.arraycopy(canvas, 0, savedCanvas, 0, canvas.length);
+        }
+
+        decodePixels(frameX, frameY, frameWidth, frameHeight, interlaced, colorTable, pendingTransparent);
+
+        lastDisposal = pendingDisposal;
+        lastX = frameX;
+        lastY = frameY;
+        lastWidth = frameWidth;
+        lastHeight = frameHeight;
+    }
+
+    private void decodePixels(int frameX, int frameY, int frameWidth, int frameHeight, boolean interlaced,
+                              int[] colorTable, int transparent) throws IOException {
+        int minCodeSize = readByte();
+        if (minCodeSize < 1 || minCodeSize > 11) {
+            throw new IOException("Invalid LZW code size");
+        }
+
+        int clear = 1 << minCodeSize;
+        int endOfInformation = clear + 1;
+        int available = clear + 2;
+        int oldCode = -1;
+        int first = 0;
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        for (int code = 0; code < clear; code++) {
+            prefix[code] = 0;
+            suffix[code] = (byte) code;
+        }
+
+        int colorCount = colorTable != null ? colorTable.length : 0;
+        int blockRemaining = 0;
+        int datum = 0;
+        int bits = 0;
+        int top = 0;
+
+        int x = 0;
+        int y = 0;
+        int pass = 0;
+        int rowStep = interlaced ? 8 : 1;
+        int pixelsLeft = frameWidth * frameHeight;
+        boolean dataEnded = false;
+
+        while (pixelsLeft > 0) {
+            if (top == 0) {
+                while (bits < codeSize) {
+                    if (blockRemaining == 0) {
+                        blockRemaining = readByte();
+                        if (blockRemaining == 0) {
+                            dataEnded = true;
+                            break;
+                        }
+                    }
+                    datum |= readByte() << bits;
+                    bits += 8;
+                    blockRemaining--;
+                }
+                if (dataEnded) break;
+
+                int code = datum & codeMask;
+                datum >>>= codeSize;
+                bits -= codeSize;
+
+                if (code == clear) {
+                    codeSize = minCodeSize + 1;
+                    codeMask = (1 << codeSize) - 1;
+                    available = clear + 2;
+                    oldCode = -1;
+                    continue;
+                }
+                if (code == endOfInformation || code > available) {
+                    break;
+                }
+                if (oldCode == -1) {
+                    pixelStack[top++] = suffix[code];
+                    oldCode = code;
+                    first = code;
+                    continue;
+                }
+
+                int inCode = code;
+                if (code == available) {
+                    pixelStack[top++] = (byte) first;
+                    code = oldCode;
+                }
+                while (code > clear) {
+                    pixelStack[top++] = suffix[code];
+                    code = prefix[code];
+                }
+                first = suffix[code] & 0xFF;
+                pixelStack[top++] = (byte) first;
+
+                if (available < MAX_CODES) {
+                    prefix[available] = (short) oldCode;
+                    suffix[available] = (byte) first;
+                    available++;
+                    if ((available & codeMask) == 0 && available < MAX_CODES) {
+                        codeSize++;
+                        codeMask += available;
+                    }
+                }
+                oldCode = inCode;
+            }
+
+            int index = pixelStack[--top] & 0xFF;
+            if (index != transparent) {
+                int cx = frameX + x;
+                int cy = frameY + y;
+                if (cx < width && cy < height) {
+                    canvas[cy * width + cx] = index < colorCount ? colorTable[index] : 0xFF000000;
+                }
+            }
+
+            pixelsLeft--;
+            if (++x == frameWidth) {
+                x = 0;
+                y += rowStep;
+                if (interlaced) {
+                    while (y >= frameHeight && pass < 3) {
+                        pass++;
+                        switch (pass) {
+                            case 1 -> { y = 4; rowStep = 8; }
+                            case 2 -> { y = 2; rowStep = 4; }
+                            default -> { y = 1; rowStep = 2; }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!dataEnded) {
+            // Skip whatever is left of the current sub-block and the remaining ones
+            position += blockRemaining;
+            skipSubBlocks();
+        }
+    }
+
+    private void clearRect(int x, int y, int w, int h) {
+        int right = Math.min(width, x + w);
+        int bottom = Math.min(height, y + h);
+        for (int row = y; row < bottom; row++) {
+            if (x < right) {
+                Arrays.fill(canvas, row * width + x, row * width + right, 0);
+            }
+        }
+    }
+
+    private void readColorTable(int[] table, int size) throws IOException {
+        if (position + size * 3 > data.length) {
+            throw new IOException("Truncated colour table");
+        }
+        Arrays.fill(table, 0xFF000000);
+        for (int i = 0; i < size; i++) {
+            int r = data[position++] & 0xFF;
+            int g = data[position++] & 0xFF;
+            int b = data[position++] & 0xFF;
+            table[i] = 0xFF000000 | r << 16 | g << 8 | b;
+        }
+    }
+
+    private void skipSubBlocks() throws IOException {
+        int size;
+        while ((size = readByte()) != 0) {
+            position += size;
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (position >= data.length) {
+            throw new IOException("Unexpected end of GIF data");
+        }
+        return data[position++] & 0xFF;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | readByte() << 8;
+    }
+}
@@ -0,0 +1,87 @@
+package com.lota.LotaGuide.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes a response body that has gone {@code timeoutMillis} without delivering a byte, and turns the read it
+ * breaks off into a {@link SocketTimeoutException}. A body that keeps arriving is never cut off, however long
+ * it takes. Closing the stream stops the watchdog.
+ * <p>
+ * There is one pending check at a time, re-armed for whatever is left of the timeout since the last byte,
+ * so reads themselves only record the time.
+ */
+final class IdleTimeoutInputStream extends FilterInputStream {
+    private final long timeoutNanos;
+    private volatile long lastProgress = System.nanoTime();
+    private volatile boolean timedOut;
+    private volatile boolean closed;
+
+    IdleTimeoutInputStream(InputStream in, long timeoutMillis) {
+        super(in);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        schedule(timeoutNanos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b;
+        try {
+            b = in.read();
+        } catch (IOException e) {
+            throw timedOut ? timeout() : e;
+        }
+        return progress(b == -1 ? -1 : 1) == -1 ? -1 : b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read;
+        try {
+            read = in.read(b, off, len);
+        } catch (IOException e) {
+            throw timedOut ? timeout() : e;
+        }
+        return progress(read);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        super.close();
+    }
+
+    private int progress(int read) throws IOException {
+        // A stream closed by the watchdog may report a clean end; the body is still incomplete
+        if (timedOut) throw timeout();
+        if (read > 0) {
+            lastProgress = System.nanoTime();
+        }
+        return read;
+    }
+
+    private void schedule(long delayNanos) {
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(this::check);
+    }
+
+    private void check() {
+        if (closed) return;
+        long idle = System.nanoTime() - lastProgress;
+        if (idle < timeoutNanos) {
+            schedule(timeoutNanos - idle);
+            return;
+        }
+        timedOut = true;
+        try {
+            in.close();
+        } catch (IOException ignored) {}
+    }
+
+    private SocketTimeoutException timeout() {
+        return new SocketTimeoutException("No data for " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+    }
+}
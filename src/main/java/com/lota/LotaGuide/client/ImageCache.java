@@ -1,96 +1,264 @@
 package com.lota.LotaGuide.client;
 
+import com.lota.LotaGuide.Config;
+import com.lota.LotaGuide.network.RelayResponsePacket;
 import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.renderer.texture.DynamicTexture;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.fml.loading.FMLPaths;
 
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 @OnlyIn(Dist.CLIENT)
 public class ImageCache {
     private static final ImageCache INSTANCE = new ImageCache();
-    private static final int MAX_CACHE_SIZE = 50;
     private static final int MAX_FILE_SIZE = 10 * 1024 * 1024;
     private static final int CONNECTION_TIMEOUT = 15000;
     private static final int READ_TIMEOUT = 30000;
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+    private static final String DISK_CACHE_DIR = "lotaguide/image_cache";
+    private static final String DECODED_CACHE_DIR = "lotaguide/decoded_cache";
+    // Matches the image area of ImageBookViewScreen / ImageBookEditScreen, in GUI pixels
+    private static final int DISPLAY_AREA_WIDTH = 280;
+    private static final int DISPLAY_AREA_HEIGHT = 210;
+    private static final int DEFAULT_ATLAS_SIZE = 2048;
+    private static final int MAX_ATLAS_SIZE = 4096;
+    private static final long STREAMING_THRESHOLD_BYTES = 32L * 1024 * 1024;
+    private static final int MAX_ATLAS_FRAMES = 300;
+    
+    // One shared client so connections are kept alive and HTTP/2 streams are multiplexed per host
+    static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .connectTimeout(Duration.ofMillis(CONNECTION_TIMEOUT))
+        .build();
     
     private final ConcurrentHashMap<String, CachedImage> cache = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, CompletableFuture<CachedImage>> pendingDownloads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Download> pendingDownloads = new ConcurrentHashMap<>();
+    private final WeightedEvictionPolicy<String> evictionPolicy = new WeightedEvictionPolicy<>(Config.memoryCacheSizeMb * 1024L * 1024L);
+    private final ImageLoadScheduler scheduler = new ImageLoadScheduler();
+    private final FailureCache failures = new FailureCache();
+    // Bumped on every change a screen could observe, so ImageHandles know when to re-resolve
+    private volatile int version;
+    private volatile ImageDiskCache diskCache;
+    private volatile DecodedImageCache decodedCache;
+    private volatile int maxAtlasSize = DEFAULT_ATLAS_SIZE;
+    private boolean atlasSizeQueried = false;
     
     public static ImageCache getInstance() {
         return INSTANCE;
     }
     
+    private ImageDiskCache getDiskCache() {
+        ImageDiskCache disk = diskCache;
+        if (disk == null) {
+            synchronized (this) {
+                disk = diskCache;
+                if (disk == null) {
+                    disk = new ImageDiskCache(FMLPaths.GAMEDIR.get().resolve(DISK_CACHE_DIR),
+                        Config.diskCacheSizeMb * 1024L * 1024L);
+                    diskCache = disk;
+                }
+            }
+        }
+        return disk;
+    }
+    
+    private DecodedImageCache getDecodedCache() {
+        DecodedImageCache decoded = decodedCache;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = decodedCache;
+                if (decoded == null) {
+                    decoded = new DecodedImageCache(FMLPaths.GAMEDIR.get().resolve(DECODED_CACHE_DIR),
+                        Config.decodedCacheSizeMb * 1024L * 1024L);
+                    decodedCache = decoded;
+                }
+            }
+        }
+        return decoded;
+    }
+    
+    /**
+     * One frame of an image: a region of a (possibly shared) texture.
+     * Animated images pack their frames into a few atlas textures, so screens
+     * must blit the {@code u, v, width, height} sub-rectangle rather than the whole texture.
+     */
+    public static class Frame {
+        private final ResourceLocation texture;
+        private final int u;
+        private final int v;
+        private final int width;
+        private final int height;
+        private final int textureWidth;
+        private final int textureHeight;
+        
+        public Frame(ResourceLocation texture, int u, int v, int width, int height, int textureWidth, int textureHeight) {
+            this.texture = texture;
+            this.u = u;
+            this.v = v;
+            this.width = width;
+            this.height = height;
+            this.textureWidth = textureWidth;
+            this.textureHeight = textureHeight;
+        }
+        
+        public ResourceLocation getTexture() { return texture; }
+        public int getU() { return u; }
+        public int getV() { return v; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public int getTextureWidth() { return textureWidth; }
+        public int getTextureHeight() { return textureHeight; }
+    }
+    
     public static class CachedImage {
-        private final List<ResourceLocation> frameTextures;
+        private final List<Frame> frames;
+        private final List<ResourceLocation> textures;
         private final List<Integer> frameDelays;
+        // End time of each frame within one playback cycle, so picking a frame needs no summing
+        private final long[] frameEnds;
+        @Nullable private final StreamingAnimation animation;
         private final int width;
         private final int height;
+        private final long byteSize;
         private final boolean isAnimated;
         private final boolean isError;
         private final String errorMessage;
+        @Nullable private final FailureCache.Kind failureKind;
+        // Completes once every texture in {@code textures} has been created on the render thread
+        private CompletableFuture<Void> uploaded = CompletableFuture.completedFuture(null);
+        @Nullable private String contentHash;
         
-        public CachedImage(List<ResourceLocation> frameTextures, List<Integer> frameDelays, int width, int height) {
-            this.frameTextures = frameTextures;
+        /**
+         * @param frames   frame regions, in playback order
+         * @param textures the distinct textures backing the frames, released together on eviction
+         * @param width    original image width, used for layout and aspect ratio
+         * @param height   original image height
+         * @param byteSize texture memory held by {@code textures}
+         */
+        public CachedImage(List<Frame> frames, List<ResourceLocation> textures, List<Integer> frameDelays,
+                           int width, int height, long byteSize) {
+            this.frames = frames;
+            this.textures = textures;
             this.frameDelays = frameDelays;
+            this.frameEnds = new long[frameDelays.size()];
+            long end = 0;
+            for (int i = 0; i < frameEnds.length; i++) {
+                end += frameDelays.get(i);
+                frameEnds[i] = end;
+            }
+            this.animation = null;
             this.width = width;
             this.height = height;
-            this.isAnimated = frameTextures.size() > 1;
+            this.byteSize = byteSize;
+            this.isAnimated = frames.size() > 1;
             this.isError = false;
             this.errorMessage = null;
+            this.failureKind = null;
         }
         
-        public CachedImage(String errorMessage) {
-            this.frameTextures = new ArrayList<>();
+        /**
+         * An animation whose frames are decoded on demand instead of being held in textures.
+         */
+        public CachedImage(StreamingAnimation animation, int width, int height, long byteSize) {
+            this.frames = new ArrayList<>();
+            this.textures = new ArrayList<>();
             this.frameDelays = new ArrayList<>();
+            this.frameEnds = new long[0];
+            this.animation = animation;
+            this.width = width;
+            this.height = height;
+            this.byteSize = byteSize;
+            this.isAnimated = true;
+            this.isError = false;
+            this.errorMessage = null;
+            this.failureKind = null;
+        }
+        
+        /**
+         * A failed load. These never enter the cache; they are recorded in the {@link FailureCache} instead.
+         */
+        public CachedImage(FailureCache.Kind failureKind, String errorMessage) {
+            this.frames = new ArrayList<>();
+            this.textures = new ArrayList<>();
+            this.frameDelays = new ArrayList<>();
+            this.frameEnds = new long[0];
+            this.animation = null;
             this.width = 0;
             this.height = 0;
+            this.byteSize = 0;
             this.isAnimated = false;
             this.isError = true;
             this.errorMessage = errorMessage;
+            this.failureKind = failureKind;
         }
         
-        public ResourceLocation getTexture(long gameTime) {
-            if (frameTextures.isEmpty()) return null;
-            if (!isAnimated) return frameTextures.get(0);
+        @Nullable
+        public Frame getFrame(long timeMillis) {
+            if (animation != null) return animation.getFrame(timeMillis);
+            if (frames.isEmpty()) return null;
+            if (!isAnimated) return frames.get(0);
             
-            long totalCycleTime = 0;
-            for (int delay : frameDelays) {
-                totalCycleTime += delay;
-            }
-            if (totalCycleTime == 0) return frameTextures.get(0);
+            long totalCycleTime = frameEnds.length > 0 ? frameEnds[frameEnds.length - 1] : 0;
+            if (totalCycleTime == 0) return frames.get(0);
             
-            long cyclePosition = (System.currentTimeMillis()) % totalCycleTime;
-            long accumulated = 0;
-            for (int i = 0; i < frameDelays.size(); i++) {
-                accumulated += frameDelays.get(i);
-                if (cyclePosition < accumulated) {
-                    return frameTextures.get(i);
+            long cyclePosition = timeMillis % totalCycleTime;
+            int count = Math.min(frameEnds.length, frames.size());
+            for (int i = 0; i < count; i++) {
+                if (cyclePosition < frameEnds[i]) {
+                    return frames.get(i);
                 }
             }
-            return frameTextures.get(0);
+            return frames.get(0);
         }
         
         public int getWidth() { return width; }
         public int getHeight() { return height; }
+        /** SHA-256 of the bytes this image was decoded from, if known. */
+        @Nullable public String getContentHash() { return contentHash; }
+        /** Approximate texture memory held by this image, used as its eviction weight. */
+        public long getByteSize() { return byteSize; }
         public boolean isAnimated() { return isAnimated; }
         public boolean isError() { return isError; }
         public String getErrorMessage() { return errorMessage; }
@@ -98,339 +266,1105 @@ public class ImageCache {
     
     @Nullable
     public CachedImage getImage(String url) {
+        return getImage(url, ImageLoadScheduler.Priority.VISIBLE);
+    }
+    
+    /**
+     * Returns the cached image for {@code url}, or null while it is still loading or has failed.
+     * A missing image is scheduled for download at the given priority, unless it failed recently
+     * and its retry is not yet due; see {@link #getFailure(String)}.
+     */
+    @Nullable
+    public CachedImage getImage(String url, ImageLoadScheduler.Priority priority) {
+        return getImage(url, priority, null);
+    }
+    
+    /**
+     * Like {@link #getImage(String, ImageLoadScheduler.Priority)}, for an image whose SHA-256 is known
+     * from the book: locally stored bytes with that hash are used without any request.
+     */
+    @Nullable
+    public CachedImage getImage(String url, ImageLoadScheduler.Priority priority, @Nullable String contentHash) {
         if (url == null || url.isEmpty()) return null;
         
+        if (!atlasSizeQueried) {
+            // The GL limit can only be queried on the render thread, which is where getImage is called from
+            atlasSizeQueried = true;
+            maxAtlasSize = Math.min(MAX_ATLAS_SIZE, RenderSystem.maxSupportedTextureSize());
+        }
+        
         CachedImage cached = cache.get(url);
-        if (cached != null) return cached;
+        if (cached != null) {
+            evictionPolicy.recordAccess(url);
+            return cached;
+        }
         
-        if (!pendingDownloads.containsKey(url)) {
-            startDownload(url);
+        Download pending = pendingDownloads.get(url);
+        if (pending == null) {
+            if (isBackingOff(url)) return null;
+            pending = startDownload(url, priority, contentHash);
+        }
+        if (priority == ImageLoadScheduler.Priority.VISIBLE) {
+            pending.visible = true;
         }
+        // Joining a load queued for a less urgent caller moves it up the queues
+        pending.promote(priority);
         
         return null;
     }
     
+    /**
+     * Starts loading {@code url} in the background unless it is already cached or loading.
+     * Unlike {@link #getImage(String, ImageLoadScheduler.Priority)} this does not count as an access.
+     * {@link ImageLoadScheduler.Priority#BACKGROUND} loads are only kept if they fit into the unused
+     * part of the memory budget, so they never evict anything.
+     *
+     * @return the caller's claim on the load, to be withdrawn with {@link #cancelPrefetch(Prefetch)},
+     *         or null if nothing was started or joined
+     */
+    @Nullable
+    public Prefetch prefetch(String url, ImageLoadScheduler.Priority priority) {
+        return prefetch(url, priority, null);
+    }
+    
+    /**
+     * Like {@link #prefetch(String, ImageLoadScheduler.Priority)}, for an image whose SHA-256 is known.
+     */
+    @Nullable
+    public Prefetch prefetch(String url, ImageLoadScheduler.Priority priority, @Nullable String contentHash) {
+        if (url == null || url.isEmpty() || cache.containsKey(url) || isBackingOff(url)) return null;
+        if (priority == ImageLoadScheduler.Priority.BACKGROUND && evictionPolicy.getTotalWeight() >= evictionPolicy.getMaxWeight()) {
+            // Background loads only fill free budget; with none left the work would be thrown away
+            return null;
+        }
+        
+        Download pending = pendingDownloads.get(url);
+        if (pending == null) {
+            pending = startDownload(url, priority, contentHash);
+        }
+        pending.promote(priority);
+        pending.prefetchers.incrementAndGet();
+        return new Prefetch(url, pending);
+    }
+    
+    /**
+     * Withdraws a {@link #prefetch}, from the load it joined only; a later load of the same URL, started after
+     * that one finished, is left alone. When nobody else waits on the load (no other prefetch, no screen
+     * holding a handle), it is cancelled wherever it is: still queued, reading the HTTP body or decoding.
+     * Withdrawing the same prefetch twice does nothing.
+     */
+    public void cancelPrefetch(Prefetch prefetch) {
+        if (prefetch.withdrawn) return;
+        prefetch.withdrawn = true;
+        Download download = prefetch.download;
+        if (download.prefetchers.updateAndGet(n -> Math.max(0, n - 1)) == 0
+                && pendingDownloads.get(prefetch.url) == download) {
+            cancelIfUnwanted(prefetch.url, download);
+        }
+    }
+    
+    /**
+     * Raises the load a {@link #prefetch} joined to {@code priority} if that is more urgent, including the stage
+     * queued right now. Does nothing for a withdrawn prefetch.
+     */
+    public void promotePrefetch(Prefetch prefetch, ImageLoadScheduler.Priority priority) {
+        if (!prefetch.withdrawn) {
+            prefetch.download.promote(priority);
+        }
+    }
+    
+    /**
+     * One caller's claim on a load started or joined by {@link #prefetch}. Render thread only.
+     */
+    public static final class Prefetch {
+        private final String url;
+        private final Download download;
+        private boolean withdrawn;
+        
+        private Prefetch(String url, Download download) {
+            this.url = url;
+            this.download = download;
+        }
+        
+        public String getUrl() {
+            return url;
+        }
+    }
+    
+    private void cancelIfUnwanted(String url, Download download) {
+        if (download.prefetchers.get() > 0 || evictionPolicy.isPinned(url)) return;
+        download.cancel();
+        // A cancelled load cannot be resumed; the next request starts a fresh one
+        if (pendingDownloads.remove(url, download)) {
+            version++;
+        }
+    }
+    
+    /**
+     * The last failure of {@code url}, or null if it has not failed since it last loaded.
+     * While a retry is in flight the failure is kept, so the attempt count survives.
+     */
+    @Nullable
+    public FailureCache.Failure getFailure(String url) {
+        return failures.get(url);
+    }
+    
+    private boolean isBackingOff(String url) {
+        FailureCache.Failure failure = failures.get(url);
+        return failure != null && !failure.isDue(System.currentTimeMillis());
+    }
+    
+    /**
+     * Returns a handle for reading {@code url}'s state every frame without repeated lookups.
+     * Until the handle is released the URL is pinned: its image is never evicted and its load never
+     * cancelled, so a screen cannot lose the texture it is drawing.
+     */
+    public ImageHandle acquire(String url) {
+        return acquire(url, null);
+    }
+    
+    /**
+     * Like {@link #acquire(String)}, for an image whose SHA-256 is known from the book.
+     */
+    public ImageHandle acquire(String url, @Nullable String contentHash) {
+        evictionPolicy.pin(url);
+        return new ImageHandle(this, url, contentHash);
+    }
+    
+    /**
+     * The image for {@code url} if it is in memory right now. Never starts a load and does not count as an access.
+     */
+    @Nullable
+    public CachedImage getIfLoaded(String url) {
+        return cache.get(url);
+    }
+    
+    void release(String url) {
+        // Anything that had to stay while the URL was pinned can go now
+        evict(evictionPolicy.unpin(url));
+        Download pending = pendingDownloads.get(url);
+        if (pending != null) {
+            cancelIfUnwanted(url, pending);
+        }
+    }
+    
+    int getVersion() {
+        return version;
+    }
+    
+    void recordAccess(String url) {
+        evictionPolicy.recordAccess(url);
+    }
+    
     public boolean isLoading(String url) {
         return pendingDownloads.containsKey(url);
     }
     
-    private void startDownload(String url) {
-        CompletableFuture<CachedImage> future = CompletableFuture.supplyAsync(() -> {
-            try {
-                return downloadImage(url);
-            } catch (Exception e) {
-                return new CachedImage("Error: " + e.getMessage());
-            }
-        });
-        
-        pendingDownloads.put(url, future);
+    private Download startDownload(String url, ImageLoadScheduler.Priority priority, @Nullable String contentHash) {
+        Download created = new Download(scheduler, priority, contentHash);
+        // Single flight: whoever installs its Download starts the load, every other caller joins it
+        Download download = pendingDownloads.computeIfAbsent(url, key -> created);
+        if (download == created) {
+            version++;
+            launch(url, download, priority);
+        }
+        return download;
+    }
+    
+    private void launch(String url, Download download, ImageLoadScheduler.Priority priority) {
+        CompletableFuture<CachedImage> future;
+        if (!isFetchableUrl(url)) {
+            future = CompletableFuture.completedFuture(new CachedImage(FailureCache.Kind.INVALID_URL, "Invalid URL"));
+        } else {
+            // Network wait on the I/O pool, then decoding on the CPU pool
+            future = download.track(scheduler.submitIo(hostOf(url), priority, () -> download.run(() -> {
+                    ImageSource source = downloadImageData(url, download);
+                    if (download.cancelled) {
+                        source.release();
+                        throw new CancellationException();
+                    }
+                    return source;
+                }), ImageSource::release))
+                // Submitted at the load's priority by now, which may have been raised while it downloaded
+                .thenCompose(source -> download.track(scheduler.submitDecode(download.priority,
+                        () -> download.run(() -> decodeImage(url, source)), this::discard))
+                    // Covers a decode that was cancelled before it ran; releasing twice is harmless
+                    .whenComplete((image, t) -> {
+                        if (t != null) source.release();
+                    }))
+                .thenCompose(this::whenUploaded)
+                // A cancelled load leaves nothing behind, not even an error entry
+                .exceptionally(t -> download.cancelled ? null : toErrorImage(t));
+        }
         
         future.thenAccept(image -> {
             Minecraft.getInstance().execute(() -> {
-                if (image != null) {
-                    if (cache.size() >= MAX_CACHE_SIZE) {
-                        String oldest = cache.keys().nextElement();
-                        CachedImage removed = cache.remove(oldest);
-                        if (removed != null) {
-                            cleanupImage(removed);
-                        }
+                if (image == null || (image.isError() && download.cancelled)) {
+                    // Cancelled; an error caused by the interruption is not the URL's fault
+                } else if (image.isError()) {
+                    failures.record(url, image.failureKind, image.getErrorMessage(), System.currentTimeMillis());
+                } else if (download.background && !download.visible
+                        && evictionPolicy.getTotalWeight() + image.getByteSize() > evictionPolicy.getMaxWeight()) {
+                    // Nobody asked to see it and it would push something else out
+                    cleanupImage(image);
+                } else {
+                    failures.remove(url);
+                    CachedImage replaced = cache.put(url, image);
+                    if (replaced != null && replaced != image) {
+                        cleanupImage(replaced);
                     }
-                    cache.put(url, image);
+                    evict(evictionPolicy.add(url, image.getByteSize()));
                 }
-                pendingDownloads.remove(url);
+                pendingDownloads.remove(url, download);
+                version++;
             });
         });
     }
     
-    private CachedImage downloadImage(String urlString) {
-        try {
-            if (!urlString.startsWith("https://") && !urlString.startsWith("http://")) {
-                return new CachedImage("Invalid URL");
+    /**
+     * State of one in-flight load, shared between the render thread and the worker pools.
+     * A load is cancelled once nobody waits on it: its URL is not pinned by a handle and every prefetch
+     * of it has been withdrawn. Cancelling skips stages that are still queued, closes the HTTP body
+     * mid-read and interrupts a running decode.
+     */
+    static class Download {
+        private final ImageLoadScheduler scheduler;
+        // Priority of the most urgent caller so far; later stages are submitted at it
+        private volatile ImageLoadScheduler.Priority priority;
+        // Loaded for warm-up only: admitted into free budget, never at the cost of an eviction
+        private volatile boolean background;
+        // Prefetches waiting on the result; screens wait by pinning the URL instead
+        private final AtomicInteger prefetchers = new AtomicInteger();
+        // SHA-256 the book recorded for the image; the first requester's hint is the one used
+        @Nullable private final String contentHash;
+        // Set once the image has been requested for display
+        private volatile boolean visible;
+        private volatile boolean cancelled;
+        // What cancel() has to stop: the current stage, the pool thread running it and the open HTTP body
+        @Nullable private CompletableFuture<?> stage;
+        @Nullable private Thread worker;
+        @Nullable private InputStream body;
+        
+        Download(ImageLoadScheduler scheduler, ImageLoadScheduler.Priority priority, @Nullable String contentHash) {
+            this.scheduler = scheduler;
+            this.priority = priority;
+            this.background = priority == ImageLoadScheduler.Priority.BACKGROUND;
+            // Books store an empty string for "not recorded"
+            this.contentHash = contentHash != null && !contentHash.isEmpty() ? contentHash : null;
+        }
+        
+        synchronized <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            stage = future;
+            if (cancelled) {
+                future.cancel(false);
+            }
+            // The stage may have been submitted just before a promotion it did not see
+            scheduler.promote(future, priority);
+            return future;
+        }
+        
+        /**
+         * Runs one stage on the calling pool thread, where {@link #cancel()} can interrupt it.
+         */
+        <T> T run(Callable<T> work) throws Exception {
+            synchronized (this) {
+                checkCancelled();
+                worker = Thread.currentThread();
             }
-            
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(CONNECTION_TIMEOUT);
-            connection.setReadTimeout(READ_TIMEOUT);
-            connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
-            connection.setRequestProperty("Accept", "image/*,*/*;q=0.8");
-            connection.setInstanceFollowRedirects(true);
-            
             try {
-                int responseCode = connection.getResponseCode();
-                if (responseCode != 200) {
-                    return new CachedImage("HTTP " + responseCode);
-                }
-                
-                int contentLength = connection.getContentLength();
-                if (contentLength > MAX_FILE_SIZE) {
-                    return new CachedImage("File too large");
-                }
-                
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                try (InputStream inputStream = connection.getInputStream()) {
-                    byte[] data = new byte[16384];
-                    int bytesRead;
-                    int totalRead = 0;
-                    while ((bytesRead = inputStream.read(data)) != -1) {
-                        totalRead += bytesRead;
-                        if (totalRead > MAX_FILE_SIZE) {
-                            return new CachedImage("File too large");
-                        }
-                        buffer.write(data, 0, bytesRead);
-                    }
-                }
-                
-                byte[] imageData = buffer.toByteArray();
-                
-                if (imageData.length < 10) {
-                    return new CachedImage("Empty response");
-                }
-                
-                // Check for GIF magic bytes (GIF87a or GIF89a)
-                boolean isGif = imageData.length > 6 && 
-                    imageData[0] == (byte)'G' && 
-                    imageData[1] == (byte)'I' && 
-                    imageData[2] == (byte)'F' &&
-                    imageData[3] == (byte)'8' &&
-                    (imageData[4] == (byte)'7' || imageData[4] == (byte)'9') &&
-                    imageData[5] == (byte)'a';
-                
-                if (!isGif && urlString.toLowerCase().contains(".gif")) {
-                    isGif = true;
-                }
-                
-                if (isGif) {
-                    CachedImage result = parseGif(imageData);
-                    if (result != null && !result.isError()) {
-                        return result;
-                    }
-                    // GIF parsing failed, try as static image
-                }
-                
-                return parseStaticImage(imageData);
-                
+                return work.call();
             } finally {
-                connection.disconnect();
+                synchronized (this) {
+                    worker = null;
+                    body = null;
+                }
+                // Pool threads are reused; never hand one on with our interrupt still set
+                Thread.interrupted();
             }
-        } catch (Exception e) {
-            return new CachedImage("Download failed");
         }
+        
+        /**
+         * Raises the load to {@code priority} if that is more urgent, including the stage queued right now.
+         * A load someone wants sooner than warm-up is no longer held to the free budget.
+         */
+        synchronized void promote(ImageLoadScheduler.Priority priority) {
+            if (priority.compareTo(this.priority) >= 0) return;
+            this.priority = priority;
+            background = false;
+            if (stage != null) {
+                scheduler.promote(stage, priority);
+            }
+        }
+        
+        synchronized void attach(InputStream stream) {
+            body = stream;
+            if (cancelled) {
+                closeQuietly(stream);
+            }
+        }
+        
+        synchronized void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            if (stage != null) stage.cancel(false);
+            if (worker != null) worker.interrupt();
+            if (body != null) closeQuietly(body);
+        }
+        
+        private void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+    }
+    
+    /**
+     * Holds a decoded image back until its textures exist, so screens never draw one that is still queued.
+     * Runs on the render thread whenever uploads were needed.
+     */
+    private CompletableFuture<CachedImage> whenUploaded(CachedImage image) {
+        return image.uploaded.handle((ignored, t) -> {
+            if (t == null) {
+                return image;
+            }
+            cleanupImage(image);
+            return new CachedImage(FailureCache.Kind.TEXTURE, "Texture creation failed");
+        });
+    }
+    
+    private static CachedImage toErrorImage(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof DownloadException download) {
+            return new CachedImage(download.kind, download.getMessage());
+        }
+        if (cause instanceof IOException io) {
+            return new CachedImage(classify(io), "Download failed");
+        }
+        return new CachedImage(FailureCache.Kind.NETWORK, "Download failed");
     }
     
-    private CachedImage parseStaticImage(byte[] imageData) {
+    static FailureCache.Kind classify(IOException e) {
+        return e instanceof HttpTimeoutException || e instanceof SocketTimeoutException
+            ? FailureCache.Kind.TIMEOUT : FailureCache.Kind.NETWORK;
+    }
+    
+    /**
+     * Whether {@code url} is syntactically an absolute http(s) URL with a host, i.e. worth a request.
+     */
+    public static boolean isFetchableUrl(String url) {
+        if (!url.startsWith("https://") && !url.startsWith("http://")) return false;
         try {
-            BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(imageData));
-            if (bufferedImage == null) {
-                return new CachedImage("Unsupported format");
+            String host = new URI(url).getHost();
+            return host != null && !host.isEmpty();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+    
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+    
+    /**
+     * Runs on the I/O pool: streams the image body to disk (or finds it there) without buffering it in memory.
+     */
+    private ImageSource downloadImageData(String urlString, Download download) throws DownloadException, IOException {
+        ImageDiskCache disk = getDiskCache();
+        if (download.contentHash != null) {
+            // The book names the exact bytes: any stored copy of them is current, whatever URL it came from
+            ImageDiskCache.Entry stored = disk.lookupContent(download.contentHash);
+            if (stored != null && disk.pin(stored)) {
+                return new ImageSource(disk, stored);
+            }
+        }
+        ImageDiskCache.Entry diskEntry = disk.lookup(urlString);
+        
+        ImageSource source;
+        try {
+            source = RelayClient.isAvailable() ? fetchFromRelay(urlString, disk, diskEntry) : null;
+            if (source == null) {
+                source = fetchImageData(urlString, disk, diskEntry, download);
+            }
+        } catch (IOException e) {
+            // A closed body or interrupted request from cancel() is not a network failure
+            download.checkCancelled();
+            // Offline or host unreachable: fall back to whatever we stored last time
+            if (diskEntry == null || !disk.pin(diskEntry)) {
+                FailureCache.Kind kind = classify(e);
+                throw new DownloadException(kind, kind == FailureCache.Kind.TIMEOUT ? "Timed out" : "Download failed");
+            }
+            source = new ImageSource(disk, diskEntry);
+        }
+        
+        if (Files.size(source.file) < 10) {
+            source.release();
+            throw new DownloadException(FailureCache.Kind.UNSUPPORTED_FORMAT, "Empty response");
+        }
+        return source;
+    }
+    
+    /**
+     * Runs on the decode pool: streams the image body from disk into the decoder.
+     * Only the first few bytes are peeked to sniff the format.
+     */
+    private CachedImage decodeImage(String urlString, ImageSource source) {
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        CachedImage result = loadDecoded(source, uploads);
+        if (result == null) {
+            result = decode(urlString, source, uploads);
+        }
+        result.contentHash = source.contentHash;
+        if (!uploads.isEmpty()) {
+            result.uploaded = CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]));
+        }
+        return result;
+    }
+    
+    /**
+     * Builds the image from the decoded-pixel cache when its bytes have been decoded at the current
+     * display bounds before. Returns null to decode as usual.
+     */
+    @Nullable
+    private CachedImage loadDecoded(ImageSource source, List<CompletableFuture<Void>> uploads) {
+        if (source.contentHash == null) return null;
+        int[] bounds = displayBounds();
+        DecodedImageCache.Frames stored = getDecodedCache().read(source.contentHash, bounds[0], bounds[1]);
+        if (stored == null) return null;
+        
+        CachedImage result = packIntoAtlases(stored, stored.getFrameCount(), stored.getWidth(), stored.getHeight(),
+            stored.getFrameWidth(), stored.getFrameHeight(), uploads, null);
+        if (result != null) {
+            source.release();
+        }
+        return result;
+    }
+    
+    /**
+     * Runs one decode attempt with a decoded-pixel cache entry for {@code source} (null if it cannot have one)
+     * to write frames into. The entry is committed if the attempt produced an image with textures, and dropped
+     * if it failed, was cancelled or streams its frames (too large to be worth storing).
+     */
+    @Nullable
+    private CachedImage decodeStoring(ImageSource source, Function<DecodedImageCache.Writer, CachedImage> attempt) {
+        int[] bounds = displayBounds();
+        DecodedImageCache.Writer writer = getDecodedCache().writer(source.contentHash, bounds[0], bounds[1]);
+        CachedImage result = null;
+        try {
+            result = attempt.apply(writer);
+            return result;
+        } finally {
+            if (writer != null) {
+                if (result != null && !result.isError() && result.animation == null) {
+                    writer.commit(result.getWidth(), result.getHeight());
+                } else {
+                    writer.abort();
+                }
+            }
+        }
+    }
+    
+    private CachedImage decode(String urlString, ImageSource source, List<CompletableFuture<Void>> uploads) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(source.file.toFile())) {
+            if (stream == null) {
+                return new CachedImage(FailureCache.Kind.UNSUPPORTED_FORMAT, "Unsupported format");
             }
             
-            ResourceLocation texture = createTexture(bufferedImage);
-            if (texture == null) {
-                return new CachedImage("Texture creation failed");
+            byte[] header = new byte[6];
+            stream.mark();
+            stream.readFully(header);
+            stream.reset();
+            
+            // Check for GIF magic bytes (GIF87a or GIF89a)
+            boolean isGif = header[0] == (byte)'G' && 
+                header[1] == (byte)'I' && 
+                header[2] == (byte)'F' &&
+                header[3] == (byte)'8' &&
+                (header[4] == (byte)'7' || header[4] == (byte)'9') &&
+                header[5] == (byte)'a';
+            
+            if (!isGif && urlString.toLowerCase().contains(".gif")) {
+                isGif = true;
             }
             
-            List<ResourceLocation> textures = new ArrayList<>();
-            textures.add(texture);
-            List<Integer> delays = new ArrayList<>();
-            delays.add(0);
+            if (isGif) {
+                CachedImage result = decodeStoring(source, writer -> parseGif(source.file, uploads, writer));
+                if (result != null && !result.isError()) {
+                    return result;
+                }
+                // GIF parsing failed, try as static image
+                stream.seek(0);
+            }
             
-            return new CachedImage(textures, delays, bufferedImage.getWidth(), bufferedImage.getHeight());
-        } catch (Exception e) {
-            return new CachedImage("Image parse error");
+            return decodeStoring(source, writer -> parseStaticImage(stream, uploads, writer));
+        } catch (IOException e) {
+            return new CachedImage(FailureCache.Kind.UNSUPPORTED_FORMAT, "Image parse error");
+        } finally {
+            source.release();
         }
     }
     
-    private CachedImage parseGif(byte[] imageData) {
-        List<BufferedImage> frames = new ArrayList<>();
-        List<Integer> delays = new ArrayList<>();
-        int width = 0;
-        int height = 0;
+    /**
+     * Fetches the body for a URL through the server's image relay, or returns null when the origin
+     * should be tried directly (relay busy, origin unreachable from the server, no answer in time).
+     * An existing disk entry is offered by its content hash and used when the relay reports it current;
+     * a new body is streamed into the disk cache as it arrives.
+     */
+    @Nullable
+    private ImageSource fetchFromRelay(String urlString, ImageDiskCache disk, @Nullable ImageDiskCache.Entry diskEntry)
+            throws IOException, DownloadException {
+        Path cached = diskEntry != null ? disk.open(diskEntry) : null;
+        String cachedHash = cached != null ? diskEntry.getContentHash() : null;
+        
+        CompletableFuture<RelayClient.Body> relayed = RelayClient.fetch(urlString, cachedHash);
+        RelayClient.Body body;
+        try {
+            body = relayed.get(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            relayed.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        } catch (TimeoutException e) {
+            relayed.cancel(false);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RelayClient.RelayException relay && !relay.isFallbackWorthwhile()) {
+                int status = relay.getStatus();
+                // The relay does not say which status the origin answered with, so assume it may recover
+                FailureCache.Kind kind = status == RelayResponsePacket.FAILED ? FailureCache.Kind.HTTP_SERVER
+                    : status == RelayResponsePacket.TOO_LARGE ? FailureCache.Kind.TOO_LARGE
+                    : FailureCache.Kind.UNSUPPORTED_FORMAT;
+                throw new DownloadException(kind, "Relay status " + status);
+            }
+            return null;
+        }
+        if (body == null) {
+            // Gone since it was offered: ask the origin instead
+            return cached != null && disk.pin(diskEntry) ? new ImageSource(disk, diskEntry) : null;
+        }
+        
+        ImageDiskCache.Entry stored;
+        try (body) {
+            stored = disk.store(urlString, body, null, null, true);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // The transfer broke off; the origin may still answer directly
+            return null;
+        }
+        return new ImageSource(disk, stored);
+    }
+    
+    /**
+     * Fetches the body for a URL, revalidating against the disk cache when an entry exists.
+     * A 304 response is answered from disk; a 200 response is streamed into the disk cache.
+     */
+    ImageSource fetchImageData(String urlString, ImageDiskCache disk, @Nullable ImageDiskCache.Entry diskEntry,
+                                       Download download) throws IOException, DownloadException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(urlString));
+        } catch (IllegalArgumentException e) {
+            throw new DownloadException(FailureCache.Kind.INVALID_URL, "Invalid URL");
+        }
+        request.GET()
+            .timeout(Duration.ofMillis(READ_TIMEOUT))
+            .header("User-Agent", USER_AGENT)
+            .header("Accept", "image/*,*/*;q=0.8")
+            .header("Accept-Encoding", "gzip, deflate");
+        
+        if (diskEntry != null) {
+            if (diskEntry.getEtag() != null) {
+                request.header("If-None-Match", diskEntry.getEtag());
+            }
+            if (diskEntry.getLastModified() != null) {
+                request.header("If-Modified-Since", diskEntry.getLastModified());
+            }
+        }
         
+        HttpResponse<InputStream> response;
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
-            ImageInputStream stream = ImageIO.createImageInputStream(bais);
+            response = HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+        
+        // The request timeout only covers the response headers; a body that stops arriving is closed as well
+        InputStream body = new IdleTimeoutInputStream(response.body(), READ_TIMEOUT);
+        download.attach(body);
+        
+        try (InputStream rawStream = body) {
+            int responseCode = response.statusCode();
+            HttpHeaders headers = response.headers();
+            String etag = headers.firstValue("ETag").orElse(null);
+            String lastModified = headers.firstValue("Last-Modified").orElse(null);
             
-            if (stream == null) {
-                return null;
+            if (responseCode == 304 && diskEntry != null) {
+                if (disk.pin(diskEntry)) {
+                    disk.refresh(urlString, diskEntry, etag, lastModified);
+                    return new ImageSource(disk, diskEntry);
+                }
+                // The cached body vanished underneath us; retry without validators
+                disk.invalidate(urlString);
+                return fetchImageData(urlString, disk, null, download);
+            }
+            
+            if (responseCode != 200) {
+                throw new DownloadException(FailureCache.Kind.forStatus(responseCode), "HTTP " + responseCode);
             }
             
-            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
+            long contentLength = headers.firstValueAsLong("Content-Length").orElse(-1L);
+            if (contentLength > MAX_FILE_SIZE) {
+                throw new DownloadException(FailureCache.Kind.TOO_LARGE, "File too large");
+            }
+            
+            try (InputStream inputStream = new SizeLimitedInputStream(decodeContent(rawStream, headers), MAX_FILE_SIZE)) {
+                ImageDiskCache.Entry stored = disk.store(urlString, inputStream, etag, lastModified, true);
+                return new ImageSource(disk, stored);
+            } catch (FileTooLargeException e) {
+                throw new DownloadException(FailureCache.Kind.TOO_LARGE, "File too large");
+            }
+        }
+    }
+    
+    /**
+     * Undoes a compressed Content-Encoding. The size limit is applied to the decompressed bytes.
+     */
+    private static InputStream decodeContent(InputStream stream, HttpHeaders headers) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(stream, 16384);
+            case "deflate":
+                return new InflaterInputStream(stream);
+            default:
+                return stream;
+        }
+    }
+    
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {}
+    }
+    
+    /**
+     * A download that reached the server but cannot produce an image (bad status, oversized body).
+     * Unlike an {@link IOException}, this is not answered with a stale disk copy.
+     */
+    static class DownloadException extends Exception {
+        private final FailureCache.Kind kind;
+        
+        DownloadException(FailureCache.Kind kind, String message) {
+            super(message);
+            this.kind = kind;
+        }
+    }
+    
+    private static class FileTooLargeException extends IOException {
+    }
+    
+    /**
+     * Passes bytes through until {@code limit} is exceeded, then fails instead of buffering more.
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long total;
+        
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && ++total > limit) throw new FileTooLargeException();
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0 && (total += read) > limit) throw new FileTooLargeException();
+            return read;
+        }
+    }
+    
+    /**
+     * A downloaded body on disk, handed from the I/O stage to the decode stage. Its disk cache entry stays
+     * pinned until the source is released, so pruning cannot delete it in between; temporary files
+     * (disk cache disabled) are deleted instead.
+     */
+    static class ImageSource {
+        final Path file;
+        @Nullable final String contentHash;
+        private final ImageDiskCache disk;
+        private final ImageDiskCache.Entry entry;
+        private boolean released;
+        
+        /**
+         * Takes over the pin on {@code entry}.
+         */
+        ImageSource(ImageDiskCache disk, ImageDiskCache.Entry entry) {
+            this.disk = disk;
+            this.entry = entry;
+            this.file = entry.getDataFile();
+            this.contentHash = entry.getContentHash();
+        }
+        
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            disk.unpin(entry);
+            if (!disk.isEnabled()) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    private CachedImage parseStaticImage(ImageInputStream stream, List<CompletableFuture<Void>> uploads,
+                                         @Nullable DecodedImageCache.Writer stored) {
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
             if (!readers.hasNext()) {
-                stream.close();
-                return null;
+                return new CachedImage(FailureCache.Kind.UNSUPPORTED_FORMAT, "Unsupported format");
             }
             
             ImageReader reader = readers.next();
-            reader.setInput(stream, false, false);
-            
-            BufferedImage firstFrame;
+            BufferedImage bufferedImage;
+            int width;
+            int height;
             try {
-                firstFrame = reader.read(0);
-            } catch (Exception e) {
+                reader.setInput(stream, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                
+                // Skip source pixels at decode time so we never hold more than ~2x the displayed size
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = subsamplingFor(width, height);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                bufferedImage = reader.read(0, param);
+            } finally {
                 reader.dispose();
-                stream.close();
-                return null;
             }
-            
-            if (firstFrame == null) {
-                reader.dispose();
-                stream.close();
-                return null;
+            if (bufferedImage == null) {
+                return new CachedImage(FailureCache.Kind.UNSUPPORTED_FORMAT, "Unsupported format");
             }
+            checkInterrupted();
+            bufferedImage = fitToDisplay(bufferedImage);
             
-            width = firstFrame.getWidth();
-            height = firstFrame.getHeight();
-            
-            // Create a canvas for compositing frames
-            BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = canvas.createGraphics();
-            g.setBackground(new Color(0, 0, 0, 0));
+            int textureWidth = bufferedImage.getWidth();
+            int textureHeight = bufferedImage.getHeight();
+            int[] abgr = PixelConverter.toAbgr(bufferedImage);
+            if (stored != null) {
+                stored.frame(abgr, textureWidth, textureHeight, 0);
+            }
+            ResourceLocation texture = createTexture(toNativeImage(abgr, textureWidth, textureHeight), uploads);
             
-            int frameIndex = 0;
-            int maxFrames = 300; // Limit to prevent memory issues
+            List<Frame> frames = new ArrayList<>();
+            frames.add(new Frame(texture, 0, 0, textureWidth, textureHeight, textureWidth, textureHeight));
+            List<ResourceLocation> textures = new ArrayList<>();
+            textures.add(texture);
+            List<Integer> delays = new ArrayList<>();
+            delays.add(0);
             
-            while (frameIndex < maxFrames) {
-                BufferedImage frame;
-                try {
-                    frame = reader.read(frameIndex);
-                } catch (IndexOutOfBoundsException e) {
-                    break;
-                } catch (Exception e) {
-                    break;
-                }
-                
-                if (frame == null) break;
-                
-                g.drawImage(frame, 0, 0, null);
-                
-                // Create a copy of the current canvas state
-                BufferedImage completeFrame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g2 = completeFrame.createGraphics();
-                g2.drawImage(canvas, 0, 0, null);
-                g2.dispose();
-                
-                frames.add(completeFrame);
-                
-                int delay = 100;
-                try {
-                    javax.imageio.metadata.IIOMetadata metadata = reader.getImageMetadata(frameIndex);
-                    if (metadata != null) {
-                        String[] formatNames = metadata.getMetadataFormatNames();
-                        for (String formatName : formatNames) {
-                            if (formatName.equals("javax_imageio_gif_image_1.0")) {
-                                org.w3c.dom.Node root = metadata.getAsTree(formatName);
-                                org.w3c.dom.NodeList children = root.getChildNodes();
-                                for (int i = 0; i < children.getLength(); i++) {
-                                    org.w3c.dom.Node child = children.item(i);
-                                    if ("GraphicControlExtension".equals(child.getNodeName())) {
-                                        org.w3c.dom.NamedNodeMap attrs = child.getAttributes();
-                                        if (attrs != null) {
-                                            org.w3c.dom.Node delayNode = attrs.getNamedItem("delayTime");
-                                            if (delayNode != null) {
-                                                int delayValue = Integer.parseInt(delayNode.getNodeValue());
-                                                delay = delayValue * 10;
-                                                if (delay <= 0) delay = 100;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception ignored) {}
-                
-                delays.add(delay);
-                frameIndex++;
+            return new CachedImage(frames, textures, delays, width, height, (long) textureWidth * textureHeight * 4);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            return new CachedImage(FailureCache.Kind.UNSUPPORTED_FORMAT, "Image parse error");
+        }
+    }
+    
+    @Nullable
+    private CachedImage parseGif(Path file, List<CompletableFuture<Void>> uploads, @Nullable DecodedImageCache.Writer stored) {
+        try {
+            byte[] gifData = Files.readAllBytes(file);
+            GifDecoder decoder = new GifDecoder(gifData);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int frameCount = decoder.countFrames();
+            if (frameCount == 0) {
+                return null;
             }
             
-            g.dispose();
-            reader.dispose();
-            stream.close();
+            // Frames are stored at display resolution; the decoder canvas itself stays full size for compositing
+            int[] frameSize = displaySize(width, height);
+            int frameWidth = frameSize[0];
+            int frameHeight = frameSize[1];
+            GifFrames frames = new GifFrames(decoder, frameWidth, frameHeight);
             
-        } catch (Exception e) {
-            // Complete failure
+            // Long animations would need hundreds of MB as textures; decode those on demand instead
+            if ((long) frameCount * frameWidth * frameHeight * 4 > STREAMING_THRESHOLD_BYTES) {
+                return createStreamingGif(frames, width, height, frameWidth, frameHeight, gifData.length);
+            }
+            return packIntoAtlases(frames, Math.min(frameCount, MAX_ATLAS_FRAMES), width, height, frameWidth, frameHeight,
+                uploads, stored);
+        } catch (IOException e) {
             return null;
         }
-        
-        if (frames.isEmpty()) {
+    }
+    
+    @Nullable
+    private CachedImage createStreamingGif(GifFrames frames, int width, int height, int frameWidth, int frameHeight, long dataSize) {
+        StreamingAnimation animation = new StreamingAnimation(frames, scheduler, frameWidth, frameHeight);
+        if (!animation.prime()) {
+            animation.close();
             return null;
         }
+        if (Thread.currentThread().isInterrupted()) {
+            animation.close();
+            throw new CancellationException();
+        }
+        return new CachedImage(animation, width, height, animation.getByteSize() + dataSize);
+    }
+    
+    /**
+     * Sequential {@link GifDecoder}-backed frame source, scaling each composited frame to the display size.
+     * Keeps only the compressed GIF bytes and the decoder's canvas.
+     */
+    private static class GifFrames implements StreamingAnimation.FrameSource {
+        private final GifDecoder decoder;
+        private final int frameWidth;
+        private final int frameHeight;
+        @Nullable private final BufferedImage scaled;
+        
+        GifFrames(GifDecoder decoder, int frameWidth, int frameHeight) {
+            this.decoder = decoder;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.scaled = frameWidth == decoder.getWidth() && frameHeight == decoder.getHeight()
+                ? null : new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        
+        @Override
+        public int nextFrame(int[] abgr) throws IOException {
+            int delay = decoder.advance();
+            if (delay < 0) return -1;
+            
+            if (scaled == null) {
+                int[] canvas = decoder.getCanvas();
+                for (int i = 0, n = frameWidth * frameHeight; i < n; i++) {
+                    abgr[i] = PixelConverter.swizzle(canvas[i]);
+                }
+            } else {
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(decoder.getImage(), 0, 0, frameWidth, frameHeight, null);
+                g.dispose();
+                System.arraycopy(PixelConverter.toAbgr(scaled), 0, abgr, 0, frameWidth * frameHeight);
+            }
+            return delay;
+        }
         
+        @Override
+        public void rewind() {
+            decoder.rewind();
+        }
+        
+        @Override
+        public void close() {}
+    }
+    
+    /**
+     * Decodes up to {@code frameCount} equally sized animation frames straight into as few atlas textures
+     * as possible (row-major grid, each atlas at most {@link #maxAtlasSize} on a side),
+     * so a GIF costs a handful of GL textures instead of one per frame.
+     * Each frame is also appended to {@code stored}, if given.
+     */
+    @Nullable
+    private CachedImage packIntoAtlases(StreamingAnimation.FrameSource source, int frameCount, int width, int height,
+                                        int frameWidth, int frameHeight, List<CompletableFuture<Void>> uploads,
+                                        @Nullable DecodedImageCache.Writer stored) {
+        int atlasLimit = Math.max(Math.max(frameWidth, frameHeight), maxAtlasSize);
+        int columns = Math.max(1, atlasLimit / frameWidth);
+        int rows = Math.max(1, atlasLimit / frameHeight);
+        int framesPerAtlas = columns * rows;
+        int[] pixels = new int[frameWidth * frameHeight];
+        
+        List<Frame> frames = new ArrayList<>();
         List<ResourceLocation> textures = new ArrayList<>();
+        List<Integer> delays = new ArrayList<>();
+        long byteSize = 0;
+        boolean ended = false;
         
-        for (BufferedImage frame : frames) {
-            ResourceLocation texture = createTexture(frame);
-            if (texture != null) {
-                textures.add(texture);
+        for (int start = 0; start < frameCount && !ended; start += framesPerAtlas) {
+            int count = Math.min(framesPerAtlas, frameCount - start);
+            int atlasColumns = Math.min(columns, count);
+            int atlasRows = (count + atlasColumns - 1) / atlasColumns;
+            int atlasWidth = atlasColumns * frameWidth;
+            int atlasHeight = atlasRows * frameHeight;
+            
+            NativeImage atlas = new NativeImage(atlasWidth, atlasHeight, true);
+            int decoded = 0;
+            while (decoded < count) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // Cancelled mid-decode; atlases already queued are released once their uploads land
+                    atlas.close();
+                    releaseWhenUploaded(textures, uploads);
+                    throw new CancellationException();
+                }
+                int delay;
+                try {
+                    delay = source.nextFrame(pixels);
+                } catch (IOException e) {
+                    // Truncated or corrupt data: keep the frames decoded so far
+                    delay = -1;
+                }
+                if (delay < 0) {
+                    ended = true;
+                    break;
+                }
+                int u = (decoded % atlasColumns) * frameWidth;
+                int v = (decoded / atlasColumns) * frameHeight;
+                PixelConverter.write(atlas, pixels, frameWidth, frameHeight, u, v);
+                if (stored != null) {
+                    stored.frame(pixels, frameWidth, frameHeight, delay);
+                }
+                delays.add(delay);
+                decoded++;
+            }
+            if (decoded == 0) {
+                atlas.close();
+                break;
+            }
+            
+            ResourceLocation texture = createTexture(atlas, uploads);
+            textures.add(texture);
+            byteSize += (long) atlasWidth * atlasHeight * 4;
+            for (int i = 0; i < decoded; i++) {
+                int u = (i % atlasColumns) * frameWidth;
+                int v = (i / atlasColumns) * frameHeight;
+                frames.add(new Frame(texture, u, v, frameWidth, frameHeight, atlasWidth, atlasHeight));
             }
         }
         
-        if (textures.isEmpty()) {
+        if (frames.isEmpty()) {
             return null;
         }
         
-        while (delays.size() > textures.size()) {
+        while (delays.size() > frames.size()) {
             delays.remove(delays.size() - 1);
         }
-        while (delays.size() < textures.size()) {
-            delays.add(100);
-        }
         
-        return new CachedImage(textures, delays, width, height);
+        return new CachedImage(frames, textures, delays, width, height, byteSize);
     }
     
-    private ResourceLocation createTexture(BufferedImage image) {
+    /**
+     * Size in real pixels of the largest area a book screen draws an image into.
+     * Follows the GUI scale at load time, so textures are never larger than what ends up on screen.
+     */
+    private static int[] displayBounds() {
+        double guiScale = 1;
         try {
-            BufferedImage argbImage;
-            if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
-                argbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = argbImage.createGraphics();
-                g.drawImage(image, 0, 0, null);
-                g.dispose();
-            } else {
-                argbImage = image;
-            }
-            
-            NativeImage nativeImage = new NativeImage(argbImage.getWidth(), argbImage.getHeight(), false);
-            
-            for (int y = 0; y < argbImage.getHeight(); y++) {
-                for (int x = 0; x < argbImage.getWidth(); x++) {
-                    int argb = argbImage.getRGB(x, y);
-                    int a = (argb >> 24) & 0xFF;
-                    int r = (argb >> 16) & 0xFF;
-                    int g = (argb >> 8) & 0xFF;
-                    int b = argb & 0xFF;
-                    // ABGR format for NativeImage
-                    int abgr = (a << 24) | (b << 16) | (g << 8) | r;
-                    nativeImage.setPixelRGBA(x, y, abgr);
+            guiScale = Math.max(1, Minecraft.getInstance().getWindow().getGuiScale());
+        } catch (Exception ignored) {}
+        return new int[] {
+            (int) Math.ceil(DISPLAY_AREA_WIDTH * guiScale),
+            (int) Math.ceil(DISPLAY_AREA_HEIGHT * guiScale)
+        };
+    }
+    
+    /**
+     * Returns the size an image of the given dimensions is stored at: unchanged if it fits
+     * the display bounds, otherwise scaled down to fit with its aspect ratio kept.
+     */
+    private static int[] displaySize(int width, int height) {
+        int[] bounds = displayBounds();
+        if (width <= bounds[0] && height <= bounds[1]) {
+            return new int[] { width, height };
+        }
+        double scale = Math.min((double) bounds[0] / width, (double) bounds[1] / height);
+        return new int[] { Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)) };
+    }
+    
+    /**
+     * Largest integer subsampling factor that still leaves the decoded image at least as large as the display bounds.
+     */
+    private static int subsamplingFor(int width, int height) {
+        int[] bounds = displayBounds();
+        return Math.max(1, Math.min(width / bounds[0], height / bounds[1]));
+    }
+    
+    /**
+     * Resamples an image down to its display size; images that already fit are returned as-is.
+     */
+    private static BufferedImage fitToDisplay(BufferedImage image) {
+        int[] size = displaySize(image.getWidth(), image.getHeight());
+        if (size[0] == image.getWidth() && size[1] == image.getHeight()) {
+            return image;
+        }
+        BufferedImage scaled = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, size[0], size[1], null);
+        g.dispose();
+        return scaled;
+    }
+    
+    /**
+     * Copies ABGR pixels from {@link PixelConverter#toAbgr(BufferedImage)} into a new native image in one pass.
+     */
+    private static NativeImage toNativeImage(int[] abgr, int width, int height) {
+        NativeImage nativeImage = new NativeImage(width, height, false);
+        PixelConverter.write(nativeImage, abgr, width, height, 0, 0);
+        return nativeImage;
+    }
+    
+    /**
+     * Queues {@code nativeImage} for upload on the render thread and returns the location it will be registered under.
+     * The upload's completion is added to {@code uploads}; the image must not go live before it completes.
+     */
+    private static ResourceLocation createTexture(NativeImage nativeImage, List<CompletableFuture<Void>> uploads) {
+        ResourceLocation location = TextureUploadQueue.newLocation();
+        uploads.add(TextureUploadQueue.submit(location, nativeImage));
+        return location;
+    }
+    
+    private static void releaseWhenUploaded(List<ResourceLocation> textures, List<CompletableFuture<Void>> uploads) {
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).whenComplete((ignored, t) ->
+            Minecraft.getInstance().execute(() -> {
+                for (ResourceLocation loc : textures) {
+                    Minecraft.getInstance().getTextureManager().release(loc);
                 }
-            }
-            
-            final NativeImage finalImage = nativeImage;
-            final ResourceLocation[] result = new ResourceLocation[1];
-            
-            Minecraft mc = Minecraft.getInstance();
-            if (mc.isSameThread()) {
-                DynamicTexture dynamicTexture = new DynamicTexture(finalImage);
-                result[0] = mc.getTextureManager().register("lotaguide_", dynamicTexture);
-            } else {
-                mc.executeBlocking(() -> {
-                    DynamicTexture dynamicTexture = new DynamicTexture(finalImage);
-                    result[0] = mc.getTextureManager().register("lotaguide_", dynamicTexture);
-                });
-            }
-            
-            return result[0];
-        } catch (Exception e) {
-            return null;
+            }));
+    }
+    
+    /**
+     * Throws if the decode thread was interrupted by a cancelled load.
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
         }
     }
     
+    /**
+     * Frees an image whose load was cancelled while it decoded, once the textures it queued exist.
+     * Safe to call from any thread; the textures and the animation are released on the render thread.
+     */
+    private void discard(CachedImage image) {
+        image.uploaded.whenComplete((ignored, t) -> Minecraft.getInstance().execute(() -> cleanupImage(image)));
+    }
+    
     private void cleanupImage(CachedImage image) {
+        if (image != null && image.animation != null) {
+            image.animation.close();
+        }
         if (image != null && !image.isError()) {
-            for (ResourceLocation loc : image.frameTextures) {
+            for (ResourceLocation loc : image.textures) {
                 if (loc != null) {
                     try {
                         Minecraft.getInstance().getTextureManager().release(loc);
@@ -440,17 +1374,41 @@ public class ImageCache {
         }
     }
     
+    private void evict(List<String> victims) {
+        for (String victim : victims) {
+            CachedImage removed = cache.remove(victim);
+            if (removed != null) {
+                cleanupImage(removed);
+                version++;
+            }
+        }
+    }
+    
+    /**
+     * Applies a new memory budget, evicting whatever no longer fits.
+     * May be called from any thread; the change is made on the render thread, which owns the textures.
+     */
+    public void setMemoryBudget(long bytes) {
+        Minecraft.getInstance().execute(() -> evict(evictionPolicy.setMaxWeight(bytes)));
+    }
+    
     public void clearCache() {
         for (CachedImage image : cache.values()) {
             cleanupImage(image);
         }
         cache.clear();
+        evictionPolicy.clear();
+        failures.clear();
+        version++;
     }
     
     public void invalidate(String url) {
+        failures.remove(url);
+        evictionPolicy.remove(url);
         CachedImage removed = cache.remove(url);
         if (removed != null) {
             cleanupImage(removed);
         }
+        version++;
     }
 }
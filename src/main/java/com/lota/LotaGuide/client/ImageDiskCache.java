@@ -0,0 +1,402 @@
+package com.lota.LotaGuide.client;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent tier below the in-memory {@link ImageCache}.
+ * Each URL maps to a pair of files named after the SHA-256 of the URL:
+ * {@code <hash>.img} holds the raw response body and {@code <hash>.meta}
+ * holds the validators (ETag / Last-Modified) used for conditional requests, plus
+ * the SHA-256 of the body so entries can also be found by content.
+ * The total size is capped; the least recently used entries are pruned first.
+ * Entries a load is still reading are {@link #pin pinned} and never pruned, so a body handed from the
+ * download stage to the decoder cannot vanish in between.
+ */
+public class ImageDiskCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String DATA_SUFFIX = ".img";
+    private static final String META_SUFFIX = ".meta";
+    private static final String META_URL = "url";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_CONTENT_HASH = "sha256";
+    // Copy buffers are reused per worker thread instead of allocated per download
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[16384]);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Long> sizes = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    // Content hash -> key of an entry with that body, and the reverse for removal
+    private final ConcurrentHashMap<String, String> keysByContent = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> contentByKey = new ConcurrentHashMap<>();
+    private volatile boolean indexed = false;
+    // Key -> number of loads reading the entry; guarded by this, like prune
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    public ImageDiskCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static class Entry {
+        // Null for temporary files written while the cache is disabled
+        @Nullable private final String key;
+        private final Path dataFile;
+        @Nullable private final String etag;
+        @Nullable private final String lastModified;
+        @Nullable private final String contentHash;
+
+        private Entry(@Nullable String key, Path dataFile, @Nullable String etag, @Nullable String lastModified,
+                      @Nullable String contentHash) {
+            this.key = key;
+            this.dataFile = dataFile;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        public Path getDataFile() { return dataFile; }
+        @Nullable public String getEtag() { return etag; }
+        @Nullable public String getLastModified() { return lastModified; }
+        /** SHA-256 of the body as lowercase hex; null for entries stored before hashes were recorded. */
+        @Nullable public String getContentHash() { return contentHash; }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the stored entry for {@code url}, or null if there is none or it is unreadable.
+     */
+    @Nullable
+    public Entry lookup(String url) {
+        if (!isEnabled()) return null;
+        ensureIndexed();
+
+        String key = keyFor(url);
+        Properties meta = readMeta(key);
+        // Guard against the (practically impossible) hash collision
+        if (meta == null || !url.equals(meta.getProperty(META_URL))) return null;
+        return toEntry(key, meta);
+    }
+
+    /**
+     * Returns an entry whose body has the SHA-256 {@code contentHash}, stored under any URL, or null.
+     * The body is the exact bytes that were hashed, so it needs no revalidation.
+     */
+    @Nullable
+    public Entry lookupContent(String contentHash) {
+        if (!isEnabled()) return null;
+        ensureIndexed();
+
+        String key = keysByContent.get(contentHash);
+        Properties meta = key != null ? readMeta(key) : null;
+        if (meta == null || !contentHash.equals(meta.getProperty(META_CONTENT_HASH))) return null;
+        return toEntry(key, meta);
+    }
+
+    @Nullable
+    private Properties readMeta(String key) {
+        Path dataFile = directory.resolve(key + DATA_SUFFIX);
+        Path metaFile = directory.resolve(key + META_SUFFIX);
+        if (!Files.isRegularFile(dataFile) || !Files.isRegularFile(metaFile)) return null;
+
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            meta.load(in);
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        }
+        return meta;
+    }
+
+    private Entry toEntry(String key, Properties meta) {
+        String contentHash = meta.getProperty(META_CONTENT_HASH);
+        if (contentHash != null) {
+            indexContent(key, contentHash);
+        }
+        return new Entry(key, directory.resolve(key + DATA_SUFFIX), meta.getProperty(META_ETAG),
+            meta.getProperty(META_LAST_MODIFIED), contentHash);
+    }
+
+    private void indexContent(String key, String contentHash) {
+        keysByContent.put(contentHash, key);
+        contentByKey.put(key, contentHash);
+    }
+
+    /**
+     * Returns the cached body file for an entry and marks it as recently used,
+     * or null if the file has disappeared.
+     */
+    @Nullable
+    public Path open(Entry entry) {
+        if (!Files.isRegularFile(entry.dataFile)) return null;
+        touch(entry.dataFile);
+        return entry.dataFile;
+    }
+
+    /**
+     * Keeps the body of {@code entry} from being pruned until {@link #unpin}, and marks it as recently used.
+     * Returns false, pinning nothing, if the file has already disappeared.
+     */
+    public synchronized boolean pin(Entry entry) {
+        if (!Files.isRegularFile(entry.dataFile)) return false;
+        touch(entry.dataFile);
+        if (entry.key != null) {
+            pins.merge(entry.key, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    public synchronized void unpin(Entry entry) {
+        if (entry.key != null) {
+            pins.computeIfPresent(entry.key, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    public Entry store(String url, InputStream body, @Nullable String etag, @Nullable String lastModified) throws IOException {
+        return store(url, body, etag, lastModified, false);
+    }
+
+    /**
+     * Streams a response body into the cache together with its validators, replacing any previous entry.
+     * When the disk cache is disabled the body is written to a temporary file instead;
+     * check {@link #isEnabled()} to know whether the caller must delete it afterwards.
+     *
+     * @param pin whether to return the entry {@link #pin pinned}, before the prune this store may cause
+     */
+    public Entry store(String url, InputStream body, @Nullable String etag, @Nullable String lastModified,
+                       boolean pin) throws IOException {
+        MessageDigest digest = sha256();
+        if (!isEnabled()) {
+            Path tmp = Files.createTempFile("lotaguide", ".img");
+            try {
+                copy(body, tmp, digest);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            return new Entry(null, tmp, etag, lastModified, toHex(digest.digest()));
+        }
+        ensureIndexed();
+
+        String key = keyFor(url);
+        Path dataFile = directory.resolve(key + DATA_SUFFIX);
+        Files.createDirectories(directory);
+
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, url);
+        if (etag != null) meta.setProperty(META_ETAG, etag);
+        if (lastModified != null) meta.setProperty(META_LAST_MODIFIED, lastModified);
+
+        // Write to temp files first so a crash never leaves a half-written entry behind
+        long size;
+        String contentHash;
+        Path tmpData = Files.createTempFile(directory, key, ".tmp");
+        Path tmpMeta = Files.createTempFile(directory, key, ".tmp");
+        try {
+            size = copy(body, tmpData, digest);
+            contentHash = toHex(digest.digest());
+            meta.setProperty(META_CONTENT_HASH, contentHash);
+            try (OutputStream out = Files.newOutputStream(tmpMeta)) {
+                meta.store(out, null);
+            }
+            Files.move(tmpData, dataFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpMeta, directory.resolve(key + META_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpData);
+            Files.deleteIfExists(tmpMeta);
+        }
+
+        Long previous = sizes.put(key, size);
+        totalBytes.addAndGet(size - (previous != null ? previous : 0L));
+        String replaced = contentByKey.get(key);
+        if (replaced != null && !replaced.equals(contentHash)) {
+            keysByContent.remove(replaced, key);
+        }
+        indexContent(key, contentHash);
+
+        Entry entry = new Entry(key, dataFile, etag, lastModified, contentHash);
+        if (pin && !pin(entry)) {
+            // Replaced or invalidated by another load in the meantime
+            throw new IOException("Cache entry disappeared");
+        }
+        if (totalBytes.get() > maxBytes) {
+            prune();
+        }
+        return entry;
+    }
+
+    private static long copy(InputStream in, Path target, MessageDigest digest) throws IOException {
+        byte[] buffer = COPY_BUFFER.get();
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Updates the validators of an existing entry after a 304 response and marks it as recently used.
+     */
+    public void refresh(String url, Entry entry, @Nullable String etag, @Nullable String lastModified) {
+        touch(entry.dataFile);
+        if ((etag == null || etag.equals(entry.etag)) && (lastModified == null || lastModified.equals(entry.lastModified))) {
+            return;
+        }
+
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, url);
+        String newEtag = etag != null ? etag : entry.etag;
+        String newLastModified = lastModified != null ? lastModified : entry.lastModified;
+        if (newEtag != null) meta.setProperty(META_ETAG, newEtag);
+        if (newLastModified != null) meta.setProperty(META_LAST_MODIFIED, newLastModified);
+        if (entry.contentHash != null) meta.setProperty(META_CONTENT_HASH, entry.contentHash);
+        try (OutputStream out = Files.newOutputStream(directory.resolve(keyFor(url) + META_SUFFIX))) {
+            meta.store(out, null);
+        } catch (IOException ignored) {}
+    }
+
+    public void invalidate(String url) {
+        if (!isEnabled()) return;
+        ensureIndexed();
+        remove(keyFor(url));
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits within its size cap. Pinned entries are kept,
+     * even if that leaves the cache over its cap until they are released.
+     */
+    public synchronized void prune() {
+        if (totalBytes.get() <= maxBytes) return;
+
+        List<Path> dataFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().endsWith(DATA_SUFFIX)).forEach(dataFiles::add);
+        } catch (IOException e) {
+            return;
+        }
+
+        dataFiles.sort(Comparator.comparing(ImageDiskCache::lastAccess));
+        for (Path dataFile : dataFiles) {
+            if (totalBytes.get() <= maxBytes) break;
+            String name = dataFile.getFileName().toString();
+            String key = name.substring(0, name.length() - DATA_SUFFIX.length());
+            if (!pins.containsKey(key)) {
+                remove(key);
+            }
+        }
+    }
+
+    private void remove(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + DATA_SUFFIX));
+            Files.deleteIfExists(directory.resolve(key + META_SUFFIX));
+        } catch (IOException ignored) {}
+        Long size = sizes.remove(key);
+        if (size != null) {
+            totalBytes.addAndGet(-size);
+        }
+        String contentHash = contentByKey.remove(key);
+        if (contentHash != null) {
+            keysByContent.remove(contentHash, key);
+        }
+    }
+
+    private synchronized void ensureIndexed() {
+        if (indexed) return;
+        indexed = true;
+        if (!Files.isDirectory(directory)) return;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(path);
+                    } else if (name.endsWith(DATA_SUFFIX)) {
+                        long size = Files.size(path);
+                        sizes.put(name.substring(0, name.length() - DATA_SUFFIX.length()), size);
+                        totalBytes.addAndGet(size);
+                    } else if (name.endsWith(META_SUFFIX)) {
+                        // Content lookups must find entries from earlier sessions too
+                        Properties meta = new Properties();
+                        try (InputStream in = Files.newInputStream(path)) {
+                            meta.load(in);
+                        }
+                        String contentHash = meta.getProperty(META_CONTENT_HASH);
+                        if (contentHash != null) {
+                            indexContent(name.substring(0, name.length() - META_SUFFIX.length()), contentHash);
+                        }
+                    }
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Failed to index image cache directory {}", directory, e);
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+
+    private static FileTime lastAccess(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    static String keyFor(String url) {
+        return toHex(sha256().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.lota.LotaGuide.client;
+
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import javax.annotation.Nullable;
+
+/**
+ * Render-thread view of one URL's state in the {@link ImageCache}.
+ * Screens resolve a handle once per page and read it every frame; the map lookups behind it
+ * are only repeated after the cache reports a change (an entry added, evicted, failed or
+ * started loading) or when a failed URL's retry falls due, so a static page costs plain field reads.
+ * <p>
+ * A handle pins its URL in the cache from {@link ImageCache#acquire(String)} until {@link #release()}.
+ * A content hash given at acquisition is passed along to every load the handle starts.
+ */
+@OnlyIn(Dist.CLIENT)
+public class ImageHandle {
+    private final ImageCache cache;
+    private final String url;
+    @Nullable private final String contentHash;
+
+    private int resolvedVersion;
+    private boolean resolved;
+    @Nullable private ImageCache.CachedImage image;
+    @Nullable private FailureCache.Failure failure;
+    private boolean loading;
+    private boolean released;
+
+    ImageHandle(ImageCache cache, String url, @Nullable String contentHash) {
+        this.cache = cache;
+        this.url = url;
+        this.contentHash = contentHash;
+    }
+
+    public String getUrl() { return url; }
+
+    /**
+     * The loaded image, or null while it is loading or has failed. Starts a load when needed.
+     */
+    @Nullable
+    public ImageCache.CachedImage getImage(long now) {
+        resolve(now);
+        if (image != null) {
+            cache.recordAccess(url);
+        }
+        return image;
+    }
+
+    @Nullable
+    public FailureCache.Failure getFailure(long now) {
+        resolve(now);
+        return failure;
+    }
+
+    public boolean isLoading(long now) {
+        resolve(now);
+        return loading;
+    }
+
+    /**
+     * Unpins the URL. The image becomes evictable again and a load nobody else waits on is cancelled.
+     * Further calls do nothing.
+     */
+    public void release() {
+        if (released) return;
+        released = true;
+        image = null;
+        cache.release(url);
+    }
+
+    private void resolve(long now) {
+        if (released) return;
+        int version = cache.getVersion();
+        boolean retryDue = image == null && !loading && failure != null && failure.isDue(now);
+        if (resolved && version == resolvedVersion && !retryDue) return;
+
+        // Read the version first: a change during the lookups just causes one more resolve
+        resolvedVersion = version;
+        resolved = true;
+        image = cache.getImage(url, ImageLoadScheduler.Priority.VISIBLE, contentHash);
+        failure = cache.getFailure(url);
+        loading = cache.isLoading(url);
+    }
+}
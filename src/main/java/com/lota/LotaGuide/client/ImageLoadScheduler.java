@@ -0,0 +1,232 @@
+package com.lota.LotaGuide.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Dedicated executors for image loading, so blocking HTTP reads and decoding
+ * never run on the shared common ForkJoinPool.
+ * <p>
+ * Network work runs on a small bounded I/O pool with a per-host concurrency limit;
+ * decoding runs on a CPU pool sized to the machine. Both pools drain their queues
+ * in {@link Priority} order, FIFO within a priority. Work that is still queued can be
+ * {@link #promote promoted} when a more urgent caller starts waiting on it.
+ * <p>
+ * A result that arrives after its future was cancelled is handed to the submitter's discard
+ * callback, so resources it holds can be freed instead of being dropped on the floor.
+ */
+public class ImageLoadScheduler {
+    private static final int IO_THREADS = 6;
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Priority {
+        /** The page currently on screen. */
+        VISIBLE,
+        /** Pages one flip away from the current one. */
+        ADJACENT,
+        /** Warm-up work nobody is looking at yet. */
+        BACKGROUND
+    }
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor ioExecutor;
+    private final ThreadPoolExecutor decodeExecutor;
+    private final int maxPerHost;
+    private final Map<String, HostSlot> hosts = new HashMap<>();
+    // Tasks that have not started yet, by the future they complete
+    private final ConcurrentHashMap<CompletableFuture<?>, Task> queued = new ConcurrentHashMap<>();
+
+    public ImageLoadScheduler() {
+        this(IO_THREADS, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), MAX_REQUESTS_PER_HOST);
+    }
+
+    public ImageLoadScheduler(int ioThreads, int decodeThreads, int maxPerHost) {
+        this.ioExecutor = createExecutor("LotaGuide-IO", ioThreads, Thread.NORM_PRIORITY);
+        this.decodeExecutor = createExecutor("LotaGuide-Decode", decodeThreads, Thread.NORM_PRIORITY - 1);
+        this.maxPerHost = maxPerHost;
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, int threads, int threadPriority) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs blocking network work for {@code host}. At most {@code maxPerHost} tasks
+     * per host run at once; the rest wait in priority order without holding a thread.
+     */
+    public <T> CompletableFuture<T> submitIo(String host, Priority priority, Callable<T> work) {
+        return submitIo(host, priority, work, result -> {});
+    }
+
+    /**
+     * Like {@link #submitIo(String, Priority, Callable)}; {@code discard} receives the result if the
+     * future was cancelled while the work ran.
+     */
+    public <T> CompletableFuture<T> submitIo(String host, Priority priority, Callable<T> work, Consumer<? super T> discard) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(priority, sequence.getAndIncrement(), host, () -> {
+            try {
+                complete(future, work, discard);
+            } finally {
+                releaseHost(host);
+            }
+        });
+        track(future, task);
+
+        boolean runNow;
+        synchronized (hosts) {
+            HostSlot slot = hosts.computeIfAbsent(host, h -> new HostSlot());
+            runNow = slot.active < maxPerHost;
+            if (runNow) {
+                slot.active++;
+            } else {
+                slot.waiting.add(task);
+            }
+        }
+        if (runNow) {
+            ioExecutor.execute(task);
+        }
+        return future;
+    }
+
+    /**
+     * Runs CPU-bound decode work on the decode pool.
+     */
+    public <T> CompletableFuture<T> submitDecode(Priority priority, Callable<T> work) {
+        return submitDecode(priority, work, result -> {});
+    }
+
+    /**
+     * Like {@link #submitDecode(Priority, Callable)}; {@code discard} receives the result if the
+     * future was cancelled while the work ran.
+     */
+    public <T> CompletableFuture<T> submitDecode(Priority priority, Callable<T> work, Consumer<? super T> discard) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(priority, sequence.getAndIncrement(), null, () -> complete(future, work, discard));
+        track(future, task);
+        decodeExecutor.execute(task);
+        return future;
+    }
+
+    private void track(CompletableFuture<?> future, Task task) {
+        queued.put(future, task);
+        task.started = () -> queued.remove(future, task);
+        // A future completed or cancelled before its task ran must not stay in the map until then
+        future.whenComplete((result, error) -> queued.remove(future, task));
+    }
+
+    /**
+     * Moves the work behind {@code future} (from {@link #submitIo} or {@link #submitDecode}) up to
+     * {@code priority} if it is still waiting, in its host's queue or its pool's. Work that has started,
+     * has finished or already has that priority or a higher one is left alone.
+     */
+    public void promote(CompletableFuture<?> future, Priority priority) {
+        Task task = queued.get(future);
+        if (task == null) return;
+        synchronized (task) {
+            if (task.priority.compareTo(priority) <= 0) return;
+            if (task.host != null) {
+                synchronized (hosts) {
+                    HostSlot slot = hosts.get(task.host);
+                    if (slot != null && slot.waiting.remove(task)) {
+                        task.priority = priority;
+                        slot.waiting.add(task);
+                        return;
+                    }
+                }
+            }
+            ThreadPoolExecutor executor = task.host != null ? ioExecutor : decodeExecutor;
+            // Queues order by priority on insertion, so the task has to be taken out before it changes
+            if (executor.getQueue().remove(task)) {
+                task.priority = priority;
+                executor.execute(task);
+            }
+        }
+    }
+
+    private void releaseHost(String host) {
+        Task next;
+        synchronized (hosts) {
+            HostSlot slot = hosts.get(host);
+            if (slot == null) return;
+            next = slot.waiting.poll();
+            if (next == null && --slot.active == 0) {
+                hosts.remove(host);
+            }
+        }
+        if (next != null) {
+            ioExecutor.execute(next);
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Callable<T> work, Consumer<? super T> discard) {
+        if (future.isDone()) return;
+        T result;
+        try {
+            result = work.call();
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            return;
+        }
+        // Cancelled while running: nobody downstream will ever see the result
+        if (!future.complete(result) && result != null) {
+            discard.accept(result);
+        }
+    }
+
+    private static class HostSlot {
+        private int active;
+        private final PriorityQueue<Task> waiting = new PriorityQueue<>();
+    }
+
+    private static class Task implements Runnable, Comparable<Task> {
+        // Only changed while the task is out of every queue
+        private volatile Priority priority;
+        private final long sequence;
+        // Host of I/O work; null for decode work
+        private final String host;
+        private final Runnable body;
+        private Runnable started = () -> {};
+
+        private Task(Priority priority, long sequence, String host, Runnable body) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.host = host;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            started.run();
+            body.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
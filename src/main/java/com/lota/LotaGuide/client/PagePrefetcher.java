@@ -0,0 +1,83 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.Config;
+import com.lota.LotaGuide.data.ImageBookData;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads the images of the pages around the one a book screen is showing, so that
+ * flipping pages is usually a cache hit. Pages one flip away are loaded at
+ * {@link ImageLoadScheduler.Priority#ADJACENT}, further ones at {@link ImageLoadScheduler.Priority#BACKGROUND}.
+ * Each screen owns one prefetcher and cancels it when it closes.
+ */
+@OnlyIn(Dist.CLIENT)
+public class PagePrefetcher {
+    // Successful prefetches this prefetcher holds, by URL, each withdrawn exactly once
+    private Map<String, ImageCache.Prefetch> requested = new HashMap<>();
+
+    /**
+     * Prefetches around {@code currentPage} and cancels prefetches for pages that are no longer in range.
+     */
+    public void update(ImageBookData bookData, int currentPage) {
+        ImageCache cache = ImageCache.getInstance();
+        Map<String, ImageCache.Prefetch> wanted = new HashMap<>();
+        int depth = Math.max(Config.prefetchPagesAhead, Config.prefetchPagesBehind);
+
+        // Nearest pages first, so they are queued ahead of farther ones at the same priority
+        for (int distance = 1; distance <= depth; distance++) {
+            ImageLoadScheduler.Priority priority = distance == 1
+                ? ImageLoadScheduler.Priority.ADJACENT : ImageLoadScheduler.Priority.BACKGROUND;
+            if (distance <= Config.prefetchPagesAhead) {
+                request(cache, bookData.getPage(currentPage + distance), priority, wanted);
+            }
+            if (distance <= Config.prefetchPagesBehind) {
+                request(cache, bookData.getPage(currentPage - distance), priority, wanted);
+            }
+        }
+
+        ImageBookData.Page current = bookData.getPage(currentPage);
+        ImageCache.Prefetch held = current != null ? requested.get(current.getImageUrl()) : null;
+        if (held != null) {
+            // Hold on to the page just flipped to until the screen's handle has pinned it
+            wanted.putIfAbsent(held.getUrl(), held);
+        }
+        for (ImageCache.Prefetch prefetch : requested.values()) {
+            if (wanted.get(prefetch.getUrl()) != prefetch) {
+                cache.cancelPrefetch(prefetch);
+            }
+        }
+        requested = wanted;
+    }
+
+    /**
+     * Cancels every outstanding prefetch. Call when the screen closes.
+     */
+    public void cancel() {
+        ImageCache cache = ImageCache.getInstance();
+        for (ImageCache.Prefetch prefetch : requested.values()) {
+            cache.cancelPrefetch(prefetch);
+        }
+        requested = new HashMap<>();
+    }
+
+    private void request(ImageCache cache, ImageBookData.Page page, ImageLoadScheduler.Priority priority,
+                         Map<String, ImageCache.Prefetch> wanted) {
+        if (page == null || page.getImageUrl().isEmpty()) return;
+        String url = page.getImageUrl();
+        if (wanted.containsKey(url)) return;
+        ImageCache.Prefetch prefetch = requested.get(url);
+        if (prefetch == null) {
+            prefetch = cache.prefetch(url, priority, page.getImageHash());
+        } else {
+            // A page that came closer, e.g. from two flips away to one, moves up the queues
+            cache.promotePrefetch(prefetch, priority);
+        }
+        if (prefetch != null) {
+            wanted.put(url, prefetch);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.lota.LotaGuide.client;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.logging.LogUtils;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.fml.util.ObfuscationReflectionHelper;
+import org.lwjgl.system.MemoryUtil;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Field;
+
+/**
+ * Bulk ARGB to ABGR conversion for texture uploads.
+ * Reads the raster's backing array directly for the common image types instead of
+ * going through {@link BufferedImage#getRGB(int, int)} once per pixel, and writes whole rows
+ * into a {@link NativeImage}'s buffer instead of calling {@link NativeImage#setPixelRGBA} once per pixel.
+ */
+@OnlyIn(Dist.CLIENT)
+public final class PixelConverter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // SRG name of NativeImage.pixels; Forge maps it to whatever the field is called at runtime
+    private static final String PIXELS_SRG_NAME = "f_84964_";
+    // Scratch pixel buffers are reused per decode worker
+    private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[0]);
+    // NativeImage does not expose the address of its pixels; null if the field could not be found
+    private static final Field PIXELS = findPixelsField();
+
+    private PixelConverter() {}
+
+    /**
+     * Returns the image as packed ABGR pixels (NativeImage order), row-major with stride = width.
+     * The returned array is a per-thread scratch buffer and may be longer than width * height;
+     * it is only valid until the next call on the same thread.
+     */
+    public static int[] toAbgr(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int count = width * height;
+        int[] out = SCRATCH.get();
+        if (out.length < count) {
+            out = new int[count];
+            SCRATCH.set(out);
+        }
+
+        WritableRaster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+            && buffer.getNumBanks() == 1 && buffer.getOffset() == 0;
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                if (untranslated && model instanceof SinglePixelPackedSampleModel packed && packed.getScanlineStride() == width) {
+                    int[] src = ((DataBufferInt) buffer).getData();
+                    int alpha = image.getType() == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+                    for (int i = 0; i < count; i++) {
+                        out[i] = swizzle(src[i] | alpha);
+                    }
+                    return out;
+                }
+                break;
+            case BufferedImage.TYPE_INT_BGR:
+                if (untranslated && model instanceof SinglePixelPackedSampleModel packed && packed.getScanlineStride() == width) {
+                    int[] src = ((DataBufferInt) buffer).getData();
+                    for (int i = 0; i < count; i++) {
+                        out[i] = src[i] | 0xFF000000;
+                    }
+                    return out;
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (untranslated && model instanceof ComponentSampleModel component && component.getScanlineStride() == width * 4) {
+                    byte[] src = ((DataBufferByte) buffer).getData();
+                    for (int i = 0, p = 0; i < count; i++, p += 4) {
+                        out[i] = (src[p] & 0xFF) << 24 | (src[p + 1] & 0xFF) << 16 | (src[p + 2] & 0xFF) << 8 | (src[p + 3] & 0xFF);
+                    }
+                    return out;
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                if (untranslated && model instanceof ComponentSampleModel component && component.getScanlineStride() == width * 3) {
+                    byte[] src = ((DataBufferByte) buffer).getData();
+                    for (int i = 0, p = 0; i < count; i++, p += 3) {
+                        out[i] = 0xFF000000 | (src[p] & 0xFF) << 16 | (src[p + 1] & 0xFF) << 8 | (src[p + 2] & 0xFF);
+                    }
+                    return out;
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Indexed, grey (needs colour space conversion), premultiplied or unusual layouts:
+        // one bulk getRGB call, then swizzle in place
+        image.getRGB(0, 0, width, height, out, 0, width);
+        for (int i = 0; i < count; i++) {
+            out[i] = swizzle(out[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Converts one ARGB pixel to ABGR by swapping the red and blue channels.
+     */
+    public static int swizzle(int argb) {
+        return (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16);
+    }
+
+    /**
+     * Copies a row-major ABGR buffer into {@code target} at ({@code x}, {@code y}): one bulk copy per row,
+     * or a single one when the rows are as wide as the target.
+     */
+    public static void write(NativeImage target, int[] abgr, int width, int height, int x, int y) {
+        int stride = target.getWidth();
+        if (x < 0 || y < 0 || x + width > stride || y + height > target.getHeight()) {
+            throw new IllegalArgumentException("Region " + width + "x" + height + " at " + x + "," + y
+                + " is outside a " + stride + "x" + target.getHeight() + " image");
+        }
+        long address = pixelAddress(target);
+        if (address == 0) {
+            for (int row = 0; row < height; row++) {
+                int offset = row * width;
+                for (int col = 0; col < width; col++) {
+                    target.setPixelRGBA(x + col, y + row, abgr[offset + col]);
+                }
+            }
+            return;
+        }
+        if (x == 0 && width == stride) {
+            MemoryUtil.memIntBuffer(address + (long) y * stride * 4, width * height).put(abgr, 0, width * height);
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            MemoryUtil.memIntBuffer(address + ((long) (y + row) * stride + x) * 4, width).put(abgr, row * width, width);
+        }
+    }
+
+    /**
+     * Address of {@code image}'s RGBA pixels, or 0 to fall back to per-pixel writes
+     * (field not found, other pixel format, or image already closed).
+     */
+    private static long pixelAddress(NativeImage image) {
+        if (PIXELS == null || image.format() != NativeImage.Format.RGBA) return 0;
+        try {
+            return PIXELS.getLong(image);
+        } catch (IllegalAccessException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Finds NativeImage's pixel pointer by its SRG name, or returns null so writes go through setPixelRGBA.
+     */
+    @Nullable
+    private static Field findPixelsField() {
+        try {
+            Field field = ObfuscationReflectionHelper.findField(NativeImage.class, PIXELS_SRG_NAME);
+            return field.getType() == long.class ? field : null;
+        } catch (RuntimeException e) {
+            LOGGER.debug("NativeImage pixels not accessible, using per-pixel writes", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.network.LotaNetwork;
+import com.lota.LotaGuide.network.RelayAckPacket;
+import com.lota.LotaGuide.network.RelayRequestPacket;
+import com.lota.LotaGuide.network.RelayResponsePacket;
+import com.lota.LotaGuide.server.ImageRelay;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of the server's {@link ImageRelay}. Requests relayed bodies and hands them out as streams;
+ * responses and chunks arrive on the network thread, fetches are started and read on the I/O pool.
+ */
+@OnlyIn(Dist.CLIENT)
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+public final class RelayClient {
+    // How long a reader waits for the next chunk before giving the transfer up
+    private static final long CHUNK_TIMEOUT_MILLIS = 30000;
+    private static volatile boolean available;
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final ConcurrentHashMap<Integer, Transfer> TRANSFERS = new ConcurrentHashMap<>();
+
+    private RelayClient() {}
+
+    /**
+     * Why the relay produced no body. {@link #getStatus()} is one of the {@link RelayResponsePacket} statuses.
+     */
+    public static class RelayException extends IOException {
+        private final int status;
+
+        RelayException(int status) {
+            super("Relay status " + status);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Whether fetching directly from the origin might still work.
+         */
+        public boolean isFallbackWorthwhile() {
+            return status == RelayResponsePacket.BUSY || status == RelayResponsePacket.UNREACHABLE;
+        }
+    }
+
+    private static class Transfer {
+        private final int requestId;
+        private final CompletableFuture<Body> response = new CompletableFuture<>();
+        private volatile Body body;
+
+        Transfer(int requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * A relayed body, read as its chunks arrive. Each chunk is acknowledged once the reader takes it,
+     * so the server's send window also bounds how much waits here. Closing it before the end cancels the transfer.
+     */
+    public static class Body extends InputStream {
+        // Marks a broken transfer in the chunk queue
+        private static final byte[] FAILED = new byte[0];
+
+        private final int requestId;
+        private final int length;
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private volatile IOException failure;
+        // Written by the network thread only
+        private int arrived;
+        private byte[] current;
+        private int position;
+        private int taken;
+        private boolean closed;
+
+        Body(int requestId, int length) {
+            this.requestId = requestId;
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        void fail(IOException e) {
+            failure = e;
+            chunks.add(FAILED);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (count == 0) return 0;
+            if (current == null || position == current.length) {
+                if (taken == length) return -1;
+                current = take();
+                position = 0;
+                taken += current.length;
+                LotaNetwork.CHANNEL.sendToServer(new RelayAckPacket(requestId, taken));
+            }
+            int n = Math.min(count, current.length - position);
+            System.arraycopy(current, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        private byte[] take() throws IOException {
+            byte[] chunk;
+            try {
+                chunk = chunks.poll(CHUNK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Relay transfer interrupted");
+            }
+            if (chunk == null) {
+                throw new RelayException(RelayResponsePacket.UNREACHABLE);
+            }
+            if (chunk == FAILED) {
+                chunks.add(FAILED);
+                throw failure;
+            }
+            return chunk;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            TRANSFERS.remove(requestId);
+            if (taken < length && failure == null) {
+                LotaNetwork.CHANNEL.sendToServer(new RelayAckPacket(requestId, RelayAckPacket.CANCEL));
+            }
+        }
+    }
+
+    /**
+     * Whether the server advertised the relay on this connection.
+     */
+    public static boolean isAvailable() {
+        return available;
+    }
+
+    public static void setAvailable(boolean enabled) {
+        available = enabled;
+    }
+
+    /**
+     * Asks the server for the body at {@code url}. The future completes with the body once the server
+     * answers, or with null when {@code cachedHash} names a body that is still current. Fails with a
+     * {@link RelayException}; cancelling the future stops the transfer, as does closing the body.
+     *
+     * @param cachedHash SHA-256 of the copy the caller already has, if any
+     */
+    public static CompletableFuture<Body> fetch(String url, @Nullable String cachedHash) {
+        Transfer transfer = new Transfer(nextId.incrementAndGet());
+        TRANSFERS.put(transfer.requestId, transfer);
+        transfer.response.whenComplete((body, error) -> {
+            // Covers cancellation; the server ignores ids it is not sending
+            if (error != null && TRANSFERS.remove(transfer.requestId, transfer)) {
+                LotaNetwork.CHANNEL.sendToServer(new RelayAckPacket(transfer.requestId, RelayAckPacket.CANCEL));
+            }
+        });
+        LotaNetwork.CHANNEL.sendToServer(new RelayRequestPacket(transfer.requestId, url, cachedHash));
+        return transfer.response;
+    }
+
+    public static void onResponse(int requestId, int status, int length) {
+        Transfer transfer = TRANSFERS.get(requestId);
+        if (transfer == null) return;
+        if (status == RelayResponsePacket.NOT_MODIFIED) {
+            TRANSFERS.remove(requestId, transfer);
+            transfer.response.complete(null);
+        } else if (status != RelayResponsePacket.OK) {
+            transfer.response.completeExceptionally(new RelayException(status));
+        } else if (length < 0 || length > ImageRelay.MAX_FILE_SIZE) {
+            transfer.response.completeExceptionally(new RelayException(RelayResponsePacket.TOO_LARGE));
+        } else {
+            Body body = new Body(requestId, length);
+            transfer.body = body;
+            if (length == 0) {
+                TRANSFERS.remove(requestId, transfer);
+            }
+            transfer.response.complete(body);
+        }
+    }
+
+    public static void onChunk(int requestId, int offset, byte[] chunk) {
+        Transfer transfer = TRANSFERS.get(requestId);
+        Body body = transfer != null ? transfer.body : null;
+        if (body == null) return;
+        // Chunks arrive in order on one connection; anything else means the transfer is broken
+        if (offset != body.arrived || chunk.length > body.length - offset) {
+            TRANSFERS.remove(requestId, transfer);
+            LotaNetwork.CHANNEL.sendToServer(new RelayAckPacket(requestId, RelayAckPacket.CANCEL));
+            body.fail(new RelayException(RelayResponsePacket.UNREACHABLE));
+            return;
+        }
+        body.arrived += chunk.length;
+        body.chunks.add(chunk);
+        if (body.arrived == body.length) {
+            TRANSFERS.remove(requestId, transfer);
+        }
+    }
+
+    @SubscribeEvent
+    static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        // The next server advertises for itself; nothing more arrives on this connection
+        available = false;
+        List<Transfer> open = new ArrayList<>(TRANSFERS.values());
+        TRANSFERS.clear();
+        for (Transfer transfer : open) {
+            RelayException unreachable = new RelayException(RelayResponsePacket.UNREACHABLE);
+            transfer.response.completeExceptionally(unreachable);
+            Body body = transfer.body;
+            if (body != null) {
+                body.fail(unreachable);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.lota.LotaGuide.client;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Plays a long animation without materialising all of its frames.
+ * Only the compressed data stays resident (inside the {@link FrameSource});
+ * frames are decoded ahead on the decode pool into a small ring buffer, and each frame is
+ * copied into a single reused texture through the {@link TextureUploadQueue} when it is due,
+ * so its upload shares the per-frame budget with every other texture.
+ */
+@OnlyIn(Dist.CLIENT)
+public class StreamingAnimation {
+    private static final int RING_SIZE = 6;
+    private static final int DEFAULT_DELAY = 100;
+    // If rendering stalls for longer than this, resume from "now" instead of fast-forwarding
+    private static final long MAX_LAG_MILLIS = 1000;
+
+    /**
+     * Sequential decoder for the frames of one animation.
+     */
+    public interface FrameSource {
+        /**
+         * Decodes the next fully composited frame into {@code abgr} (frameWidth * frameHeight pixels, ABGR)
+         * and returns its delay in milliseconds, or -1 once the last frame has been passed.
+         */
+        int nextFrame(int[] abgr) throws IOException;
+
+        /** Restarts decoding at the first frame. */
+        void rewind() throws IOException;
+
+        void close();
+    }
+
+    private final FrameSource source;
+    private final ImageLoadScheduler scheduler;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int[][] slots = new int[RING_SIZE][];
+    private final int[] delays = new int[RING_SIZE];
+    private int head;
+    private int count;
+    private boolean filling;
+    // The queued or running fill task, if it was submitted to the decode pool
+    @Nullable
+    private CompletableFuture<Void> pendingFill;
+    private boolean failed;
+    private volatile boolean closed;
+
+    // Render thread only
+    private DynamicTexture texture;
+    // Null until the first frame is on the texture
+    private ImageCache.Frame frame;
+    private long nextFrameAt;
+    private boolean uploadQueued;
+
+    public StreamingAnimation(FrameSource source, ImageLoadScheduler scheduler, int frameWidth, int frameHeight) {
+        this.source = source;
+        this.scheduler = scheduler;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        for (int i = 0; i < RING_SIZE; i++) {
+            slots[i] = new int[frameWidth * frameHeight];
+        }
+    }
+
+    /**
+     * Decodes the first frame on the calling thread, so the animation can be shown as soon as it is cached,
+     * and queues the rest of the ring buffer on the decode pool as read-ahead.
+     * Returns false if not even one frame could be decoded.
+     */
+    public boolean prime() {
+        synchronized (this) {
+            filling = true;
+        }
+        fill(1);
+        synchronized (this) {
+            if (count == 0) return false;
+        }
+        scheduleFill(ImageLoadScheduler.Priority.BACKGROUND);
+        return true;
+    }
+
+    /**
+     * Texture memory plus ring buffer held by this animation.
+     */
+    public long getByteSize() {
+        return (long) frameWidth * frameHeight * 4 * (RING_SIZE + 1);
+    }
+
+    /**
+     * Returns the frame to draw at {@code timeMillis}, and queues the upload of the next decoded frame
+     * if it is due. Returns null until the first frame has been uploaded. Must be called on the render thread.
+     */
+    @Nullable
+    public ImageCache.Frame getFrame(long timeMillis) {
+        if (closed) return null;
+
+        if (!uploadQueued && (frame == null || timeMillis >= nextFrameAt)) {
+            int[] pixels;
+            int delay;
+            synchronized (this) {
+                pixels = count > 0 ? slots[head] : null;
+                delay = count > 0 ? delays[head] : 0;
+            }
+            // A slot is never written by the producer while it is inside [head, head + count)
+            if (pixels != null) {
+                uploadQueued = true;
+                TextureUploadQueue.submitUpdate((long) frameWidth * frameHeight * 4, () -> upload(pixels));
+                nextFrameAt = frame == null || timeMillis - nextFrameAt > MAX_LAG_MILLIS
+                    ? timeMillis + delay : nextFrameAt + delay;
+            }
+        }
+
+        scheduleFill(ImageLoadScheduler.Priority.VISIBLE);
+        return frame;
+    }
+
+    /**
+     * Copies the frame at the head of the ring into the texture and frees its slot. Runs on the render thread.
+     */
+    private void upload(int[] pixels) {
+        uploadQueued = false;
+        if (closed) return;
+        if (texture == null) {
+            texture = new DynamicTexture(new NativeImage(frameWidth, frameHeight, true));
+            ResourceLocation location = Minecraft.getInstance().getTextureManager().register("lotaguide_", texture);
+            frame = new ImageCache.Frame(location, 0, 0, frameWidth, frameHeight, frameWidth, frameHeight);
+        }
+        PixelConverter.write(texture.getPixels(), pixels, frameWidth, frameHeight, 0, 0);
+        texture.upload();
+        synchronized (this) {
+            head = (head + 1) % RING_SIZE;
+            count--;
+        }
+    }
+
+    private void scheduleFill(ImageLoadScheduler.Priority priority) {
+        boolean submit;
+        CompletableFuture<Void> queued;
+        synchronized (this) {
+            if (failed || closed || count > RING_SIZE / 2) return;
+            submit = !filling;
+            filling = true;
+            queued = pendingFill;
+        }
+        if (!submit) {
+            // Read-ahead queued while nobody was looking becomes urgent once the animation is on screen
+            if (queued != null) {
+                scheduler.promote(queued, priority);
+            }
+            return;
+        }
+        CompletableFuture<Void> fill = scheduler.submitDecode(priority, () -> {
+            fill(RING_SIZE);
+            return null;
+        });
+        synchronized (this) {
+            // Left unset if the task already finished
+            if (filling && !fill.isDone()) {
+                pendingFill = fill;
+            }
+        }
+    }
+
+    /**
+     * Decodes up to {@code maxFrames} frames into free slots.
+     */
+    private void fill(int maxFrames) {
+        boolean rewound = false;
+        int decoded = 0;
+        try {
+            while (decoded < maxFrames) {
+                int[] slot;
+                synchronized (this) {
+                    if (closed || count == RING_SIZE) break;
+                    slot = slots[(head + count) % RING_SIZE];
+                }
+
+                int delay = source.nextFrame(slot);
+                if (delay < 0) {
+                    // End of the animation: loop, but give up if it has no frames at all
+                    if (rewound) break;
+                    source.rewind();
+                    rewound = true;
+                    continue;
+                }
+                rewound = false;
+
+                synchronized (this) {
+                    delays[(head + count) % RING_SIZE] = delay > 0 ? delay : DEFAULT_DELAY;
+                    count++;
+                }
+                decoded++;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep showing whatever is already decoded, but stop retrying a broken stream
+            synchronized (this) {
+                failed = true;
+            }
+        } finally {
+            boolean closeSource;
+            synchronized (this) {
+                filling = false;
+                pendingFill = null;
+                closeSource = closed;
+            }
+            if (closeSource) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Stops decoding and releases the texture. Must be called on the render thread.
+     */
+    public void close() {
+        boolean closeSource;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            closeSource = !filling;
+        }
+        if (closeSource) {
+            source.close();
+        }
+        if (frame != null) {
+            Minecraft.getInstance().getTextureManager().release(frame.getTexture());
+            frame = null;
+            texture = null;
+        }
+    }
+}
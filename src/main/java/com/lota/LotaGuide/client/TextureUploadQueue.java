@@ -0,0 +1,131 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.LotaGuide;
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands decoded images over to the render thread for texture creation, and frames of streamed
+ * animations over for copying into their texture.
+ * Decode workers enqueue and move on instead of blocking on the main thread; the queue is
+ * drained at the start of every rendered frame under a time and byte budget, so a large
+ * animation is spread over several frames instead of stalling one.
+ */
+@OnlyIn(Dist.CLIENT)
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+public final class TextureUploadQueue {
+    private static final long FRAME_BUDGET_NANOS = 2_000_000L;
+    private static final long FRAME_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    private static final ConcurrentLinkedQueue<Upload> QUEUE = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private TextureUploadQueue() {}
+
+    /**
+     * Reserves a unique texture location. Safe to call from any thread.
+     */
+    public static ResourceLocation newLocation() {
+        return new ResourceLocation(LotaGuide.MODID, "dynamic/image_" + NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * Queues {@code image} to be registered as a texture under {@code location}.
+     * The queue takes ownership of the image. The returned future completes on the render thread
+     * once the texture exists, or exceptionally if it could not be created.
+     */
+    public static CompletableFuture<Void> submit(ResourceLocation location, NativeImage image) {
+        TextureUpload upload = new TextureUpload(location, image);
+        QUEUE.add(upload);
+        return upload.done;
+    }
+
+    /**
+     * Queues {@code update}, which writes about {@code byteSize} bytes into an existing texture, to run on
+     * the render thread under the same budget as new textures. It must check for itself that its texture
+     * still exists.
+     */
+    public static void submitUpdate(long byteSize, Runnable update) {
+        QUEUE.add(new Upload() {
+            @Override
+            long byteSize() {
+                return byteSize;
+            }
+
+            @Override
+            void run() {
+                update.run();
+            }
+        });
+    }
+
+    @SubscribeEvent
+    static void onRenderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase == TickEvent.Phase.START) {
+            drain();
+        }
+    }
+
+    /**
+     * Uploads queued images until this frame's budget is spent. At least one upload always
+     * runs, so an image larger than the byte budget still makes progress.
+     */
+    private static void drain() {
+        long start = System.nanoTime();
+        long bytes = 0;
+        Upload upload;
+        while ((upload = QUEUE.peek()) != null) {
+            long size = upload.byteSize();
+            if (bytes > 0 && (bytes + size > FRAME_BUDGET_BYTES || System.nanoTime() - start > FRAME_BUDGET_NANOS)) {
+                break;
+            }
+            QUEUE.poll();
+            upload.run();
+            bytes += size;
+        }
+    }
+
+    private abstract static class Upload {
+        abstract long byteSize();
+
+        abstract void run();
+    }
+
+    private static class TextureUpload extends Upload {
+        private final ResourceLocation location;
+        private final NativeImage image;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private TextureUpload(ResourceLocation location, NativeImage image) {
+            this.location = location;
+            this.image = image;
+        }
+
+        @Override
+        long byteSize() {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+
+        @Override
+        void run() {
+            try {
+                Minecraft.getInstance().getTextureManager().register(location, new DynamicTexture(image));
+                done.complete(null);
+            } catch (Exception e) {
+                image.close();
+                done.completeExceptionally(e);
+            }
+        }
+    }
+}
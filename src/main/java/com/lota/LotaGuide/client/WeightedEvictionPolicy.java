@@ -0,0 +1,243 @@
+package com.lota.LotaGuide.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Byte-weighted eviction policy for {@link ImageCache}.
+ * Entries are kept in recency order; when the total weight exceeds the budget,
+ * the victim is the least frequently used entry among the few least recently used ones
+ * (frequency is estimated with a small TinyLFU-style count-min sketch).
+ * A single large entry therefore only displaces entries that are both old and cold,
+ * instead of flushing out every page of a book that is being read.
+ * New entries also have to earn their place (TinyLFU admission): if the entries a newcomer would
+ * displace have together been used more often than it has, the newcomer is turned away instead.
+ * Pinned keys (images a screen is drawing) are skipped entirely, even if that leaves the budget exceeded.
+ * <p>
+ * This class has no Minecraft dependencies so it can be exercised on its own.
+ */
+public class WeightedEvictionPolicy<K> {
+    private static final int VICTIM_SAMPLE = 8;
+
+    private final LinkedHashMap<K, Long> weights = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch = new FrequencySketch(256);
+    private final Map<K, Integer> pins = new HashMap<>();
+    private long maxWeight;
+    private long totalWeight;
+    private K lastCounted;
+
+    public WeightedEvictionPolicy(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Marks {@code key} as most recently used. Repeated accesses to the same key
+     * (e.g. once per rendered frame) only count once towards its frequency.
+     */
+    public synchronized void recordAccess(K key) {
+        if (weights.get(key) == null) return;
+        if (!key.equals(lastCounted)) {
+            sketch.increment(key.hashCode());
+            lastCounted = key;
+        }
+    }
+
+    /**
+     * Adds or replaces an entry and returns the keys that must be evicted to stay within budget.
+     * A new, unpinned entry that loses admission is not kept and is returned as the only key;
+     * otherwise the entry that was just added is never returned, even if it alone exceeds the budget.
+     */
+    public synchronized List<K> add(K key, long weight) {
+        Long previous = weights.put(key, weight);
+        totalWeight += weight - (previous != null ? previous : 0L);
+        sketch.increment(key.hashCode());
+        lastCounted = key;
+        // Replacements and images on screen are always kept
+        if (previous != null || pins.containsKey(key)) {
+            return evict(key);
+        }
+
+        List<K> victims = selectVictims(key);
+        long victimFrequency = 0;
+        for (K victim : victims) {
+            victimFrequency += sketch.frequency(victim.hashCode());
+        }
+        if (victimFrequency > sketch.frequency(key.hashCode())) {
+            totalWeight -= weights.remove(key);
+            return List.of(key);
+        }
+        for (K victim : victims) {
+            totalWeight -= weights.remove(victim);
+        }
+        return victims;
+    }
+
+    public synchronized void remove(K key) {
+        Long weight = weights.remove(key);
+        if (weight != null) {
+            totalWeight -= weight;
+        }
+    }
+
+    /**
+     * Protects {@code key} from eviction until a matching {@link #unpin}. Pins nest and may be taken
+     * before the key is added.
+     */
+    public synchronized void pin(K key) {
+        pins.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * Drops one pin of {@code key} and returns the keys that must be evicted now that it may go,
+     * since the budget may have been exceeded while it was pinned.
+     */
+    public synchronized List<K> unpin(K key) {
+        Integer count = pins.get(key);
+        if (count == null) return List.of();
+        if (count > 1) {
+            pins.put(key, count - 1);
+            return List.of();
+        }
+        pins.remove(key);
+        return evict(null);
+    }
+
+    public synchronized boolean isPinned(K key) {
+        return pins.containsKey(key);
+    }
+
+    public synchronized void clear() {
+        weights.clear();
+        totalWeight = 0;
+        lastCounted = null;
+    }
+
+    public synchronized long getTotalWeight() { return totalWeight; }
+    public synchronized long getMaxWeight() { return maxWeight; }
+    public synchronized int size() { return weights.size(); }
+
+    /**
+     * Changes the budget and returns the keys that no longer fit.
+     */
+    public synchronized List<K> setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        return evict(null);
+    }
+
+    private List<K> evict(K protectedKey) {
+        List<K> victims = selectVictims(protectedKey);
+        for (K victim : victims) {
+            totalWeight -= weights.remove(victim);
+        }
+        return victims;
+    }
+
+    /**
+     * The entries that would be evicted to get back within budget, without removing them.
+     */
+    private List<K> selectVictims(K protectedKey) {
+        List<K> victims = new ArrayList<>();
+        Set<K> chosen = new HashSet<>();
+        long remaining = totalWeight;
+        while (remaining > maxWeight) {
+            // An entry rather than a key: a get() would count as an access and reorder the map
+            Map.Entry<K, Long> victim = selectVictim(protectedKey, chosen);
+            if (victim == null) break;
+            remaining -= victim.getValue();
+            chosen.add(victim.getKey());
+            victims.add(victim.getKey());
+        }
+        return victims;
+    }
+
+    private Map.Entry<K, Long> selectVictim(K protectedKey, Set<K> chosen) {
+        Map.Entry<K, Long> victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        int sampled = 0;
+        Iterator<Map.Entry<K, Long>> it = weights.entrySet().iterator();
+        while (it.hasNext() && sampled < VICTIM_SAMPLE) {
+            Map.Entry<K, Long> entry = it.next();
+            K candidate = entry.getKey();
+            // Not counted as sampled, so a run of pinned entries cannot hide every victim
+            if (candidate.equals(protectedKey) || pins.containsKey(candidate) || chosen.contains(candidate)) continue;
+            int frequency = sketch.frequency(candidate.hashCode());
+            // Strictly lower only, so ties resolve to the least recently used entry
+            if (frequency < victimFrequency) {
+                victim = entry;
+                victimFrequency = frequency;
+            }
+            sampled++;
+        }
+        return victim;
+    }
+
+    /**
+     * Count-min sketch with four 4-bit counters per key, packed sixteen to a long.
+     * All counters are halved periodically so that old popularity fades out.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int resetThreshold;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+            this.table = new long[size];
+            this.resetThreshold = 10 * size;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xFL));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                long mask = 0xFL << shift;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetThreshold) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int offsetOf(int hash, int depth) {
+            return ((hash >>> (depth << 3)) + depth) & 0xF;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lota.LotaGuide.data;
+
+import com.lota.LotaGuide.LotaGuide;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.saveddata.SavedData;
+
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Per-world store of signed book pages, keyed by a SHA-256 hash of their encoded content.
+ * With {@code sharedBookContent} enabled, signed books carry only the hash and page count, so a chest
+ * of copies of one guide costs the pages once in the save instead of once per copy, and inventory
+ * and chunk packets stay small. Clients fetch the pages by hash and cache them.
+ * <p>
+ * Entries are never removed: an item can be destroyed without the server noticing, so there is no
+ * reliable reference count. Distinct books are few compared to their copies.
+ */
+public class BookContentStore extends SavedData {
+    private static final String DATA_NAME = LotaGuide.MODID + "_books";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final Map<String, CompoundTag> books = new HashMap<>();
+
+    public static BookContentStore get(MinecraftServer server) {
+        return server.overworld().getDataStorage().computeIfAbsent(BookContentStore::load, BookContentStore::new, DATA_NAME);
+    }
+
+    private static BookContentStore load(CompoundTag tag) {
+        BookContentStore store = new BookContentStore();
+        for (String hash : tag.getAllKeys()) {
+            if (isValidHash(hash)) {
+                store.books.put(hash, tag.getCompound(hash));
+            }
+        }
+        return store;
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag tag) {
+        for (Map.Entry<String, CompoundTag> entry : books.entrySet()) {
+            tag.put(entry.getKey(), entry.getValue());
+        }
+        return tag;
+    }
+
+    @Nullable
+    public CompoundTag get(String hash) {
+        return books.get(hash);
+    }
+
+    /**
+     * Stores {@code content} unless identical content is already stored, and returns its hash.
+     */
+    public String put(CompoundTag content) {
+        String hash = hash(content);
+        if (!books.containsKey(hash)) {
+            books.put(hash, content);
+            setDirty();
+        }
+        return hash;
+    }
+
+    /**
+     * Whether {@code hash} has the form of a content hash. Hashes from the network are checked
+     * with this before they are used as map keys or file names.
+     */
+    public static boolean isValidHash(@Nullable String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+    /**
+     * Moves the pages of a signed book stack into the store, leaving the author, the content hash
+     * and the page count on the stack. Cheap for stacks that are already moved or hold no book,
+     * so it can run from an inventory tick.
+     *
+     * @return whether the stack was changed
+     */
+    public static boolean externalize(MinecraftServer server, ItemStack stack) {
+        CompoundTag root = stack.getTag();
+        if (root == null || !root.contains(ImageBookData.TAG_BOOK_DATA)) return false;
+        CompoundTag book = root.getCompound(ImageBookData.TAG_BOOK_DATA);
+        if (book.contains(ImageBookData.TAG_CONTENT_HASH)) return false;
+
+        int pageCount = ImageBookView.of(stack).getPageCount();
+        CompoundTag content = book.copy();
+        content.remove(ImageBookData.TAG_AUTHOR);
+        content.remove(ImageBookData.TAG_AUTHOR_NAME);
+        String hash = get(server).put(content);
+
+        CompoundTag reference = new CompoundTag();
+        if (book.hasUUID(ImageBookData.TAG_AUTHOR)) {
+            reference.putUUID(ImageBookData.TAG_AUTHOR, book.getUUID(ImageBookData.TAG_AUTHOR));
+        }
+        if (book.contains(ImageBookData.TAG_AUTHOR_NAME)) {
+            reference.putString(ImageBookData.TAG_AUTHOR_NAME, book.getString(ImageBookData.TAG_AUTHOR_NAME));
+        }
+        reference.putString(ImageBookData.TAG_CONTENT_HASH, hash);
+        reference.putInt(ImageBookData.TAG_PAGE_COUNT, pageCount);
+        root.put(ImageBookData.TAG_BOOK_DATA, reference);
+        return true;
+    }
+
+    /**
+     * SHA-256 of the encoded {@code content}, as lowercase hex; the key it is stored under.
+     */
+    public static String hash(CompoundTag content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+                NbtIo.write(content, out);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every JVM ships SHA-256, and the stream writes nowhere
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.lota.LotaGuide.data;
+
+import net.minecraft.nbt.ByteArrayTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Page encoding of the book tag. Version 1 (no {@code format} key) stores one compound per page with
+ * full key names and strings. Version 2 stores:
+ * <ul>
+ *   <li>{@code strings}: every distinct string once. URLs are split after their last {@code /}, so pages
+ *       on the same host and path share the prefix and the same image shares both halves.</li>
+ *   <li>{@code pageRefs}: three ints per page (URL prefix, URL rest, text), each an index into
+ *       {@code strings}, or -1 for an empty string. A text index past the string table refers to
+ *       {@code packedText}.</li>
+ *   <li>{@code fontSizes}: one byte per page, left out when every page uses the default size.</li>
+ *   <li>{@code packedText}: deflated UTF-8 of texts long enough for it to pay off.</li>
+ *   <li>{@code imageHashes}: 32 bytes per page, the SHA-256 of its image or zeros, and {@code imageSizes}:
+ *       width and height per page, 0 if unknown. Both are left out when no page has a recorded image.</li>
+ * </ul>
+ * Both versions are read through {@link Pages}; only version 2 is written. A tag with any other
+ * {@code format} reads as a book without pages.
+ */
+final class CompactPageFormat {
+    static final String TAG_FORMAT = "format";
+    static final int VERSION = 2;
+
+    private static final String TAG_STRINGS = "strings";
+    private static final String TAG_PAGE_REFS = "pageRefs";
+    private static final String TAG_FONT_SIZES = "fontSizes";
+    private static final String TAG_PACKED_TEXT = "packedText";
+    private static final String TAG_IMAGE_HASHES = "imageHashes";
+    private static final String TAG_IMAGE_SIZES = "imageSizes";
+    private static final int HASH_BYTES = 32;
+    private static final int REFS_PER_PAGE = 3;
+    private static final int NONE = -1;
+    // Packets and region files are zlib-compressed as a whole already; this only pays off for long text
+    private static final int PACK_MIN_CHARS = 512;
+    // Each packed entry is one page's text; anything inflating past this many UTF-8 bytes is corrupt
+    private static final int MAX_PACKED_BYTES = ImageBookData.MAX_TEXT_LENGTH * 4;
+
+    private CompactPageFormat() {}
+
+    /**
+     * Read access to the pages of a book tag, whatever its version.
+     */
+    abstract static class Pages {
+        abstract int size();
+        abstract String imageUrl(int index);
+        abstract String text(int index);
+        /** Stored size, not yet clamped. */
+        abstract int fontSize(int index);
+        /** Hex SHA-256 of the image, or empty. */
+        abstract String imageHash(int index);
+        abstract int imageWidth(int index);
+        abstract int imageHeight(int index);
+    }
+
+    static Pages read(CompoundTag tag) {
+        if (tag.contains(TAG_FORMAT)) {
+            // Written by a newer version, or not by us at all; guessing at the layout could misread every page
+            return tag.getInt(TAG_FORMAT) == VERSION ? new CompactPages(tag) : new LegacyPages(new ListTag());
+        }
+        return new LegacyPages(tag.contains(ImageBookData.TAG_PAGES)
+            ? tag.getList(ImageBookData.TAG_PAGES, Tag.TAG_COMPOUND) : new ListTag());
+    }
+
+    static void write(List<ImageBookData.Page> pages, CompoundTag tag) {
+        StringTable strings = new StringTable();
+        ListTag packed = new ListTag();
+        int[] refs = new int[pages.size() * REFS_PER_PAGE];
+        byte[] fontSizes = new byte[pages.size()];
+        boolean customFontSize = false;
+        byte[] imageHashes = new byte[pages.size() * HASH_BYTES];
+        int[] imageSizes = new int[pages.size() * 2];
+        boolean imageInfo = false;
+
+        for (int i = 0; i < pages.size(); i++) {
+            ImageBookData.Page page = pages.get(i);
+            String url = page.getImageUrl();
+            int split = url.lastIndexOf('/') + 1;
+            refs[i * REFS_PER_PAGE] = strings.indexOf(url.substring(0, split));
+            refs[i * REFS_PER_PAGE + 1] = strings.indexOf(url.substring(split));
+
+            byte[] deflated = page.getText().length() >= PACK_MIN_CHARS ? deflate(page.getText()) : null;
+            if (deflated != null) {
+                // Resolved below, once the size of the string table is known
+                refs[i * REFS_PER_PAGE + 2] = -2 - packed.size();
+                packed.add(new ByteArrayTag(deflated));
+            } else {
+                refs[i * REFS_PER_PAGE + 2] = strings.indexOf(page.getText());
+            }
+
+            fontSizes[i] = (byte) page.getFontSize();
+            customFontSize |= page.getFontSize() != ImageBookData.DEFAULT_FONT_SIZE;
+
+            if (!page.getImageHash().isEmpty()) {
+                System.arraycopy(HexFormat.of().parseHex(page.getImageHash()), 0, imageHashes, i * HASH_BYTES, HASH_BYTES);
+                imageInfo = true;
+            }
+            imageSizes[i * 2] = page.getImageWidth();
+            imageSizes[i * 2 + 1] = page.getImageHeight();
+            imageInfo |= page.getImageWidth() > 0;
+        }
+        for (int i = 2; i < refs.length; i += REFS_PER_PAGE) {
+            if (refs[i] < NONE) {
+                refs[i] = strings.size() + (-2 - refs[i]);
+            }
+        }
+
+        tag.putInt(TAG_FORMAT, VERSION);
+        tag.put(TAG_STRINGS, strings.list);
+        tag.putIntArray(TAG_PAGE_REFS, refs);
+        if (customFontSize) {
+            tag.putByteArray(TAG_FONT_SIZES, fontSizes);
+        }
+        if (!packed.isEmpty()) {
+            tag.put(TAG_PACKED_TEXT, packed);
+        }
+        if (imageInfo) {
+            tag.putByteArray(TAG_IMAGE_HASHES, imageHashes);
+            tag.putIntArray(TAG_IMAGE_SIZES, imageSizes);
+        }
+    }
+
+    /**
+     * Deflated UTF-8 of {@code text}, or null if that would not be meaningfully smaller.
+     */
+    private static byte[] deflate(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.size() < utf8.length * 3 / 4 ? out.toByteArray() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates one packed text, or returns an empty string if it is corrupt or inflates past
+     * {@link #MAX_PACKED_BYTES}, so a crafted entry cannot be used as a deflate bomb.
+     */
+    private static String inflate(byte[] data) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(data.length * 3, MAX_PACKED_BYTES));
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                if (out.size() + n > MAX_PACKED_BYTES) return "";
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return "";
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class StringTable {
+        private final ListTag list = new ListTag();
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        int indexOf(String value) {
+            if (value.isEmpty()) return NONE;
+            return indices.computeIfAbsent(value, v -> {
+                list.add(StringTag.valueOf(v));
+                return list.size() - 1;
+            });
+        }
+
+        int size() {
+            return list.size();
+        }
+    }
+
+    private static class LegacyPages extends Pages {
+        private final ListTag pages;
+
+        LegacyPages(ListTag pages) {
+            this.pages = pages;
+        }
+
+        @Override int size() { return pages.size(); }
+        @Override String imageUrl(int index) { return pages.getCompound(index).getString(ImageBookData.TAG_IMAGE_URL); }
+        @Override String text(int index) { return pages.getCompound(index).getString(ImageBookData.TAG_TEXT); }
+        @Override int fontSize(int index) { return pages.getCompound(index).getInt(ImageBookData.TAG_FONT_SIZE); }
+        @Override String imageHash(int index) { return pages.getCompound(index).getString(ImageBookData.TAG_IMAGE_HASH); }
+        @Override int imageWidth(int index) { return pages.getCompound(index).getInt(ImageBookData.TAG_IMAGE_WIDTH); }
+        @Override int imageHeight(int index) { return pages.getCompound(index).getInt(ImageBookData.TAG_IMAGE_HEIGHT); }
+    }
+
+    private static class CompactPages extends Pages {
+        private final ListTag strings;
+        private final int[] refs;
+        private final byte[] fontSizes;
+        private final ListTag packed;
+        private final byte[] imageHashes;
+        private final int[] imageSizes;
+
+        CompactPages(CompoundTag tag) {
+            this.strings = tag.getList(TAG_STRINGS, Tag.TAG_STRING);
+            this.refs = tag.getIntArray(TAG_PAGE_REFS);
+            this.fontSizes = tag.getByteArray(TAG_FONT_SIZES);
+            this.packed = tag.getList(TAG_PACKED_TEXT, Tag.TAG_BYTE_ARRAY);
+            this.imageHashes = tag.getByteArray(TAG_IMAGE_HASHES);
+            this.imageSizes = tag.getIntArray(TAG_IMAGE_SIZES);
+        }
+
+        @Override
+        int size() {
+            return refs.length / REFS_PER_PAGE;
+        }
+
+        @Override
+        String imageUrl(int index) {
+            return string(refs[index * REFS_PER_PAGE]) + string(refs[index * REFS_PER_PAGE + 1]);
+        }
+
+        @Override
+        String text(int index) {
+            int ref = refs[index * REFS_PER_PAGE + 2];
+            int packedIndex = ref - strings.size();
+            if (packedIndex >= 0 && packedIndex < packed.size()) {
+                return inflate(((ByteArrayTag) packed.get(packedIndex)).getAsByteArray());
+            }
+            return string(ref);
+        }
+
+        @Override
+        int fontSize(int index) {
+            return index < fontSizes.length ? fontSizes[index] : ImageBookData.DEFAULT_FONT_SIZE;
+        }
+
+        @Override
+        String imageHash(int index) {
+            int from = index * HASH_BYTES;
+            if (from + HASH_BYTES > imageHashes.length) return "";
+            for (int i = from; i < from + HASH_BYTES; i++) {
+                if (imageHashes[i] != 0) {
+                    return HexFormat.of().formatHex(imageHashes, from, from + HASH_BYTES);
+                }
+            }
+            return "";
+        }
+
+        @Override
+        int imageWidth(int index) {
+            return index * 2 + 1 < imageSizes.length ? imageSizes[index * 2] : 0;
+        }
+
+        @Override
+        int imageHeight(int index) {
+            return index * 2 + 1 < imageSizes.length ? imageSizes[index * 2 + 1] : 0;
+        }
+
+        private String string(int ref) {
+            return ref >= 0 && ref < strings.size() ? strings.getString(ref) : "";
+        }
+    }
+}
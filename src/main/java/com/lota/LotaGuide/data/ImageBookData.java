@@ -1,29 +1,42 @@
 package com.lota.LotaGuide.data;
 
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.Tag;
 import net.minecraft.world.item.ItemStack;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * Data structure for Image Book pages.
- * Handles serialization/deserialization to NBT.
+ * Handles serialization/deserialization to NBT; pages are written in the compact
+ * format described in {@link CompactPageFormat}.
  */
 public class ImageBookData {
+    public static final String TAG_BOOK_DATA = "ImageBookData";
     public static final String TAG_AUTHOR = "author";
     public static final String TAG_AUTHOR_NAME = "authorName";
     public static final String TAG_PAGES = "pages";
     public static final String TAG_IMAGE_URL = "imageUrl";
     public static final String TAG_TEXT = "text";
     public static final String TAG_FONT_SIZE = "fontSize";
+    // Recorded at signing when the author's client had the image: SHA-256 of its bytes and its size
+    public static final String TAG_IMAGE_HASH = "imageHash";
+    public static final String TAG_IMAGE_WIDTH = "imageWidth";
+    public static final String TAG_IMAGE_HEIGHT = "imageHeight";
+    // Set instead of the pages when they are kept in a BookContentStore
+    public static final String TAG_CONTENT_HASH = "contentHash";
+    public static final String TAG_PAGE_COUNT = "pageCount";
     
     public static final int DEFAULT_FONT_SIZE = 12;
     public static final int MIN_FONT_SIZE = 8;
     public static final int MAX_FONT_SIZE = 24;
+    // Enforced by the edit screen and again by the server when it applies edits
+    public static final int MAX_PAGES = 100;
+    public static final int MAX_URL_LENGTH = 500;
+    public static final int MAX_TEXT_LENGTH = 1000;
+    public static final int MAX_IMAGE_DIMENSION = 16384;
     
     private UUID authorUUID;
     private String authorName;
@@ -38,28 +51,58 @@ public class ImageBookData {
         private String imageUrl;
         private String text;
         private int fontSize;
+        private String imageHash;
+        private int imageWidth;
+        private int imageHeight;
         
         public Page() {
-            this.imageUrl = "";
-            this.text = "";
-            this.fontSize = DEFAULT_FONT_SIZE;
+            this("", "", DEFAULT_FONT_SIZE);
         }
         
         public Page(String imageUrl, String text, int fontSize) {
+            this(imageUrl, text, fontSize, "", 0, 0);
+        }
+        
+        public Page(String imageUrl, String text, int fontSize, String imageHash, int imageWidth, int imageHeight) {
             this.imageUrl = imageUrl != null ? imageUrl : "";
             this.text = text != null ? text : "";
-            this.fontSize = Math.max(MIN_FONT_SIZE, Math.min(MAX_FONT_SIZE, fontSize));
+            this.fontSize = clampFontSize(fontSize);
+            setImageInfo(imageHash, imageWidth, imageHeight);
         }
         
         public String getImageUrl() { return imageUrl; }
-        public void setImageUrl(String imageUrl) { this.imageUrl = imageUrl != null ? imageUrl : ""; }
+        public void setImageUrl(String imageUrl) {
+            String url = imageUrl != null ? imageUrl : "";
+            if (!url.equals(this.imageUrl)) {
+                // The recorded image belongs to the old URL
+                setImageInfo("", 0, 0);
+            }
+            this.imageUrl = url;
+        }
+        
+        /** SHA-256 of the image's bytes as lowercase hex, or empty if none was recorded. */
+        public String getImageHash() { return imageHash; }
+        /** Recorded image width in pixels, or 0 if unknown. */
+        public int getImageWidth() { return imageWidth; }
+        public int getImageHeight() { return imageHeight; }
+        
+        /**
+         * Records what the page's image was when the book was signed. An invalid hash is dropped,
+         * and dimensions are only kept as a pair within {@link #MAX_IMAGE_DIMENSION}.
+         */
+        public void setImageInfo(String imageHash, int imageWidth, int imageHeight) {
+            this.imageHash = isValidImageHash(imageHash) ? imageHash : "";
+            boolean sized = imageWidth > 0 && imageHeight > 0 && imageWidth <= MAX_IMAGE_DIMENSION && imageHeight <= MAX_IMAGE_DIMENSION;
+            this.imageWidth = sized ? imageWidth : 0;
+            this.imageHeight = sized ? imageHeight : 0;
+        }
         
         public String getText() { return text; }
         public void setText(String text) { this.text = text != null ? text : ""; }
         
         public int getFontSize() { return fontSize; }
         public void setFontSize(int fontSize) { 
-            this.fontSize = Math.max(MIN_FONT_SIZE, Math.min(MAX_FONT_SIZE, fontSize)); 
+            this.fontSize = clampFontSize(fontSize); 
         }
         
         public void increaseFontSize() {
@@ -75,6 +118,13 @@ public class ImageBookData {
             tag.putString(TAG_IMAGE_URL, imageUrl);
             tag.putString(TAG_TEXT, text);
             tag.putInt(TAG_FONT_SIZE, fontSize);
+            if (!imageHash.isEmpty()) {
+                tag.putString(TAG_IMAGE_HASH, imageHash);
+            }
+            if (imageWidth > 0) {
+                tag.putInt(TAG_IMAGE_WIDTH, imageWidth);
+                tag.putInt(TAG_IMAGE_HEIGHT, imageHeight);
+            }
             return tag;
         }
         
@@ -82,11 +132,30 @@ public class ImageBookData {
             return new Page(
                 tag.getString(TAG_IMAGE_URL),
                 tag.getString(TAG_TEXT),
-                tag.getInt(TAG_FONT_SIZE)
+                tag.getInt(TAG_FONT_SIZE),
+                tag.getString(TAG_IMAGE_HASH),
+                tag.getInt(TAG_IMAGE_WIDTH),
+                tag.getInt(TAG_IMAGE_HEIGHT)
             );
         }
     }
     
+    static int clampFontSize(int fontSize) {
+        return Math.max(MIN_FONT_SIZE, Math.min(MAX_FONT_SIZE, fontSize));
+    }
+    
+    /**
+     * Whether {@code hash} has the form of an image hash: 64 lowercase hex digits.
+     */
+    public static boolean isValidImageHash(@Nullable String hash) {
+        if (hash == null || hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+    
     public UUID getAuthorUUID() { return authorUUID; }
     public void setAuthorUUID(UUID uuid) { this.authorUUID = uuid; }
     
@@ -109,7 +178,9 @@ public class ImageBookData {
     public int getPageCount() { return pages.size(); }
     
     public void addPage() {
-        pages.add(new Page());
+        if (pages.size() < MAX_PAGES) {
+            pages.add(new Page());
+        }
     }
     
     public void removePage(int index) {
@@ -118,6 +189,17 @@ public class ImageBookData {
         }
     }
     
+    public ImageBookData copy() {
+        ImageBookData copy = new ImageBookData();
+        copy.pages.clear();
+        for (Page page : pages) {
+            copy.pages.add(new Page(page.imageUrl, page.text, page.fontSize, page.imageHash, page.imageWidth, page.imageHeight));
+        }
+        copy.authorUUID = authorUUID;
+        copy.authorName = authorName;
+        return copy;
+    }
+    
     public CompoundTag toNBT() {
         CompoundTag tag = new CompoundTag();
         
@@ -128,11 +210,7 @@ public class ImageBookData {
             tag.putString(TAG_AUTHOR_NAME, authorName);
         }
         
-        ListTag pagesTag = new ListTag();
-        for (Page page : pages) {
-            pagesTag.add(page.toNBT());
-        }
-        tag.put(TAG_PAGES, pagesTag);
+        CompactPageFormat.write(pages, tag);
         
         return tag;
     }
@@ -148,11 +226,11 @@ public class ImageBookData {
             data.authorName = tag.getString(TAG_AUTHOR_NAME);
         }
         
-        if (tag.contains(TAG_PAGES)) {
-            ListTag pagesTag = tag.getList(TAG_PAGES, Tag.TAG_COMPOUND);
-            for (int i = 0; i < pagesTag.size(); i++) {
-                data.pages.add(Page.fromNBT(pagesTag.getCompound(i)));
-            }
+        // Reads both the compact format and books saved before it
+        CompactPageFormat.Pages stored = CompactPageFormat.read(tag);
+        for (int i = 0; i < stored.size(); i++) {
+            data.pages.add(new Page(stored.imageUrl(i), stored.text(i), stored.fontSize(i),
+                stored.imageHash(i), stored.imageWidth(i), stored.imageHeight(i)));
         }
         
         if (data.pages.isEmpty()) {
@@ -162,13 +240,28 @@ public class ImageBookData {
         return data;
     }
     
+    /**
+     * Reads a book whose pages are kept in a {@link BookContentStore}: the author comes from the
+     * item's book tag, the pages from the stored {@code content}.
+     */
+    public static ImageBookData fromNBT(CompoundTag tag, CompoundTag content) {
+        ImageBookData data = fromNBT(content);
+        if (tag.hasUUID(TAG_AUTHOR)) {
+            data.authorUUID = tag.getUUID(TAG_AUTHOR);
+        }
+        if (tag.contains(TAG_AUTHOR_NAME)) {
+            data.authorName = tag.getString(TAG_AUTHOR_NAME);
+        }
+        return data;
+    }
+    
     public void saveToStack(ItemStack stack) {
-        stack.getOrCreateTag().put("ImageBookData", toNBT());
+        stack.getOrCreateTag().put(TAG_BOOK_DATA, toNBT());
     }
     
     public static ImageBookData loadFromStack(ItemStack stack) {
-        if (stack.hasTag() && stack.getTag().contains("ImageBookData")) {
-            return fromNBT(stack.getTag().getCompound("ImageBookData"));
+        if (stack.hasTag() && stack.getTag().contains(TAG_BOOK_DATA)) {
+            return fromNBT(stack.getTag().getCompound(TAG_BOOK_DATA));
         }
         return new ImageBookData();
     }
@@ -0,0 +1,119 @@
+package com.lota.LotaGuide.data;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Read-only view of a book stored on an item stack, for places that only need a few fields
+ * (tooltips, hotbar warm-up). Fields are read from the stack's tag on demand; no {@link ImageBookData.Page}
+ * objects are created. Views are cached by tag identity, and stacks get a new tag whenever a book
+ * is saved, so hovering over the same books every frame costs one array lookup each. The render and
+ * integrated-server threads both read books, so each thread keeps its own cache.
+ * <p>
+ * Answers exactly what {@link ImageBookData#fromNBT(CompoundTag)} would, including the single blank page
+ * of a book without pages. Use {@link ImageBookData} to edit a book.
+ */
+public final class ImageBookView {
+    private static final ImageBookView EMPTY = new ImageBookView(new CompoundTag());
+    private static final int CACHE_SLOTS = 64;
+    // Direct-mapped by identity hash: a full chest of books fits, and a collision just means a re-read
+    private static final ThreadLocal<ImageBookView[]> CACHE = ThreadLocal.withInitial(() -> new ImageBookView[CACHE_SLOTS]);
+
+    private final CompoundTag tag;
+    private final CompactPageFormat.Pages pages;
+
+    private ImageBookView(CompoundTag tag) {
+        this.tag = tag;
+        this.pages = CompactPageFormat.read(tag);
+    }
+
+    public static ImageBookView of(ItemStack stack) {
+        CompoundTag root = stack.getTag();
+        if (root == null || !root.contains(ImageBookData.TAG_BOOK_DATA)) {
+            return EMPTY;
+        }
+        return of(root.getCompound(ImageBookData.TAG_BOOK_DATA));
+    }
+
+    /**
+     * A view of a book tag, or of content fetched from a {@link BookContentStore}.
+     */
+    public static ImageBookView of(CompoundTag tag) {
+        ImageBookView[] cache = CACHE.get();
+        int slot = System.identityHashCode(tag) & (CACHE_SLOTS - 1);
+        ImageBookView view = cache[slot];
+        if (view == null || view.tag != tag) {
+            view = new ImageBookView(tag);
+            cache[slot] = view;
+        }
+        return view;
+    }
+
+    public int getPageCount() {
+        if (tag.contains(ImageBookData.TAG_PAGE_COUNT)) {
+            return Math.max(1, tag.getInt(ImageBookData.TAG_PAGE_COUNT));
+        }
+        return Math.max(1, pages.size());
+    }
+
+    /**
+     * Hash of the pages in the server's {@link BookContentStore}, or null if the pages are on the stack itself.
+     * Page fields of a stored book read as empty until its content is fetched.
+     */
+    @Nullable
+    public String getContentHash() {
+        return tag.contains(ImageBookData.TAG_CONTENT_HASH) ? tag.getString(ImageBookData.TAG_CONTENT_HASH) : null;
+    }
+
+    @Nullable
+    public UUID getAuthorUUID() {
+        return tag.hasUUID(ImageBookData.TAG_AUTHOR) ? tag.getUUID(ImageBookData.TAG_AUTHOR) : null;
+    }
+
+    @Nullable
+    public String getAuthorName() {
+        return tag.contains(ImageBookData.TAG_AUTHOR_NAME) ? tag.getString(ImageBookData.TAG_AUTHOR_NAME) : null;
+    }
+
+    public String getImageUrl(int page) {
+        return hasPage(page) ? pages.imageUrl(page) : "";
+    }
+
+    public String getText(int page) {
+        return hasPage(page) ? pages.text(page) : "";
+    }
+
+    public int getFontSize(int page) {
+        return hasPage(page) ? ImageBookData.clampFontSize(pages.fontSize(page)) : ImageBookData.DEFAULT_FONT_SIZE;
+    }
+
+    /**
+     * SHA-256 of the page's image recorded at signing, or empty. See {@link ImageBookData.Page#getImageHash()}.
+     */
+    public String getImageHash(int page) {
+        String hash = hasPage(page) ? pages.imageHash(page) : "";
+        return ImageBookData.isValidImageHash(hash) ? hash : "";
+    }
+
+    public int getImageWidth(int page) {
+        return hasImageSize(page) ? pages.imageWidth(page) : 0;
+    }
+
+    public int getImageHeight(int page) {
+        return hasImageSize(page) ? pages.imageHeight(page) : 0;
+    }
+
+    private boolean hasImageSize(int page) {
+        if (!hasPage(page)) return false;
+        int width = pages.imageWidth(page);
+        int height = pages.imageHeight(page);
+        return width > 0 && height > 0 && width <= ImageBookData.MAX_IMAGE_DIMENSION && height <= ImageBookData.MAX_IMAGE_DIMENSION;
+    }
+
+    private boolean hasPage(int index) {
+        return index >= 0 && index < pages.size();
+    }
+}
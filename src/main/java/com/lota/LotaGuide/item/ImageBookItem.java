@@ -1,5 +1,6 @@
 package com.lota.LotaGuide.item;
 
+import com.lota.LotaGuide.client.BookEditSync;
 import com.lota.LotaGuide.data.ImageBookData;
 import com.lota.LotaGuide.screen.ImageBookEditScreen;
 import net.minecraft.client.Minecraft;
@@ -32,6 +33,6 @@ public class ImageBookItem extends Item {
     @OnlyIn(Dist.CLIENT)
     private void openEditScreen(Player player, ItemStack stack, InteractionHand hand) {
         ImageBookData data = ImageBookData.loadFromStack(stack);
-        Minecraft.getInstance().setScreen(new ImageBookEditScreen(player, stack, hand, data));
+        Minecraft.getInstance().setScreen(new ImageBookEditScreen(player, stack, BookEditSync.slotOf(player, hand), data));
     }
 }
@@ -1,12 +1,19 @@
 package com.lota.LotaGuide.item;
 
+import com.lota.LotaGuide.Config;
+import com.lota.LotaGuide.client.BookContentCache;
+import com.lota.LotaGuide.client.BookEditSync;
+import com.lota.LotaGuide.data.BookContentStore;
 import com.lota.LotaGuide.data.ImageBookData;
+import com.lota.LotaGuide.data.ImageBookView;
 import com.lota.LotaGuide.screen.ImageBookViewScreen;
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.InteractionResultHolder;
+import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
@@ -35,17 +42,38 @@ public class SignedImageBookItem extends Item {
         return InteractionResultHolder.sidedSuccess(stack, level.isClientSide());
     }
     
+    @Override
+    public void inventoryTick(ItemStack stack, Level level, Entity entity, int slot, boolean selected) {
+        if (Config.sharedBookContent && level instanceof ServerLevel serverLevel) {
+            BookContentStore.externalize(serverLevel.getServer(), stack);
+        }
+    }
+    
     @OnlyIn(Dist.CLIENT)
     private void openViewScreen(Player player, ItemStack stack, InteractionHand hand) {
-        ImageBookData data = ImageBookData.loadFromStack(stack);
-        Minecraft.getInstance().setScreen(new ImageBookViewScreen(player, stack, hand, data));
+        int slot = BookEditSync.slotOf(player, hand);
+        String hash = ImageBookView.of(stack).getContentHash();
+        if (hash == null) {
+            ImageBookData data = ImageBookData.loadFromStack(stack);
+            Minecraft.getInstance().setScreen(new ImageBookViewScreen(player, stack, slot, data));
+            return;
+        }
+        // Pages kept on the server; usually already cached, otherwise the screen opens once they arrive.
+        // The server may have resent the stack meanwhile, so look for the same book in the same slot, not the same object
+        BookContentCache.fetch(hash).thenAccept(content -> {
+            ItemStack current = player.getInventory().getItem(slot);
+            if (content != null && current.is(this) && hash.equals(ImageBookView.of(current).getContentHash())) {
+                ImageBookData data = ImageBookData.fromNBT(current.getTag().getCompound(ImageBookData.TAG_BOOK_DATA), content);
+                Minecraft.getInstance().setScreen(new ImageBookViewScreen(player, current, slot, data));
+            }
+        });
     }
     
     @Override
     @OnlyIn(Dist.CLIENT)
     public void appendHoverText(ItemStack stack, @Nullable Level level, List<Component> tooltip, TooltipFlag flag) {
-        ImageBookData data = ImageBookData.loadFromStack(stack);
-        int pageCount = data.getPageCount();
+        // Called every frame while hovered; the view reads the page count without parsing the pages
+        int pageCount = ImageBookView.of(stack).getPageCount();
         tooltip.add(Component.translatable("item.lotaguide.signed_image_book.pages", pageCount).withStyle(ChatFormatting.GRAY));
     }
 }
@@ -0,0 +1,39 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.client.BookContentCache;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+
+import javax.annotation.Nullable;
+import java.util.function.Supplier;
+
+/**
+ * Server to client: the pages stored under a content hash, or null if the server does not know it.
+ */
+public class BookContentPacket {
+    private static final int MAX_HASH_LENGTH = 64;
+
+    private final String hash;
+    @Nullable private final CompoundTag content;
+
+    public BookContentPacket(String hash, @Nullable CompoundTag content) {
+        this.hash = hash;
+        this.content = content;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeUtf(hash, MAX_HASH_LENGTH);
+        buf.writeNbt(content);
+    }
+
+    static BookContentPacket decode(FriendlyByteBuf buf) {
+        return new BookContentPacket(buf.readUtf(MAX_HASH_LENGTH), buf.readNbt());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> BookContentCache.receive(hash, content));
+    }
+}
@@ -0,0 +1,35 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.client.BookEditSync;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Server to client: whether the {@link BookEditPacket} with the given sequence number was applied.
+ */
+public class BookEditAckPacket {
+    private final int sequence;
+    private final boolean accepted;
+
+    public BookEditAckPacket(int sequence, boolean accepted) {
+        this.sequence = sequence;
+        this.accepted = accepted;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(sequence);
+        buf.writeBoolean(accepted);
+    }
+
+    static BookEditAckPacket decode(FriendlyByteBuf buf) {
+        return new BookEditAckPacket(buf.readVarInt(), buf.readBoolean());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> BookEditSync.onAck(sequence, accepted));
+    }
+}
@@ -0,0 +1,293 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.data.BookContentStore;
+import com.lota.LotaGuide.data.ImageBookData;
+import com.lota.LotaGuide.data.ImageBookView;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.network.NetworkEvent;
+import net.minecraftforge.network.PacketDistributor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Client to server: a batch of edits to the book in one of the sender's inventory slots.
+ * Ops are per page (set URL, text, font size or the image recorded at signing) plus appending and
+ * removing pages, applied in order.
+ * A {@link #full} batch describes the whole book starting from a single blank page, and is what the
+ * client falls back to after a rejected batch. Every batch carries a {@link #baseline}: of the book it
+ * was diffed against, or for a full batch of the book as the server last accepted it, and is rejected
+ * if the slot holds anything else by the time it arrives.
+ * <p>
+ * Batches carry increasing sequence numbers; stale or duplicate ones are dropped. Field limits are
+ * enforced while decoding on the network thread, so the main thread only checks page indices and
+ * applies. Every batch is answered with a {@link BookEditAckPacket}.
+ */
+public class BookEditPacket {
+    // Enough for a full batch of a book at the page limit
+    private static final int MAX_OPS = ImageBookData.MAX_PAGES * 5;
+    private static final int IMAGE_HASH_LENGTH = 64;
+
+    public enum Action {
+        /** Apply the ops to the writable book. */
+        EDIT,
+        /** Apply the ops, then sign the book as the sender. */
+        SIGN,
+        /** Turn the sender's own signed book back into a writable one; carries no ops. */
+        UNSIGN
+    }
+
+    public enum OpType { ADD_PAGE, REMOVE_PAGE, SET_URL, SET_TEXT, SET_FONT_SIZE, SET_IMAGE_INFO }
+
+    public static class Op {
+        private final OpType type;
+        private final int page;
+        private final String value;
+        // Font size, or image width for SET_IMAGE_INFO
+        private final int fontSize;
+        private final int height;
+
+        private Op(OpType type, int page, String value, int fontSize, int height) {
+            this.type = type;
+            this.page = page;
+            this.value = value;
+            this.fontSize = fontSize;
+            this.height = height;
+        }
+
+        public static Op addPage() { return new Op(OpType.ADD_PAGE, 0, "", 0, 0); }
+        public static Op removePage(int page) { return new Op(OpType.REMOVE_PAGE, page, "", 0, 0); }
+        public static Op setUrl(int page, String url) { return new Op(OpType.SET_URL, page, url, 0, 0); }
+        public static Op setText(int page, String text) { return new Op(OpType.SET_TEXT, page, text, 0, 0); }
+        public static Op setFontSize(int page, int fontSize) { return new Op(OpType.SET_FONT_SIZE, page, "", fontSize, 0); }
+        public static Op setImageInfo(int page, String hash, int width, int height) {
+            return new Op(OpType.SET_IMAGE_INFO, page, hash, width, height);
+        }
+
+        void encode(FriendlyByteBuf buf) {
+            buf.writeEnum(type);
+            if (type == OpType.ADD_PAGE) return;
+            buf.writeVarInt(page);
+            switch (type) {
+                case SET_URL -> buf.writeUtf(value, ImageBookData.MAX_URL_LENGTH);
+                case SET_TEXT -> buf.writeUtf(value, ImageBookData.MAX_TEXT_LENGTH);
+                case SET_FONT_SIZE -> buf.writeVarInt(fontSize);
+                case SET_IMAGE_INFO -> {
+                    buf.writeUtf(value, IMAGE_HASH_LENGTH);
+                    buf.writeVarInt(fontSize);
+                    buf.writeVarInt(height);
+                }
+                default -> {}
+            }
+        }
+
+        static Op decode(FriendlyByteBuf buf) {
+            OpType type = buf.readEnum(OpType.class);
+            if (type == OpType.ADD_PAGE) return addPage();
+            int page = buf.readVarInt();
+            return switch (type) {
+                case SET_URL -> setUrl(page, buf.readUtf(ImageBookData.MAX_URL_LENGTH));
+                case SET_TEXT -> setText(page, buf.readUtf(ImageBookData.MAX_TEXT_LENGTH));
+                case SET_FONT_SIZE -> setFontSize(page, buf.readVarInt());
+                // Malformed values are dropped by Page.setImageInfo, leaving the page without a recorded image
+                case SET_IMAGE_INFO -> setImageInfo(page, buf.readUtf(IMAGE_HASH_LENGTH), buf.readVarInt(), buf.readVarInt());
+                default -> removePage(page);
+            };
+        }
+
+        void apply(ImageBookData data) {
+            switch (type) {
+                case ADD_PAGE -> data.addPage();
+                case REMOVE_PAGE -> data.removePage(page);
+                case SET_URL -> data.getPage(page).setImageUrl(value);
+                case SET_TEXT -> data.getPage(page).setText(value);
+                case SET_FONT_SIZE -> data.getPage(page).setFontSize(fontSize);
+                case SET_IMAGE_INFO -> data.getPage(page).setImageInfo(value, fontSize, height);
+            }
+        }
+    }
+
+    /**
+     * What the server last wrote for a player, so consecutive batches skip re-reading the book.
+     * Main thread only.
+     */
+    private static class Session {
+        private int lastSequence = -1;
+        private ImageBookData data;
+        private CompoundTag written;
+    }
+
+    private static final Map<ServerPlayer, Session> SESSIONS = new WeakHashMap<>();
+
+    private final int slot;
+    private final int sequence;
+    private final Action action;
+    private final boolean full;
+    private final int baseline;
+    private final List<Op> ops;
+
+    public BookEditPacket(int slot, int sequence, Action action, boolean full, int baseline, List<Op> ops) {
+        this.slot = slot;
+        this.sequence = sequence;
+        this.action = action;
+        this.full = full;
+        this.baseline = baseline;
+        this.ops = ops;
+    }
+
+    /**
+     * Checksum of the fields edits change: page count and each page's URL, text and font size.
+     * A batch's ops only apply to a book with the same baseline.
+     */
+    public static int baseline(ImageBookData data) {
+        int hash = data.getPageCount();
+        for (ImageBookData.Page page : data.getPages()) {
+            hash = 31 * hash + page.getImageUrl().hashCode();
+            hash = 31 * hash + page.getText().hashCode();
+            hash = 31 * hash + page.getFontSize();
+        }
+        return hash;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(slot);
+        buf.writeVarInt(sequence);
+        buf.writeEnum(action);
+        buf.writeBoolean(full);
+        buf.writeInt(baseline);
+        buf.writeVarInt(ops.size());
+        for (Op op : ops) {
+            op.encode(buf);
+        }
+    }
+
+    static BookEditPacket decode(FriendlyByteBuf buf) {
+        int slot = buf.readVarInt();
+        // The main inventory and the offhand; books are only ever edited from a hand
+        if ((slot < 0 || slot >= Inventory.INVENTORY_SIZE) && slot != Inventory.SLOT_OFFHAND) {
+            throw new IllegalArgumentException("Invalid book slot: " + slot);
+        }
+        int sequence = buf.readVarInt();
+        Action action = buf.readEnum(Action.class);
+        boolean full = buf.readBoolean();
+        int baseline = buf.readInt();
+        int count = buf.readVarInt();
+        if (count < 0 || count > MAX_OPS) {
+            throw new IllegalArgumentException("Too many book edits: " + count);
+        }
+        List<Op> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ops.add(Op.decode(buf));
+        }
+        return new BookEditPacket(slot, sequence, action, full, baseline, ops);
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        ServerPlayer sender = context.get().getSender();
+        if (sender != null) {
+            context.get().enqueueWork(() -> {
+                boolean accepted = apply(sender);
+                LotaNetwork.CHANNEL.send(PacketDistributor.PLAYER.with(() -> sender), new BookEditAckPacket(sequence, accepted));
+            });
+        }
+        context.get().setPacketHandled(true);
+    }
+
+    private boolean apply(ServerPlayer sender) {
+        Session session = SESSIONS.computeIfAbsent(sender, p -> new Session());
+        if (sequence <= session.lastSequence) return false;
+        session.lastSequence = sequence;
+
+        ItemStack stack = sender.getInventory().getItem(slot);
+        if (action == Action.UNSIGN) {
+            return unsign(sender, stack);
+        }
+        if (!stack.is(LotaGuide.IMAGE_BOOK.get())) return false;
+
+        ImageBookData data;
+        CompoundTag current = stack.hasTag() ? stack.getTag().getCompound(ImageBookData.TAG_BOOK_DATA) : null;
+        if (current != null && current == session.written) {
+            data = session.data;
+        } else {
+            data = ImageBookData.loadFromStack(stack);
+        }
+        if (baseline(data) != baseline) {
+            // Another book, or out of step with the client; it answers the rejection with a full batch
+            session.written = null;
+            return false;
+        }
+        if (full) {
+            data = new ImageBookData();
+        }
+        if (!isApplicable(data.getPageCount())) {
+            session.written = null;
+            return false;
+        }
+        for (Op op : ops) {
+            op.apply(data);
+        }
+
+        if (action == Action.SIGN) {
+            data.setAuthorUUID(sender.getUUID());
+            data.setAuthorName(sender.getName().getString());
+            ItemStack signed = new ItemStack(LotaGuide.SIGNED_IMAGE_BOOK.get());
+            data.saveToStack(signed);
+            sender.getInventory().setItem(slot, signed);
+            session.written = null;
+            return true;
+        }
+        data.saveToStack(stack);
+        session.data = data;
+        session.written = stack.getTag().getCompound(ImageBookData.TAG_BOOK_DATA);
+        return true;
+    }
+
+    /**
+     * Replays the ops against the page count only, so a bad batch is rejected before anything changes.
+     */
+    private boolean isApplicable(int pageCount) {
+        for (Op op : ops) {
+            switch (op.type) {
+                case ADD_PAGE -> {
+                    if (++pageCount > ImageBookData.MAX_PAGES) return false;
+                }
+                case REMOVE_PAGE -> {
+                    if (op.page < 0 || op.page >= pageCount || pageCount == 1) return false;
+                    pageCount--;
+                }
+                default -> {
+                    if (op.page < 0 || op.page >= pageCount) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean unsign(ServerPlayer sender, ItemStack stack) {
+        if (!stack.is(LotaGuide.SIGNED_IMAGE_BOOK.get())) return false;
+        ImageBookView view = ImageBookView.of(stack);
+        if (!sender.getUUID().equals(view.getAuthorUUID())) return false;
+
+        ImageBookData data;
+        String hash = view.getContentHash();
+        if (hash != null) {
+            CompoundTag content = BookContentStore.get(sender.getServer()).get(hash);
+            if (content == null) return false;
+            data = ImageBookData.fromNBT(stack.getTag().getCompound(ImageBookData.TAG_BOOK_DATA), content);
+        } else {
+            data = ImageBookData.loadFromStack(stack);
+        }
+        ItemStack editable = new ItemStack(LotaGuide.IMAGE_BOOK.get());
+        data.saveToStack(editable);
+        sender.getInventory().setItem(slot, editable);
+        return true;
+    }
+}
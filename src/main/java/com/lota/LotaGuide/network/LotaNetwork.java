@@ -0,0 +1,76 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.LotaGuide;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraftforge.network.NetworkDirection;
+import net.minecraftforge.network.NetworkRegistry;
+import net.minecraftforge.network.simple.SimpleChannel;
+
+/**
+ * The mod's network channel. Every packet class registers here with a fixed direction;
+ * bump {@link #PROTOCOL_VERSION} whenever a packet layout changes.
+ */
+public final class LotaNetwork {
+    private static final String PROTOCOL_VERSION = "4";
+
+    public static final SimpleChannel CHANNEL = NetworkRegistry.newSimpleChannel(
+        new ResourceLocation(LotaGuide.MODID, "main"),
+        () -> PROTOCOL_VERSION,
+        PROTOCOL_VERSION::equals,
+        PROTOCOL_VERSION::equals
+    );
+
+    private static int nextId = 0;
+
+    private LotaNetwork() {}
+
+    public static void register() {
+        CHANNEL.messageBuilder(RequestBookContentPacket.class, nextId++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(RequestBookContentPacket::encode)
+            .decoder(RequestBookContentPacket::decode)
+            .consumerMainThread(RequestBookContentPacket::handle)
+            .add();
+        CHANNEL.messageBuilder(BookContentPacket.class, nextId++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(BookContentPacket::encode)
+            .decoder(BookContentPacket::decode)
+            .consumerMainThread(BookContentPacket::handle)
+            .add();
+        // Decoded and size-checked on the network thread; the packet queues its own main-thread work
+        CHANNEL.messageBuilder(BookEditPacket.class, nextId++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(BookEditPacket::encode)
+            .decoder(BookEditPacket::decode)
+            .consumerNetworkThread(BookEditPacket::handle)
+            .add();
+        CHANNEL.messageBuilder(BookEditAckPacket.class, nextId++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(BookEditAckPacket::encode)
+            .decoder(BookEditAckPacket::decode)
+            .consumerMainThread(BookEditAckPacket::handle)
+            .add();
+        CHANNEL.messageBuilder(RelayInfoPacket.class, nextId++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(RelayInfoPacket::encode)
+            .decoder(RelayInfoPacket::decode)
+            .consumerMainThread(RelayInfoPacket::handle)
+            .add();
+        // Relay traffic never touches world state, so it stays off the main threads
+        CHANNEL.messageBuilder(RelayRequestPacket.class, nextId++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(RelayRequestPacket::encode)
+            .decoder(RelayRequestPacket::decode)
+            .consumerNetworkThread(RelayRequestPacket::handle)
+            .add();
+        CHANNEL.messageBuilder(RelayResponsePacket.class, nextId++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(RelayResponsePacket::encode)
+            .decoder(RelayResponsePacket::decode)
+            .consumerNetworkThread(RelayResponsePacket::handle)
+            .add();
+        CHANNEL.messageBuilder(RelayChunkPacket.class, nextId++, NetworkDirection.PLAY_TO_CLIENT)
+            .encoder(RelayChunkPacket::encode)
+            .decoder(RelayChunkPacket::decode)
+            .consumerNetworkThread(RelayChunkPacket::handle)
+            .add();
+        CHANNEL.messageBuilder(RelayAckPacket.class, nextId++, NetworkDirection.PLAY_TO_SERVER)
+            .encoder(RelayAckPacket::encode)
+            .decoder(RelayAckPacket::decode)
+            .consumerNetworkThread(RelayAckPacket::handle)
+            .add();
+    }
+}
@@ -0,0 +1,41 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.server.ImageRelay;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Client to server: the first {@code received} bytes of a relayed body arrived. A negative count
+ * cancels the transfer.
+ */
+public class RelayAckPacket {
+    public static final int CANCEL = -1;
+
+    private final int requestId;
+    private final int received;
+
+    public RelayAckPacket(int requestId, int received) {
+        this.requestId = requestId;
+        this.received = received;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(requestId);
+        buf.writeInt(received);
+    }
+
+    static RelayAckPacket decode(FriendlyByteBuf buf) {
+        return new RelayAckPacket(buf.readVarInt(), buf.readInt());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        ServerPlayer sender = context.get().getSender();
+        if (sender != null) {
+            ImageRelay.getInstance().acknowledge(sender, requestId, received);
+        }
+        context.get().setPacketHandled(true);
+    }
+}
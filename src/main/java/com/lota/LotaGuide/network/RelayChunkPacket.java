@@ -0,0 +1,41 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.client.RelayClient;
+import com.lota.LotaGuide.server.ImageRelay;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Server to client: {@code data} is the part of a relayed body starting at {@code offset}.
+ * Each chunk is answered with a {@link RelayAckPacket}, which lets the server send more.
+ */
+public class RelayChunkPacket {
+    private final int requestId;
+    private final int offset;
+    private final byte[] data;
+
+    public RelayChunkPacket(int requestId, int offset, byte[] data) {
+        this.requestId = requestId;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(requestId);
+        buf.writeVarInt(offset);
+        buf.writeByteArray(data);
+    }
+
+    static RelayChunkPacket decode(FriendlyByteBuf buf) {
+        return new RelayChunkPacket(buf.readVarInt(), buf.readVarInt(), buf.readByteArray(ImageRelay.CHUNK_SIZE));
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> RelayClient.onChunk(requestId, offset, data));
+        context.get().setPacketHandled(true);
+    }
+}
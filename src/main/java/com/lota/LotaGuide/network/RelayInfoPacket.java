@@ -0,0 +1,32 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.client.RelayClient;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Server to client, on login: whether the server relays images, so the client can fetch through it.
+ */
+public class RelayInfoPacket {
+    private final boolean enabled;
+
+    public RelayInfoPacket(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeBoolean(enabled);
+    }
+
+    static RelayInfoPacket decode(FriendlyByteBuf buf) {
+        return new RelayInfoPacket(buf.readBoolean());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> RelayClient.setAvailable(enabled));
+    }
+}
@@ -0,0 +1,50 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.data.ImageBookData;
+import com.lota.LotaGuide.server.ImageRelay;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+
+import javax.annotation.Nullable;
+import java.util.function.Supplier;
+
+/**
+ * Client to server: asks the {@link ImageRelay} for the image at a URL, naming the SHA-256 of the
+ * body the client already has so the relay can answer {@link RelayResponsePacket#NOT_MODIFIED}.
+ * Always answered with a {@link RelayResponsePacket} carrying the same id.
+ */
+public class RelayRequestPacket {
+    private static final int HASH_LENGTH = 64;
+
+    private final int requestId;
+    private final String url;
+    @Nullable private final String cachedHash;
+
+    public RelayRequestPacket(int requestId, String url, @Nullable String cachedHash) {
+        this.requestId = requestId;
+        this.url = url;
+        this.cachedHash = cachedHash;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(requestId);
+        buf.writeUtf(url, ImageBookData.MAX_URL_LENGTH);
+        buf.writeUtf(cachedHash != null ? cachedHash : "", HASH_LENGTH);
+    }
+
+    static RelayRequestPacket decode(FriendlyByteBuf buf) {
+        int requestId = buf.readVarInt();
+        String url = buf.readUtf(ImageBookData.MAX_URL_LENGTH);
+        String cachedHash = buf.readUtf(HASH_LENGTH);
+        return new RelayRequestPacket(requestId, url, cachedHash.isEmpty() ? null : cachedHash);
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        ServerPlayer sender = context.get().getSender();
+        if (sender != null) {
+            ImageRelay.getInstance().request(sender, requestId, url, cachedHash);
+        }
+        context.get().setPacketHandled(true);
+    }
+}
@@ -0,0 +1,53 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.client.RelayClient;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Server to client: the outcome of a {@link RelayRequestPacket}. On {@link #OK} the body follows
+ * as {@link RelayChunkPacket}s totalling {@code length} bytes; any other status ends the request.
+ */
+public class RelayResponsePacket {
+    public static final int OK = 200;
+    /** The body's SHA-256 matches the one the client sent; its copy is current. */
+    public static final int NOT_MODIFIED = 304;
+    public static final int TOO_LARGE = -1;
+    /** Not an http(s) URL, a host the relay may not contact, or the body is not an image. */
+    public static final int UNSUPPORTED = -2;
+    /** The origin could not be reached; the client may try it directly. */
+    public static final int UNREACHABLE = -3;
+    /** The relay is off or the player has too many transfers; the client may try directly. */
+    public static final int BUSY = -4;
+    /** The origin answered, but not with a body; its status is not passed on. */
+    public static final int FAILED = -5;
+
+    private final int requestId;
+    private final int status;
+    private final int length;
+
+    public RelayResponsePacket(int requestId, int status, int length) {
+        this.requestId = requestId;
+        this.status = status;
+        this.length = length;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(requestId);
+        buf.writeInt(status);
+        buf.writeVarInt(length);
+    }
+
+    static RelayResponsePacket decode(FriendlyByteBuf buf) {
+        return new RelayResponsePacket(buf.readVarInt(), buf.readInt(), buf.readVarInt());
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> RelayClient.onResponse(requestId, status, length));
+        context.get().setPacketHandled(true);
+    }
+}
@@ -0,0 +1,39 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.data.BookContentStore;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+import net.minecraftforge.network.PacketDistributor;
+
+import java.util.function.Supplier;
+
+/**
+ * Client to server: asks for the pages of a book kept in the {@link BookContentStore}.
+ * Always answered with a {@link BookContentPacket}, empty if the hash is unknown.
+ */
+public class RequestBookContentPacket {
+    private static final int MAX_HASH_LENGTH = 64;
+
+    private final String hash;
+
+    public RequestBookContentPacket(String hash) {
+        this.hash = hash;
+    }
+
+    void encode(FriendlyByteBuf buf) {
+        buf.writeUtf(hash, MAX_HASH_LENGTH);
+    }
+
+    static RequestBookContentPacket decode(FriendlyByteBuf buf) {
+        return new RequestBookContentPacket(buf.readUtf(MAX_HASH_LENGTH));
+    }
+
+    void handle(Supplier<NetworkEvent.Context> context) {
+        ServerPlayer sender = context.get().getSender();
+        if (sender == null || !BookContentStore.isValidHash(hash)) return;
+
+        BookContentPacket reply = new BookContentPacket(hash, BookContentStore.get(sender.getServer()).get(hash));
+        LotaNetwork.CHANNEL.send(PacketDistributor.PLAYER.with(() -> sender), reply);
+    }
+}
@@ -1,17 +1,17 @@
 package com.lota.LotaGuide.screen;
 
 import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.client.BookEditSync;
 import com.lota.LotaGuide.client.ImageCache;
+import com.lota.LotaGuide.client.PagePrefetcher;
 import com.lota.LotaGuide.data.ImageBookData;
-import com.mojang.blaze3d.systems.RenderSystem;
+import com.lota.LotaGuide.network.BookEditPacket;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.components.MultiLineEditBox;
 import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.network.chat.Component;
-import net.minecraft.resources.ResourceLocation;
-import net.minecraft.world.InteractionHand;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.ItemStack;
 import net.minecraftforge.api.distmarker.Dist;
@@ -28,15 +28,33 @@ public class ImageBookEditScreen extends Screen {
     private static final int IMAGE_AREA_WIDTH = 280;
     private static final int PADDING = 10;
     private static final int TEXT_FIELD_HEIGHT = 40;
+    // The typed URL must stay unchanged this long before it is fetched
+    private static final long URL_DEBOUNCE_MILLIS = 500;
     
     private final Player player;
     private final ItemStack bookStack;
-    private final InteractionHand hand;
+    // Inventory slot of the book, as edit batches address it
+    private final int slot;
     private final ImageBookData bookData;
+    // Sends edits to the server as they are made; the local stack is only a prediction
+    private final BookEditSync sync;
+    // Set once the book has been signed; the writable stack is gone from then on
+    private boolean signed;
     
     private int currentPage = 0;
     private int leftPos;
     private int topPos;
+    private final PagePrefetcher prefetcher = new PagePrefetcher();
+    private final PageImageView imageView = new PageImageView();
+    
+    // Recomputed in init() and on page changes instead of every frame
+    private int pageCounterY;
+    private String pageIndicator = "";
+    
+    // URL currently shown in the image area, and a typed one waiting for the debounce to expire
+    private String shownUrl = "";
+    private String typedUrl;
+    private long typedAt;
     
     private EditBox urlField;
     private MultiLineEditBox textField;
@@ -47,12 +65,13 @@ public class ImageBookEditScreen extends Screen {
     private Button signButton;
     private Button cancelButton;
     
-    public ImageBookEditScreen(Player player, ItemStack bookStack, InteractionHand hand, ImageBookData bookData) {
+    public ImageBookEditScreen(Player player, ItemStack bookStack, int slot, ImageBookData bookData) {
         super(Component.empty());
         this.player = player;
         this.bookStack = bookStack;
-        this.hand = hand;
+        this.slot = slot;
         this.bookData = bookData;
+        this.sync = new BookEditSync(slot, bookData);
     }
     
     @Override
@@ -68,23 +87,25 @@ public class ImageBookEditScreen extends Screen {
         
         this.urlField = new EditBox(this.font, fieldX, currentY, fieldWidth, 20, 
             Component.empty());
-        this.urlField.setMaxLength(500);
+        this.urlField.setMaxLength(ImageBookData.MAX_URL_LENGTH);
         this.urlField.setHint(Component.literal("https://example.com/image.png"));
         this.urlField.setResponder(this::onUrlChanged);
         this.addRenderableWidget(this.urlField);
         
         currentY += 25;
+        this.imageView.setBounds(fieldX, currentY, IMAGE_AREA_WIDTH, IMAGE_AREA_HEIGHT);
+        this.imageView.setEmptyText(Component.translatable("screen.lotaguide.image_book.no_image").getString());
         currentY += IMAGE_AREA_HEIGHT + PADDING;
         
         this.textField = new MultiLineEditBox(this.font, fieldX, currentY, fieldWidth, TEXT_FIELD_HEIGHT,
             Component.empty(), Component.empty());
-        this.textField.setCharacterLimit(1000);
+        this.textField.setCharacterLimit(ImageBookData.MAX_TEXT_LENGTH);
         this.textField.setValueListener(this::onTextChanged);
         this.addRenderableWidget(this.textField);
         
         currentY += TEXT_FIELD_HEIGHT + PADDING;
         
-        int pageCounterY = currentY;
+        this.pageCounterY = currentY;
         int pageCounterWidth = 50;
         int centerX = leftPos + PANEL_WIDTH / 2;
         
@@ -125,6 +146,15 @@ public class ImageBookEditScreen extends Screen {
         
         loadPageData();
         updateNavigationButtons();
+        onPageChanged();
+    }
+    
+    /**
+     * Resolves what render() needs for the current page; the image itself follows the URL field.
+     */
+    private void onPageChanged() {
+        prefetcher.update(bookData, currentPage);
+        pageIndicator = (currentPage + 1) + " / " + bookData.getPageCount();
     }
     
     private void loadPageData() {
@@ -132,6 +162,8 @@ public class ImageBookEditScreen extends Screen {
         if (page != null) {
             this.urlField.setValue(page.getImageUrl());
             this.textField.setValue(page.getText());
+            // A stored URL is not being typed: show it straight away
+            showUrl(page.getImageUrl());
         }
     }
     
@@ -147,15 +179,41 @@ public class ImageBookEditScreen extends Screen {
         this.prevPageButton.active = currentPage > 0;
         this.nextPageButton.active = currentPage < bookData.getPageCount() - 1;
         this.removePageButton.active = bookData.getPageCount() > 1;
+        this.addPageButton.active = bookData.getPageCount() < ImageBookData.MAX_PAGES;
     }
     
     private void onUrlChanged(String url) {
+        typedUrl = url;
+        typedAt = System.currentTimeMillis();
         ImageBookData.Page page = bookData.getPage(currentPage);
         if (page != null) {
             page.setImageUrl(url);
         }
     }
     
+    @Override
+    public void tick() {
+        super.tick();
+        long now = System.currentTimeMillis();
+        if (typedUrl != null && now - typedAt >= URL_DEBOUNCE_MILLIS) {
+            showUrl(typedUrl);
+        }
+        sync.tick(bookData, now);
+    }
+    
+    /**
+     * Points the image area at {@code url}. The view releases the URL it replaces, which cancels
+     * that load if nothing else waits on it. Malformed URLs are not fetched at all.
+     */
+    private void showUrl(String url) {
+        typedUrl = null;
+        String resolved = url.isEmpty() || ImageCache.isFetchableUrl(url) ? url : "";
+        if (resolved.equals(shownUrl)) return;
+        
+        shownUrl = resolved;
+        imageView.setUrl(resolved);
+    }
+    
     private void onTextChanged(String text) {
         ImageBookData.Page page = bookData.getPage(currentPage);
         if (page != null) {
@@ -169,6 +227,7 @@ public class ImageBookEditScreen extends Screen {
             currentPage--;
             loadPageData();
             updateNavigationButtons();
+            onPageChanged();
         }
     }
     
@@ -178,25 +237,31 @@ public class ImageBookEditScreen extends Screen {
             currentPage++;
             loadPageData();
             updateNavigationButtons();
+            onPageChanged();
         }
     }
     
     private void addPage() {
         saveCurrentPage();
+        if (bookData.getPageCount() >= ImageBookData.MAX_PAGES) return;
         bookData.addPage();
+        sync.pageAdded();
         currentPage = bookData.getPageCount() - 1;
         loadPageData();
         updateNavigationButtons();
+        onPageChanged();
     }
     
     private void removePage() {
         if (bookData.getPageCount() > 1) {
             bookData.removePage(currentPage);
+            sync.pageRemoved(currentPage);
             if (currentPage >= bookData.getPageCount()) {
                 currentPage = bookData.getPageCount() - 1;
             }
             loadPageData();
             updateNavigationButtons();
+            onPageChanged();
         }
     }
     
@@ -205,89 +270,41 @@ public class ImageBookEditScreen extends Screen {
         
         bookData.setAuthorUUID(player.getUUID());
         bookData.setAuthorName(player.getName().getString());
+        // Also records the page images, so the stack below matches what the server signs
+        sync.flush(bookData, BookEditPacket.Action.SIGN);
+        signed = true;
         
+        // The server signs its own copy; this only saves waiting for the inventory update
         ItemStack signedBook = new ItemStack(LotaGuide.SIGNED_IMAGE_BOOK.get());
         bookData.saveToStack(signedBook);
-        
-        player.setItemInHand(hand, signedBook);
+        player.getInventory().setItem(slot, signedBook);
         
         this.onClose();
     }
     
     @Override
     public void onClose() {
-        saveCurrentPage();
-        bookData.saveToStack(bookStack);
+        if (!signed) {
+            saveCurrentPage();
+            bookData.saveToStack(bookStack);
+            sync.flush(bookData, BookEditPacket.Action.EDIT);
+        }
         super.onClose();
     }
     
+    @Override
+    public void removed() {
+        prefetcher.cancel();
+        imageView.release();
+        super.removed();
+    }
+    
     @Override
     public void render(GuiGraphics graphics, int mouseX, int mouseY, float partialTick) {
         this.renderBackground(graphics);
         
-        int imageAreaX = leftPos + (PANEL_WIDTH - IMAGE_AREA_WIDTH) / 2;
-        int imageAreaY = topPos + 25;
-        
-        String imageUrl = this.urlField.getValue();
-        boolean hasImage = false;
-        
-        if (!imageUrl.isEmpty()) {
-            ImageCache.CachedImage cachedImage = ImageCache.getInstance().getImage(imageUrl);
-            
-            if (cachedImage != null && !cachedImage.isError()) {
-                ResourceLocation texture = cachedImage.getTexture(System.currentTimeMillis());
-                if (texture != null) {
-                    hasImage = true;
-                    RenderSystem.setShaderTexture(0, texture);
-                    
-                    int imgWidth = cachedImage.getWidth();
-                    int imgHeight = cachedImage.getHeight();
-                    
-                    // If image is larger than area, scale down to fit
-                    if (imgWidth > IMAGE_AREA_WIDTH || imgHeight > IMAGE_AREA_HEIGHT) {
-                        float scale = Math.min(
-                            (float) IMAGE_AREA_WIDTH / imgWidth,
-                            (float) IMAGE_AREA_HEIGHT / imgHeight
-                        );
-                        imgWidth = (int) (imgWidth * scale);
-                        imgHeight = (int) (imgHeight * scale);
-                    }
-                    
-                    // Center the image in the area
-                    int renderX = imageAreaX + (IMAGE_AREA_WIDTH - imgWidth) / 2;
-                    int renderY = imageAreaY + (IMAGE_AREA_HEIGHT - imgHeight) / 2;
-                    
-                    graphics.blit(texture, renderX, renderY, 0, 0, imgWidth, imgHeight, 
-                        imgWidth, imgHeight);
-                }
-            }
-        }
-        
-        if (!hasImage) {
-            graphics.fill(imageAreaX, imageAreaY, 
-                imageAreaX + IMAGE_AREA_WIDTH, imageAreaY + IMAGE_AREA_HEIGHT, 
-                0xFF333333);
-            
-            if (!imageUrl.isEmpty()) {
-                ImageCache.CachedImage cachedImage = ImageCache.getInstance().getImage(imageUrl);
-                if (cachedImage != null && cachedImage.isError()) {
-                    graphics.drawCenteredString(this.font, cachedImage.getErrorMessage(), 
-                        leftPos + PANEL_WIDTH / 2, imageAreaY + IMAGE_AREA_HEIGHT / 2, 0xFF5555);
-                } else if (ImageCache.getInstance().isLoading(imageUrl)) {
-                    long dots = (System.currentTimeMillis() / 500) % 4;
-                    String loading = "Loading" + ".".repeat((int) dots);
-                    graphics.drawCenteredString(this.font, loading, 
-                        leftPos + PANEL_WIDTH / 2, imageAreaY + IMAGE_AREA_HEIGHT / 2, 0xAAAAAA);
-                }
-            } else {
-                graphics.drawCenteredString(this.font, 
-                    Component.translatable("screen.lotaguide.image_book.no_image").getString(), 
-                    leftPos + PANEL_WIDTH / 2, imageAreaY + IMAGE_AREA_HEIGHT / 2, 0x888888);
-            }
-        }
+        imageView.render(graphics, this.font, System.currentTimeMillis());
         
-        int pageCounterY = topPos + 25 + IMAGE_AREA_HEIGHT + PADDING + TEXT_FIELD_HEIGHT + PADDING;
-        String pageIndicator = (currentPage + 1) + " / " + bookData.getPageCount();
         graphics.drawCenteredString(this.font, pageIndicator, 
             leftPos + PANEL_WIDTH / 2, pageCounterY + 5, 0xFFFFFF);
         
@@ -1,21 +1,21 @@
 package com.lota.LotaGuide.screen;
 
 import com.lota.LotaGuide.LotaGuide;
-import com.lota.LotaGuide.client.ImageCache;
+import com.lota.LotaGuide.client.BookEditSync;
+import com.lota.LotaGuide.client.PagePrefetcher;
 import com.lota.LotaGuide.data.ImageBookData;
-import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.PoseStack;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.network.chat.Component;
-import net.minecraft.resources.ResourceLocation;
-import net.minecraft.world.InteractionHand;
+import net.minecraft.network.chat.FormattedText;
+import net.minecraft.util.FormattedCharSequence;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.ItemStack;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -30,27 +30,49 @@ public class ImageBookViewScreen extends Screen {
     private static final int PADDING = 10;
     private static final int TEXT_AREA_HEIGHT = 40;
     private static final int URL_FIELD_SPACE = 25;
+    // Line spacing at the default font size; other sizes scale it along with the glyphs
+    private static final int LINE_SPACING = 12;
     
     private final Player player;
     private final ItemStack bookStack;
-    private final InteractionHand hand;
+    // Inventory slot of the book, as edit batches address it
+    private final int slot;
     private final ImageBookData bookData;
     private final boolean isAuthor;
     
     private int currentPage = 0;
+    // Edit was pressed and the server has not answered the unsign yet
+    private boolean unsigning;
     private int leftPos;
     private int topPos;
+    private final PagePrefetcher prefetcher = new PagePrefetcher();
+    private final PageImageView imageView = new PageImageView();
+    
+    // Layout and per-page state, recomputed in init() and on page changes instead of every frame
+    private int imageAreaX;
+    private int textAreaY;
+    private int pageCounterY;
+    private String pageIndicator = "";
+    
+    // Wrapped page text, rebuilt only when the page, its text or the font size (and so the wrap width) changes
+    private ImageBookData.Page layoutPage;
+    private String layoutText;
+    private int layoutFontSize;
+    private List<FormattedCharSequence> textLines = List.of();
+    private float textScale = 1;
+    private int visibleLines;
+    private int scrollLine;
     
     private Button prevPageButton;
     private Button nextPageButton;
     private Button editButton;
     private Button doneButton;
     
-    public ImageBookViewScreen(Player player, ItemStack bookStack, InteractionHand hand, ImageBookData bookData) {
+    public ImageBookViewScreen(Player player, ItemStack bookStack, int slot, ImageBookData bookData) {
         super(Component.empty());
         this.player = player;
         this.bookStack = bookStack;
-        this.hand = hand;
+        this.slot = slot;
         this.bookData = bookData;
         this.isAuthor = bookData.isAuthor(player.getUUID());
     }
@@ -62,10 +84,15 @@ public class ImageBookViewScreen extends Screen {
         this.leftPos = (this.width - PANEL_WIDTH) / 2;
         this.topPos = 10;
         
+        this.imageAreaX = leftPos + (PANEL_WIDTH - IMAGE_AREA_WIDTH) / 2;
+        int imageAreaY = topPos + URL_FIELD_SPACE;
+        this.imageView.setBounds(imageAreaX, imageAreaY, IMAGE_AREA_WIDTH, IMAGE_AREA_HEIGHT);
+        this.textAreaY = imageAreaY + IMAGE_AREA_HEIGHT + PADDING;
+        
         // Calculate Y position for controls - same as edit mode
         int currentY = topPos + URL_FIELD_SPACE + IMAGE_AREA_HEIGHT + PADDING + TEXT_AREA_HEIGHT + PADDING;
         
-        int pageCounterY = currentY;
+        this.pageCounterY = currentY;
         int pageCounterWidth = 50;
         int centerX = leftPos + PANEL_WIDTH / 2;
         
@@ -87,6 +114,7 @@ public class ImageBookViewScreen extends Screen {
                 button -> openEditMode())
                 .bounds(leftPos + PADDING, currentY, 60, 20)
                 .build();
+            this.editButton.active = !unsigning;
             this.addRenderableWidget(this.editButton);
         }
         
@@ -97,6 +125,45 @@ public class ImageBookViewScreen extends Screen {
         this.addRenderableWidget(this.doneButton);
         
         updateNavigationButtons();
+        // init() also runs on window resize, which may change the font; rebuild the text layout
+        layoutPage = null;
+        onPageChanged();
+    }
+    
+    /**
+     * Resolves everything render() needs for the current page.
+     */
+    private void onPageChanged() {
+        prefetcher.update(bookData, currentPage);
+        
+        ImageBookData.Page page = bookData.getPage(currentPage);
+        if (page != null) {
+            imageView.setImage(page.getImageUrl(), page.getImageHash(), page.getImageWidth(), page.getImageHeight());
+        } else {
+            imageView.setUrl("");
+        }
+        updateTextLayout(page);
+        pageIndicator = (currentPage + 1) + " / " + bookData.getPageCount();
+    }
+    
+    /**
+     * Wraps the page text at its font size, reusing the previous layout when nothing it depends on changed.
+     */
+    private void updateTextLayout(ImageBookData.Page page) {
+        String text = page != null ? page.getText() : "";
+        int fontSize = page != null ? page.getFontSize() : ImageBookData.DEFAULT_FONT_SIZE;
+        if (page == layoutPage && text.equals(layoutText) && fontSize == layoutFontSize) {
+            return;
+        }
+        layoutPage = page;
+        layoutText = text;
+        layoutFontSize = fontSize;
+        
+        textScale = (float) fontSize / ImageBookData.DEFAULT_FONT_SIZE;
+        int wrapWidth = (int) (IMAGE_AREA_WIDTH / textScale);
+        textLines = text.isEmpty() ? List.of() : this.font.split(FormattedText.of(text), wrapWidth);
+        visibleLines = Math.max(1, (int) (TEXT_AREA_HEIGHT / (LINE_SPACING * textScale)));
+        scrollLine = 0;
     }
     
     private void updateNavigationButtons() {
@@ -108,6 +175,7 @@ public class ImageBookViewScreen extends Screen {
         if (currentPage > 0) {
             currentPage--;
             updateNavigationButtons();
+            onPageChanged();
         }
     }
     
@@ -115,15 +183,28 @@ public class ImageBookViewScreen extends Screen {
         if (currentPage < bookData.getPageCount() - 1) {
             currentPage++;
             updateNavigationButtons();
+            onPageChanged();
         }
     }
     
     private void openEditMode() {
-        ItemStack editableBook = new ItemStack(LotaGuide.IMAGE_BOOK.get());
-        bookData.saveToStack(editableBook);
-        player.setItemInHand(hand, editableBook);
-        
-        this.minecraft.setScreen(new ImageBookEditScreen(player, editableBook, hand, bookData));
+        // Edits only apply to a writable book, so the editor waits until the server has unsigned this one
+        unsigning = true;
+        editButton.active = false;
+        BookEditSync.unsign(slot, accepted -> {
+            unsigning = false;
+            if (this.minecraft.screen != this) return;
+            if (!accepted) {
+                editButton.active = true;
+                player.displayClientMessage(Component.translatable("screen.lotaguide.image_book.unsign_failed"), true);
+                return;
+            }
+            // The server made the same book; this only saves waiting for the inventory update
+            ItemStack editableBook = new ItemStack(LotaGuide.IMAGE_BOOK.get());
+            bookData.saveToStack(editableBook);
+            player.getInventory().setItem(slot, editableBook);
+            this.minecraft.setScreen(new ImageBookEditScreen(player, editableBook, slot, bookData));
+        });
     }
     
     @Override
@@ -136,111 +217,59 @@ public class ImageBookViewScreen extends Screen {
             return;
         }
         
-        int imageAreaX = leftPos + (PANEL_WIDTH - IMAGE_AREA_WIDTH) / 2;
-        int imageAreaY = topPos + URL_FIELD_SPACE;
+        imageView.render(graphics, this.font, System.currentTimeMillis());
         
-        String imageUrl = page.getImageUrl();
-        boolean hasImage = false;
-        
-        if (!imageUrl.isEmpty()) {
-            ImageCache.CachedImage cachedImage = ImageCache.getInstance().getImage(imageUrl);
-            
-            if (cachedImage != null && !cachedImage.isError()) {
-                ResourceLocation texture = cachedImage.getTexture(System.currentTimeMillis());
-                if (texture != null) {
-                    hasImage = true;
-                    RenderSystem.setShaderTexture(0, texture);
-                    
-                    int imgWidth = cachedImage.getWidth();
-                    int imgHeight = cachedImage.getHeight();
-                    
-                    // If image is larger than area, scale down to fit
-                    if (imgWidth > IMAGE_AREA_WIDTH || imgHeight > IMAGE_AREA_HEIGHT) {
-                        float scale = Math.min(
-                            (float) IMAGE_AREA_WIDTH / imgWidth,
-                            (float) IMAGE_AREA_HEIGHT / imgHeight
-                        );
-                        imgWidth = (int) (imgWidth * scale);
-                        imgHeight = (int) (imgHeight * scale);
-                    }
-                    
-                    // Center the image
-                    int renderX = imageAreaX + (IMAGE_AREA_WIDTH - imgWidth) / 2;
-                    int renderY = imageAreaY + (IMAGE_AREA_HEIGHT - imgHeight) / 2;
-                    
-                    graphics.blit(texture, renderX, renderY, 0, 0, imgWidth, imgHeight, 
-                        imgWidth, imgHeight);
-                }
-            }
+        if (!textLines.isEmpty()) {
+            renderText(graphics);
         }
         
-        if (!hasImage) {
-            graphics.fill(imageAreaX, imageAreaY, 
-                imageAreaX + IMAGE_AREA_WIDTH, imageAreaY + IMAGE_AREA_HEIGHT, 
-                0xFF333333);
-                
-            if (!imageUrl.isEmpty()) {
-                ImageCache.CachedImage cachedImage = ImageCache.getInstance().getImage(imageUrl);
-                if (cachedImage != null && cachedImage.isError()) {
-                    graphics.drawCenteredString(this.font, cachedImage.getErrorMessage(), 
-                        leftPos + PANEL_WIDTH / 2, imageAreaY + IMAGE_AREA_HEIGHT / 2, 0xFF5555);
-                } else if (ImageCache.getInstance().isLoading(imageUrl)) {
-                    long dots = (System.currentTimeMillis() / 500) % 4;
-                    String loading = "Loading" + ".".repeat((int) dots);
-                    graphics.drawCenteredString(this.font, loading, 
-                        leftPos + PANEL_WIDTH / 2, imageAreaY + IMAGE_AREA_HEIGHT / 2, 0xAAAAAA);
-                }
-            }
-        }
-        
-        int textAreaY = imageAreaY + IMAGE_AREA_HEIGHT + PADDING;
-        String text = page.getText();
-        if (!text.isEmpty()) {
-            List<String> lines = wrapText(text, IMAGE_AREA_WIDTH);
-            int yOffset = 0;
-            int maxLines = TEXT_AREA_HEIGHT / 12;
-            for (int i = 0; i < Math.min(lines.size(), maxLines); i++) {
-                graphics.drawString(this.font, lines.get(i), imageAreaX, textAreaY + yOffset, 0xFFFFFF);
-                yOffset += 12;
-            }
-        }
-        
-        int pageCounterY = topPos + URL_FIELD_SPACE + IMAGE_AREA_HEIGHT + PADDING + TEXT_AREA_HEIGHT + PADDING;
-        String pageIndicator = (currentPage + 1) + " / " + bookData.getPageCount();
         graphics.drawCenteredString(this.font, pageIndicator, 
             leftPos + PANEL_WIDTH / 2, pageCounterY + 5, 0xFFFFFF);
         
         super.render(graphics, mouseX, mouseY, partialTick);
     }
     
-    private List<String> wrapText(String text, int maxWidth) {
-        List<String> lines = new ArrayList<>();
+    private void renderText(GuiGraphics graphics) {
+        int end = Math.min(textLines.size(), scrollLine + visibleLines);
         
-        for (String paragraph : text.split("\n")) {
-            if (paragraph.isEmpty()) {
-                lines.add("");
-                continue;
-            }
-            
-            StringBuilder currentLine = new StringBuilder();
-            int currentWidth = 0;
-            
-            for (String word : paragraph.split(" ")) {
-                int wordWidth = this.font.width(word + " ");
-                if (currentWidth + wordWidth > maxWidth && currentLine.length() > 0) {
-                    lines.add(currentLine.toString().trim());
-                    currentLine = new StringBuilder();
-                    currentWidth = 0;
-                }
-                currentLine.append(word).append(" ");
-                currentWidth += wordWidth;
-            }
-            if (currentLine.length() > 0) {
-                lines.add(currentLine.toString().trim());
-            }
+        graphics.enableScissor(imageAreaX, textAreaY, imageAreaX + IMAGE_AREA_WIDTH, textAreaY + TEXT_AREA_HEIGHT);
+        PoseStack pose = graphics.pose();
+        pose.pushPose();
+        pose.translate(imageAreaX, textAreaY, 0);
+        pose.scale(textScale, textScale, 1);
+        for (int i = scrollLine; i < end; i++) {
+            graphics.drawString(this.font, textLines.get(i), 0, (i - scrollLine) * LINE_SPACING, 0xFFFFFF);
         }
+        pose.popPose();
+        graphics.disableScissor();
         
-        return lines;
+        // Thin scrollbar when the text overflows
+        int maxScroll = textLines.size() - visibleLines;
+        if (maxScroll > 0) {
+            int barHeight = Math.max(4, TEXT_AREA_HEIGHT * visibleLines / textLines.size());
+            int barY = textAreaY + (TEXT_AREA_HEIGHT - barHeight) * scrollLine / maxScroll;
+            int barX = imageAreaX + IMAGE_AREA_WIDTH + 2;
+            graphics.fill(barX, barY, barX + 2, barY + barHeight, 0xFFAAAAAA);
+        }
+    }
+    
+    @Override
+    public boolean mouseScrolled(double mouseX, double mouseY, double delta) {
+        boolean overText = mouseX >= imageAreaX && mouseX < imageAreaX + IMAGE_AREA_WIDTH
+            && mouseY >= textAreaY && mouseY < textAreaY + TEXT_AREA_HEIGHT;
+        int maxScroll = textLines.size() - visibleLines;
+        if (overText && maxScroll > 0) {
+            scrollLine = Math.max(0, Math.min(maxScroll, scrollLine - (int) Math.signum(delta)));
+            return true;
+        }
+        return super.mouseScrolled(mouseX, mouseY, delta);
+    }
+    
+    @Override
+    public void removed() {
+        prefetcher.cancel();
+        imageView.release();
+        super.removed();
     }
     
     @Override
@@ -0,0 +1,174 @@
+package com.lota.LotaGuide.screen;
+
+import com.lota.LotaGuide.client.FailureCache;
+import com.lota.LotaGuide.client.ImageCache;
+import com.lota.LotaGuide.client.ImageHandle;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import javax.annotation.Nullable;
+
+/**
+ * The image area of a book page, shared by the view and edit screens.
+ * Everything that does not change between frames (the image handle, the scaled draw
+ * rectangle, status strings) is resolved when the page, URL or layout changes,
+ * so drawing a static page allocates nothing.
+ * <p>
+ * When the book recorded the image's size, the background is drawn at the image's final
+ * rectangle while it loads, so the page does not jump when the pixels arrive.
+ */
+@OnlyIn(Dist.CLIENT)
+class PageImageView {
+    private static final String[] LOADING_TEXT = { "Loading", "Loading.", "Loading..", "Loading..." };
+    private static final int BACKGROUND_COLOR = 0xFF333333;
+
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private int centerX;
+    private int centerY;
+    @Nullable private String emptyText;
+
+    @Nullable private ImageHandle handle;
+    private int hintWidth;
+    private int hintHeight;
+    // Where the background goes while there is no frame: the hinted rectangle, or the whole area
+    private Rect placeholder = new Rect(0, 0, 0, 0);
+
+    // Draw rectangle of the image it was computed for
+    @Nullable private ImageCache.CachedImage laidOut;
+    private int drawX;
+    private int drawY;
+    private int drawWidth;
+    private int drawHeight;
+
+    private long retrySeconds = -1;
+    private String retryText = "";
+
+    void setBounds(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.centerX = x + width / 2;
+        this.centerY = y + height / 2;
+        this.laidOut = null;
+        layoutPlaceholder();
+    }
+
+    /**
+     * Text shown when the page has no image URL at all, or null to leave the area blank.
+     */
+    void setEmptyText(@Nullable String emptyText) {
+        this.emptyText = emptyText;
+    }
+
+    /**
+     * Shows {@code url}, releasing the handle of the URL shown before.
+     */
+    void setUrl(String url) {
+        setImage(url, "", 0, 0);
+    }
+
+    /**
+     * Shows {@code url} using what the book recorded at signing: the image's SHA-256, letting the cache
+     * use stored bytes without a request, and its size (0 if unknown) for the placeholder.
+     */
+    void setImage(String url, String contentHash, int width, int height) {
+        if (width != hintWidth || height != hintHeight) {
+            hintWidth = width;
+            hintHeight = height;
+            layoutPlaceholder();
+        }
+        if (handle != null && handle.getUrl().equals(url)) return;
+        release();
+        if (!url.isEmpty()) {
+            handle = ImageCache.getInstance().acquire(url, contentHash);
+        }
+    }
+
+    /**
+     * Releases the current image. Must be called when the screen closes, or the image stays pinned.
+     */
+    void release() {
+        if (handle != null) {
+            handle.release();
+            handle = null;
+        }
+        laidOut = null;
+    }
+
+    void render(GuiGraphics graphics, Font font, long now) {
+        ImageCache.CachedImage image = handle != null ? handle.getImage(now) : null;
+        ImageCache.Frame frame = image != null ? image.getFrame(now) : null;
+
+        if (frame != null) {
+            if (image != laidOut) {
+                layout(image);
+            }
+            // Frames may be a sub-region of an atlas texture
+            graphics.blit(frame.getTexture(), drawX, drawY, drawWidth, drawHeight,
+                frame.getU(), frame.getV(), frame.getWidth(), frame.getHeight(),
+                frame.getTextureWidth(), frame.getTextureHeight());
+            return;
+        }
+
+        graphics.fill(placeholder.x(), placeholder.y(), placeholder.x() + placeholder.width(), placeholder.y() + placeholder.height(), BACKGROUND_COLOR);
+
+        if (handle == null) {
+            if (emptyText != null) {
+                graphics.drawCenteredString(font, emptyText, centerX, centerY, 0x888888);
+            }
+            return;
+        }
+
+        FailureCache.Failure failure = handle.getFailure(now);
+        boolean loading = handle.isLoading(now);
+        if (failure != null && !loading) {
+            graphics.drawCenteredString(font, failure.getMessage(), centerX, centerY, 0xFF5555);
+            if (failure.isRetryable()) {
+                long seconds = (failure.millisUntilRetry(now) + 999) / 1000;
+                if (seconds != retrySeconds) {
+                    retrySeconds = seconds;
+                    retryText = "Retrying in " + seconds + "s";
+                }
+                graphics.drawCenteredString(font, retryText, centerX, centerY + 12, 0xAAAAAA);
+            }
+        } else if (loading) {
+            graphics.drawCenteredString(font, LOADING_TEXT[(int) ((now / 500) % 4)], centerX, centerY, 0xAAAAAA);
+        }
+    }
+
+    private void layout(ImageCache.CachedImage image) {
+        Rect rect = fit(image.getWidth(), image.getHeight());
+        drawX = rect.x();
+        drawY = rect.y();
+        drawWidth = rect.width();
+        drawHeight = rect.height();
+        laidOut = image;
+    }
+
+    private void layoutPlaceholder() {
+        placeholder = hintWidth > 0 && hintHeight > 0 ? fit(hintWidth, hintHeight) : new Rect(x, y, width, height);
+    }
+
+    /**
+     * Fits an image of the given size into the area (scaling down only) and centres it.
+     */
+    private Rect fit(int imgWidth, int imgHeight) {
+        if (imgWidth > width || imgHeight > height) {
+            float scale = Math.min(
+                (float) width / imgWidth,
+                (float) height / imgHeight
+            );
+            imgWidth = (int) (imgWidth * scale);
+            imgHeight = (int) (imgHeight * scale);
+        }
+        return new Rect(x + (width - imgWidth) / 2, y + (height - imgHeight) / 2, imgWidth, imgHeight);
+    }
+
+    private record Rect(int x, int y, int width, int height) {}
+}
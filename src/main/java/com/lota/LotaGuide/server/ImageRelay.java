@@ -0,0 +1,542 @@
+package com.lota.LotaGuide.server;
+
+import com.lota.LotaGuide.Config;
+import com.lota.LotaGuide.LotaGuide;
+import com.lota.LotaGuide.client.ImageDiskCache;
+import com.lota.LotaGuide.network.LotaNetwork;
+import com.lota.LotaGuide.network.RelayChunkPacket;
+import com.lota.LotaGuide.network.RelayInfoPacket;
+import com.lota.LotaGuide.network.RelayResponsePacket;
+import com.mojang.logging.LogUtils;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.loading.FMLPaths;
+import net.minecraftforge.network.PacketDistributor;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server side of the image relay. Each URL is fetched from its host once, checked to be an image
+ * of acceptable size, kept in memory and on disk, and streamed to every client that asks for it.
+ * Disk entries keep the origin's validators and are revalidated before they are relayed; clients name the
+ * SHA-256 of the body they already have and are answered {@link RelayResponsePacket#NOT_MODIFIED} when it matches.
+ * <p>
+ * Transfers are split into {@link #CHUNK_SIZE} packets. At most {@link #WINDOW_BYTES} may be unacknowledged
+ * per transfer, so a slow client never has megabytes queued in its connection. Nothing here runs on the
+ * server thread: requests and acks are handled on the network thread and fetches on a small pool.
+ * <p>
+ * The server usually sits inside a network players cannot reach, so every host is resolved and checked
+ * before it is contacted, and redirects are followed by hand so each hop is checked the same way.
+ * The connection goes to the address that was checked (see {@link OriginResponse}); the host is not
+ * resolved a second time, where it could answer differently.
+ */
+@Mod.EventBusSubscriber(modid = LotaGuide.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE)
+public final class ImageRelay {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    public static final int CHUNK_SIZE = 32 * 1024;
+    public static final int MAX_FILE_SIZE = 10 * 1024 * 1024;
+    private static final int WINDOW_BYTES = 8 * CHUNK_SIZE;
+    private static final int MAX_TRANSFERS_PER_PLAYER = 8;
+    // Of those, how many may still be waiting for their fetch
+    private static final int MAX_FETCHES_PER_PLAYER = 4;
+    private static final long MEMORY_CACHE_BYTES = 64L * 1024 * 1024;
+    // Memory entries are served without asking the origin for this long, then revalidated through the disk tier
+    private static final long MEMORY_MAX_AGE_MILLIS = 10 * 60_000;
+    private static final int FETCH_THREADS = 4;
+    private static final int FETCH_QUEUE_SIZE = 64;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    // Per read, so slow but steady origins are not cut off
+    private static final int TIMEOUT_MILLIS = 30000;
+    private static final int MAX_REDIRECTS = 5;
+    private static final String DISK_CACHE_DIR = "lotaguide/relay_cache";
+    private static final String USER_AGENT = "LotaGuide image relay";
+
+    private static final ImageRelay INSTANCE = new ImageRelay();
+
+    private final ExecutorService fetchPool;
+    // One fetch per URL, however many players ask for it at once
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> fetches = new ConcurrentHashMap<>();
+    private final Map<String, Result> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private final ConcurrentHashMap<UUID, Session> sessions = new ConcurrentHashMap<>();
+    private volatile ImageDiskCache diskCache;
+
+    private ImageRelay() {
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(FETCH_QUEUE_SIZE), r -> {
+                Thread thread = new Thread(r, "LotaGuide Relay " + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        this.fetchPool = pool;
+    }
+
+    public static ImageRelay getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * A fetched body, or why there is none.
+     */
+    private static class Result {
+        @Nullable private final byte[] data;
+        @Nullable private final String contentHash;
+        private final int status;
+        private final long loadedAt = System.currentTimeMillis();
+
+        Result(byte[] data) {
+            this.data = data;
+            this.contentHash = HexFormat.of().formatHex(sha256().digest(data));
+            this.status = RelayResponsePacket.OK;
+        }
+
+        Result(int status) {
+            this.data = null;
+            this.contentHash = null;
+            this.status = status;
+        }
+    }
+
+    /**
+     * One player's requests. A request counts against the player's limits from the moment it is accepted,
+     * not only once its body is being sent, so fetches cannot pile up behind a slow origin.
+     */
+    static class Session {
+        private final Map<Integer, Transfer> transfers = new ConcurrentHashMap<>();
+        // Accepted requests whose fetch has not finished, and those of them the client has since cancelled
+        private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+        private final Set<Integer> cancelled = ConcurrentHashMap.newKeySet();
+
+        synchronized boolean tryAccept(int requestId) {
+            if (pending.size() >= MAX_FETCHES_PER_PLAYER || pending.size() + transfers.size() >= MAX_TRANSFERS_PER_PLAYER) {
+                return false;
+            }
+            return !transfers.containsKey(requestId) && pending.add(requestId);
+        }
+
+        /**
+         * Ends the pending state of a request; returns false if it was cancelled meanwhile.
+         */
+        synchronized boolean finishFetch(int requestId) {
+            pending.remove(requestId);
+            return !cancelled.remove(requestId);
+        }
+
+        /**
+         * Moves a request whose fetch has finished to sending its body.
+         */
+        synchronized void startTransfer(int requestId, Transfer transfer) {
+            transfers.put(requestId, transfer);
+        }
+
+        synchronized void cancel(int requestId) {
+            if (pending.contains(requestId)) {
+                cancelled.add(requestId);
+            }
+            transfers.remove(requestId);
+        }
+    }
+
+    static class Transfer {
+        private final ServerPlayer player;
+        private final int requestId;
+        private final byte[] data;
+        private int sent;
+        private int acknowledged;
+
+        Transfer(ServerPlayer player, int requestId, byte[] data) {
+            this.player = player;
+            this.requestId = requestId;
+            this.data = data;
+        }
+
+        /**
+         * Sends chunks until the window is full or everything is sent.
+         */
+        synchronized boolean pump() {
+            while (sent < data.length && sent - acknowledged < WINDOW_BYTES) {
+                int length = Math.min(CHUNK_SIZE, data.length - sent);
+                byte[] chunk = Arrays.copyOfRange(data, sent, sent + length);
+                LotaNetwork.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), new RelayChunkPacket(requestId, sent, chunk));
+                sent += length;
+            }
+            return acknowledged >= data.length;
+        }
+    }
+
+    @SubscribeEvent
+    static void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        if (Config.imageRelay && event.getEntity() instanceof ServerPlayer player) {
+            LotaNetwork.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), new RelayInfoPacket(true));
+        }
+    }
+
+    @SubscribeEvent
+    static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        INSTANCE.sessions.remove(event.getEntity().getUUID());
+    }
+
+    /**
+     * Handles a client's request for {@code url}. Always answered with a {@link RelayResponsePacket}.
+     *
+     * @param cachedHash SHA-256 of the body the client already has, if any
+     */
+    public void request(ServerPlayer player, int requestId, String url, @Nullable String cachedHash) {
+        Session session = sessions.computeIfAbsent(player.getUUID(), id -> new Session());
+        if (!Config.imageRelay || !session.tryAccept(requestId)) {
+            respond(player, requestId, RelayResponsePacket.BUSY, 0);
+            return;
+        }
+        if (!isFetchableUrl(url)) {
+            session.finishFetch(requestId);
+            respond(player, requestId, RelayResponsePacket.UNSUPPORTED, 0);
+            return;
+        }
+
+        fetch(url).thenAccept(result -> {
+            // Nobody is waiting once the client cancelled or the player left
+            if (!session.finishFetch(requestId) || sessions.get(player.getUUID()) != session) return;
+            if (result.data == null) {
+                respond(player, requestId, result.status, 0);
+                return;
+            }
+            if (result.contentHash.equals(cachedHash)) {
+                respond(player, requestId, RelayResponsePacket.NOT_MODIFIED, 0);
+                return;
+            }
+            Transfer transfer = new Transfer(player, requestId, result.data);
+            session.startTransfer(requestId, transfer);
+            respond(player, requestId, RelayResponsePacket.OK, result.data.length);
+            transfer.pump();
+        });
+    }
+
+    /**
+     * Handles a client's acknowledgement of the first {@code received} bytes, or cancellation when negative.
+     */
+    public void acknowledge(ServerPlayer player, int requestId, int received) {
+        Session session = sessions.get(player.getUUID());
+        if (session == null) return;
+        if (received < 0) {
+            session.cancel(requestId);
+            return;
+        }
+        Transfer transfer = session.transfers.get(requestId);
+        if (transfer == null) return;
+        boolean done;
+        synchronized (transfer) {
+            transfer.acknowledged = Math.max(transfer.acknowledged, Math.min(received, transfer.sent));
+            done = transfer.pump();
+        }
+        if (done) {
+            session.transfers.remove(requestId);
+        }
+    }
+
+    private static void respond(ServerPlayer player, int requestId, int status, int length) {
+        LotaNetwork.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), new RelayResponsePacket(requestId, status, length));
+    }
+
+    private CompletableFuture<Result> fetch(String url) {
+        Result cached = fromMemory(url);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Result> created = new CompletableFuture<>();
+        CompletableFuture<Result> fetch = fetches.putIfAbsent(url, created);
+        if (fetch != null) {
+            return fetch;
+        }
+        try {
+            fetchPool.execute(() -> {
+                Result result = load(url);
+                if (result.data != null) {
+                    toMemory(url, result);
+                }
+                // Failures are not kept: the next request tries again
+                fetches.remove(url, created);
+                created.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            // The queue is full; the client falls back to fetching directly
+            fetches.remove(url, created);
+            created.complete(new Result(RelayResponsePacket.BUSY));
+        }
+        return created;
+    }
+
+    /**
+     * Runs on the fetch pool. A disk entry is revalidated with the origin and served on 304,
+     * or when the origin cannot be reached; otherwise the origin's body replaces it.
+     */
+    private Result load(String url) {
+        ImageDiskCache disk = getDiskCache();
+        ImageDiskCache.Entry entry = disk.lookup(url);
+        if (entry != null && disk.open(entry) == null) {
+            entry = null;
+        }
+
+        byte[] data;
+        String etag;
+        String lastModified;
+        try {
+            URI uri = URI.create(url);
+            for (int hop = 0; ; hop++) {
+                InetAddress address = resolvePublicHost(uri.getHost());
+                if (address == null) {
+                    return new Result(RelayResponsePacket.UNSUPPORTED);
+                }
+                Map<String, String> headers = new LinkedHashMap<>();
+                headers.put("User-Agent", USER_AGENT);
+                headers.put("Accept", "image/*");
+                if (entry != null && entry.getEtag() != null) {
+                    headers.put("If-None-Match", entry.getEtag());
+                }
+                if (entry != null && entry.getLastModified() != null) {
+                    headers.put("If-Modified-Since", entry.getLastModified());
+                }
+                try (OriginResponse response = OriginResponse.get(uri, address, headers, CONNECT_TIMEOUT_MILLIS, TIMEOUT_MILLIS)) {
+                    int status = response.status();
+                    if (isRedirect(status)) {
+                        String location = response.header("Location");
+                        if (location == null || hop >= MAX_REDIRECTS) {
+                            return new Result(RelayResponsePacket.FAILED);
+                        }
+                        uri = uri.resolve(location);
+                        if (!isFetchableUrl(uri.toString())) {
+                            return new Result(RelayResponsePacket.UNSUPPORTED);
+                        }
+                        continue;
+                    }
+                    etag = response.header("ETag");
+                    lastModified = response.header("Last-Modified");
+                    if (status == 304 && entry != null) {
+                        disk.refresh(url, entry, etag, lastModified);
+                        return readCached(disk, url, entry);
+                    }
+                    // The origin's status is not passed on: it would tell players about hosts they cannot see
+                    if (status != 200) {
+                        return new Result(RelayResponsePacket.FAILED);
+                    }
+                    if (response.contentLength() > MAX_FILE_SIZE) {
+                        return new Result(RelayResponsePacket.TOO_LARGE);
+                    }
+                    data = readLimited(response.body());
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            // A stale copy beats none while the origin is down
+            return entry != null ? readCached(disk, url, entry) : new Result(RelayResponsePacket.UNREACHABLE);
+        }
+        if (data == null) {
+            return new Result(RelayResponsePacket.TOO_LARGE);
+        }
+        // Only images are relayed; the server is not a general-purpose proxy
+        if (!isImage(data)) {
+            return new Result(RelayResponsePacket.UNSUPPORTED);
+        }
+
+        if (disk.isEnabled()) {
+            try (InputStream in = new ByteArrayInputStream(data)) {
+                disk.store(url, in, etag, lastModified);
+            } catch (IOException e) {
+                LOGGER.debug("Could not store relayed image {}", url, e);
+            }
+        }
+        return new Result(data);
+    }
+
+    private static Result readCached(ImageDiskCache disk, String url, ImageDiskCache.Entry entry) {
+        try {
+            return new Result(Files.readAllBytes(entry.getDataFile()));
+        } catch (IOException e) {
+            disk.invalidate(url);
+            return new Result(RelayResponsePacket.UNREACHABLE);
+        }
+    }
+
+    /**
+     * Reads the whole body, or returns null once it exceeds {@link #MAX_FILE_SIZE}.
+     */
+    @Nullable
+    private static byte[] readLimited(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16384];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > MAX_FILE_SIZE) return null;
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Whether {@code data} starts like a format the client decoders read (PNG, JPEG, GIF, BMP).
+     */
+    private static boolean isImage(byte[] data) {
+        if (data.length < 8) return false;
+        boolean png = (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G';
+        boolean jpeg = (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF;
+        boolean gif = data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8';
+        boolean bmp = data[0] == 'B' && data[1] == 'M';
+        return png || jpeg || gif || bmp;
+    }
+
+    private static boolean isFetchableUrl(String url) {
+        if (!url.startsWith("https://") && !url.startsWith("http://")) return false;
+        try {
+            String host = new URI(url).getHost();
+            return host != null && !host.isEmpty();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    /**
+     * Resolves {@code host} and returns the address to connect to, or null if it does not resolve or any of
+     * its addresses {@link #isPublicAddress is not public}. Blocks on DNS, so only call it from the fetch pool.
+     */
+    @Nullable
+    static InetAddress resolvePublicHost(@Nullable String host) {
+        if (host == null || host.isEmpty()) return null;
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (IOException e) {
+            return null;
+        }
+        for (InetAddress address : addresses) {
+            if (!isPublicAddress(address)) return null;
+        }
+        return addresses.length > 0 ? addresses[0] : null;
+    }
+
+    /**
+     * Whether {@code address} is none of loopback, link-local, private, shared (100.64.0.0/10), unique-local,
+     * wildcard, "this network" or multicast. IPv4 addresses embedded in IPv6 ones are judged as IPv4.
+     */
+    static boolean isPublicAddress(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+            || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            InetAddress embedded = embeddedIPv4(bytes);
+            if (embedded != null) {
+                return isPublicAddress(embedded);
+            }
+            // fc00::/7 is the IPv6 private range; isSiteLocalAddress only knows the deprecated fec0::/10
+            return (bytes[0] & 0xFE) != 0xFC;
+        }
+        // Carrier-grade NAT space is routed inside the provider's network, like a private range
+        boolean shared = (bytes[0] & 0xFF) == 100 && (bytes[1] & 0xC0) == 64;
+        return !shared && bytes[0] != 0;
+    }
+
+    /**
+     * The IPv4 address inside an IPv4-mapped (::ffff:0:0/96), IPv4-compatible (::/96) or NAT64 (64:ff9b::/96)
+     * address, or null for any other IPv6 address.
+     */
+    @Nullable
+    private static InetAddress embeddedIPv4(byte[] bytes) {
+        boolean mapped = isZero(bytes, 0, 10) && (bytes[10] & 0xFF) == 0xFF && (bytes[11] & 0xFF) == 0xFF;
+        boolean compatible = isZero(bytes, 0, 12);
+        boolean nat64 = bytes[0] == 0 && bytes[1] == 0x64 && (bytes[2] & 0xFF) == 0xFF && (bytes[3] & 0xFF) == 0x9B
+            && isZero(bytes, 4, 12);
+        if (!mapped && !compatible && !nat64) return null;
+        try {
+            return InetAddress.getByAddress(Arrays.copyOfRange(bytes, 12, 16));
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isZero(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private synchronized Result fromMemory(String url) {
+        Result result = memory.get(url);
+        if (result != null && System.currentTimeMillis() - result.loadedAt > MEMORY_MAX_AGE_MILLIS) {
+            memory.remove(url);
+            memoryBytes -= result.data.length;
+            return null;
+        }
+        return result;
+    }
+
+    private synchronized void toMemory(String url, Result result) {
+        Result previous = memory.put(url, result);
+        memoryBytes += result.data.length - (previous != null ? previous.data.length : 0);
+        var it = memory.values().iterator();
+        while (memoryBytes > MEMORY_CACHE_BYTES && it.hasNext()) {
+            Result eldest = it.next();
+            if (eldest == result) break;
+            memoryBytes -= eldest.data.length;
+            it.remove();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ImageDiskCache getDiskCache() {
+        ImageDiskCache disk = diskCache;
+        if (disk == null) {
+            synchronized (this) {
+                disk = diskCache;
+                if (disk == null) {
+                    disk = new ImageDiskCache(FMLPaths.GAMEDIR.get().resolve(DISK_CACHE_DIR), Config.relayCacheSizeMb * 1024L * 1024L);
+                    diskCache = disk;
+                }
+            }
+        }
+        return disk;
+    }
+}
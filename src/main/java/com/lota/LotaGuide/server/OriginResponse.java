@@ -0,0 +1,295 @@
+package com.lota.LotaGuide.server;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The response to a single HTTP/1.1 GET sent to an address the caller has already resolved and checked.
+ * The relay cannot leave resolution to an HTTP client library: a name that answered the check with a
+ * public address could answer the library's own lookup with an internal one. TLS still verifies the
+ * certificate against the host name, which is also sent as SNI.
+ * <p>
+ * Only what the relay needs is supported: one request per connection, and bodies delimited by
+ * Content-Length, chunked encoding or the end of the connection. The read timeout applies to every
+ * read, so a body that keeps arriving is never cut off.
+ */
+final class OriginResponse implements Closeable {
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    private final Socket socket;
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream body;
+
+    private OriginResponse(Socket socket, int status, Map<String, String> headers, InputStream body) {
+        this.socket = socket;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Connects to {@code address}, sends a GET for {@code uri} and reads the response headers.
+     * The body is left for {@link #body()}; closing the response closes the connection.
+     */
+    static OriginResponse get(URI uri, InetAddress address, Map<String, String> requestHeaders,
+                              int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        boolean https = "https".equalsIgnoreCase(uri.getScheme());
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : https ? 443 : 80;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            if (https) {
+                socket = secure(socket, host, port);
+            }
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(request(uri, host, port, https, requestHeaders).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return read(socket, new BufferedInputStream(socket.getInputStream()));
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    int status() {
+        return status;
+    }
+
+    /**
+     * The first value of the response header {@code name}, matched without regard to case.
+     */
+    @Nullable
+    String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The declared Content-Length, or -1 when there is none.
+     */
+    long contentLength() {
+        String value = header("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    InputStream body() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static Socket secure(Socket socket, String host, int port) throws IOException {
+        String name = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+        SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, name, port, true);
+        SSLParameters parameters = ssl.getSSLParameters();
+        // The certificate has to match the name the player gave, whatever address it was reached at
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        if (!isLiteral(name)) {
+            parameters.setServerNames(List.of(new SNIHostName(name)));
+        }
+        ssl.setSSLParameters(parameters);
+        ssl.startHandshake();
+        return ssl;
+    }
+
+    private static boolean isLiteral(String host) {
+        return host.indexOf(':') >= 0 || host.chars().allMatch(c -> c == '.' || (c >= '0' && c <= '9'));
+    }
+
+    private static String request(URI uri, String host, int port, boolean https, Map<String, String> headers) throws IOException {
+        String target = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            target += "?" + uri.getRawQuery();
+        }
+        StringBuilder request = new StringBuilder("GET ").append(target).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(host);
+        if (port != (https ? 443 : 80)) {
+            request.append(':').append(port);
+        }
+        request.append("\r\nConnection: close\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            // Values come from the origin's own earlier responses; never let one end the header block
+            if (header.getValue().indexOf('\r') >= 0 || header.getValue().indexOf('\n') >= 0) {
+                throw new IOException("Line break in header " + header.getKey());
+            }
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        return request.append("\r\n").toString();
+    }
+
+    private static OriginResponse read(Socket socket, InputStream in) throws IOException {
+        while (true) {
+            String statusLine = readLine(in);
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+                throw new IOException("Malformed status line");
+            }
+            int status;
+            try {
+                status = Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line");
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (int count = 0; ; count++) {
+                String line = readLine(in);
+                if (line.isEmpty()) break;
+                if (count >= MAX_HEADERS) throw new IOException("Too many headers");
+                int colon = line.indexOf(':');
+                if (colon <= 0) throw new IOException("Malformed header");
+                headers.putIfAbsent(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            // Interim responses are followed by the real one
+            if (status / 100 == 1) continue;
+            return new OriginResponse(socket, status, headers, body(status, headers, in));
+        }
+    }
+
+    private static InputStream body(int status, Map<String, String> headers, InputStream in) throws IOException {
+        if (status == 204 || status == 304) {
+            return InputStream.nullInputStream();
+        }
+        String encoding = headers.get("transfer-encoding");
+        if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            return new ChunkedInputStream(in);
+        }
+        String length = headers.get("content-length");
+        if (length != null) {
+            try {
+                long remaining = Long.parseLong(length);
+                if (remaining >= 0) return new FixedLengthInputStream(in, remaining);
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IOException("Malformed Content-Length");
+        }
+        return in;
+    }
+
+    /**
+     * Reads one CRLF- or LF-terminated line as ISO-8859-1, without the terminator.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new EOFException("Connection closed in the response headers");
+            if (line.length() >= MAX_LINE_LENGTH) throw new IOException("Header line too long");
+            line.append((char) c);
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            line.setLength(end - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * A body of known length; ending early is an error rather than a shorter image.
+     */
+    private static final class FixedLengthInputStream extends FilterInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) throw new EOFException("Connection closed in the body");
+            remaining -= read;
+            return read;
+        }
+    }
+
+    /**
+     * A body in chunked transfer encoding. Chunk extensions and trailers are skipped.
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean finished;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) return -1;
+            if (remaining == 0) {
+                remaining = nextChunkSize();
+                if (remaining == 0) {
+                    while (!readLine(in).isEmpty()) {
+                        // Trailer fields
+                    }
+                    finished = true;
+                    return -1;
+                }
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) throw new EOFException("Connection closed in a chunk");
+            remaining -= read;
+            if (remaining == 0 && !readLine(in).isEmpty()) {
+                throw new IOException("Malformed chunk");
+            }
+            return read;
+        }
+
+        private long nextChunkSize() throws IOException {
+            String line = readLine(in);
+            int extension = line.indexOf(';');
+            String size = (extension >= 0 ? line.substring(0, extension) : line).trim();
+            try {
+                long value = Long.parseLong(size, 16);
+                if (value < 0) throw new IOException("Malformed chunk size");
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size");
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.lota.LotaGuide.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FailureCacheTest {
+    private static final String URL = "https://example.com/a.png";
+
+    @Test
+    void delayDoublesWithConsecutiveFailures() {
+        FailureCache cache = new FailureCache();
+        FailureCache.Failure first = cache.record(URL, FailureCache.Kind.HTTP_SERVER, "503", 0);
+        assertEquals(1, first.getAttempts());
+        assertEquals(5_000, first.millisUntilRetry(0));
+
+        FailureCache.Failure second = cache.record(URL, FailureCache.Kind.HTTP_SERVER, "503", 0);
+        assertEquals(2, second.getAttempts());
+        assertEquals(10_000, second.millisUntilRetry(0));
+
+        FailureCache.Failure third = cache.record(URL, FailureCache.Kind.HTTP_SERVER, "503", 0);
+        assertEquals(20_000, third.millisUntilRetry(0));
+    }
+
+    @Test
+    void delayIsCappedPerKind() {
+        FailureCache cache = new FailureCache();
+        FailureCache.Failure failure = null;
+        for (int i = 0; i < 40; i++) {
+            failure = cache.record(URL, FailureCache.Kind.TIMEOUT, "timed out", 0);
+        }
+        assertEquals(40, failure.getAttempts());
+        assertEquals(5 * 60_000, failure.millisUntilRetry(0));
+    }
+
+    @Test
+    void retryDelayHandlesLargeAttemptCounts() {
+        assertEquals(24 * 60 * 60_000L, FailureCache.Kind.HTTP_CLIENT.retryDelay(Integer.MAX_VALUE));
+        assertEquals(10 * 60_000L, FailureCache.Kind.HTTP_CLIENT.retryDelay(0));
+    }
+
+    @Test
+    void becomesDueOnceTheDelayHasPassed() {
+        FailureCache cache = new FailureCache();
+        FailureCache.Failure failure = cache.record(URL, FailureCache.Kind.NETWORK, "refused", 1_000);
+        assertFalse(failure.isDue(1_000));
+        assertFalse(failure.isDue(10_999));
+        assertTrue(failure.isDue(11_000));
+        assertEquals(0, failure.millisUntilRetry(20_000));
+    }
+
+    @Test
+    void invalidUrlsAreNeverRetried() {
+        FailureCache cache = new FailureCache();
+        FailureCache.Failure failure = cache.record(URL, FailureCache.Kind.INVALID_URL, "bad scheme", 0);
+        assertFalse(failure.isRetryable());
+        assertFalse(failure.isDue(Long.MAX_VALUE));
+    }
+
+    @Test
+    void removeResetsTheBackoff() {
+        FailureCache cache = new FailureCache();
+        cache.record(URL, FailureCache.Kind.HTTP_SERVER, "500", 0);
+        cache.record(URL, FailureCache.Kind.HTTP_SERVER, "500", 0);
+        cache.remove(URL);
+        assertNull(cache.get(URL));
+
+        FailureCache.Failure failure = cache.record(URL, FailureCache.Kind.HTTP_SERVER, "500", 0);
+        assertEquals(1, failure.getAttempts());
+        assertEquals(5_000, failure.millisUntilRetry(0));
+    }
+
+    @Test
+    void urlsBackOffIndependently() {
+        FailureCache cache = new FailureCache();
+        cache.record(URL, FailureCache.Kind.HTTP_SERVER, "500", 0);
+        cache.record(URL, FailureCache.Kind.HTTP_SERVER, "500", 0);
+        FailureCache.Failure other = cache.record("https://example.com/b.png", FailureCache.Kind.HTTP_SERVER, "500", 0);
+        assertEquals(1, other.getAttempts());
+    }
+
+    @Test
+    void oldestEntriesAreDroppedPastTheLimit() {
+        FailureCache cache = new FailureCache();
+        for (int i = 0; i <= 256; i++) {
+            cache.record("https://example.com/" + i, FailureCache.Kind.NETWORK, "refused", 0);
+        }
+        assertNull(cache.get("https://example.com/0"));
+        assertEquals(1, cache.get("https://example.com/256").getAttempts());
+    }
+
+    @Test
+    void classifiesHttpStatuses() {
+        assertEquals(FailureCache.Kind.HTTP_SERVER, FailureCache.Kind.forStatus(500));
+        assertEquals(FailureCache.Kind.HTTP_SERVER, FailureCache.Kind.forStatus(503));
+        assertEquals(FailureCache.Kind.HTTP_SERVER, FailureCache.Kind.forStatus(408));
+        assertEquals(FailureCache.Kind.HTTP_SERVER, FailureCache.Kind.forStatus(429));
+        assertEquals(FailureCache.Kind.HTTP_CLIENT, FailureCache.Kind.forStatus(404));
+        assertEquals(FailureCache.Kind.HTTP_CLIENT, FailureCache.Kind.forStatus(403));
+    }
+}
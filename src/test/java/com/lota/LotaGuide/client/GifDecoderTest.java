@@ -0,0 +1,259 @@
+package com.lota.LotaGuide.client;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test images are encoded with the JDK's GIF writer, so the LZW data comes from an independent encoder.
+ */
+class GifDecoderTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int WHITE = 0xFFFFFFFF;
+    // Palette index 3 is transparent in every test frame that uses transparency
+    private static final int[] PALETTE = {RED, GREEN, BLUE, WHITE};
+    private static final int TRANSPARENT = 3;
+
+    private static final String NONE = "none";
+    private static final String KEEP = "doNotDispose";
+    private static final String TO_BACKGROUND = "restoreToBackgroundColor";
+    private static final String TO_PREVIOUS = "restoreToPrevious";
+
+    /** One frame of a test GIF: palette indices at an offset on the logical screen. */
+    private record Frame(int x, int y, int width, int height, byte[] indices, String disposal,
+                         int delayCentis, boolean transparent, boolean interlaced) {
+        static Frame filled(int x, int y, int width, int height, int index, String disposal) {
+            byte[] indices = new byte[width * height];
+            java.util.Arrays.fill(indices, (byte) index);
+            return new Frame(x, y, width, height, indices, disposal, 10, false, false);
+        }
+    }
+
+    @Test
+    void decodesLzwDataLikeImageIO() throws IOException {
+        // Random pixels over a full palette grow the code size to 12 bits and force clear codes
+        int size = 96;
+        int[] palette = new int[256];
+        Random random = new Random(7);
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        byte[] indices = new byte[size * size];
+        random.nextBytes(indices);
+        byte[] gif = encode(size, size, palette, List.of(new Frame(0, 0, size, size, indices, NONE, 0, false, false)));
+
+        GifDecoder decoder = new GifDecoder(gif);
+        assertEquals(100, decoder.advance(), "no delay means the default");
+        assertArrayEquals(referencePixels(gif), decoder.getCanvas());
+        assertEquals(-1, decoder.advance());
+    }
+
+    @Test
+    void deinterlacesRows() throws IOException {
+        int width = 5;
+        int height = 11;
+        byte[] indices = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                indices[y * width + x] = (byte) ((x + y) % 3);
+            }
+        }
+        byte[] plain = encode(width, height, PALETTE, List.of(new Frame(0, 0, width, height, indices, NONE, 10, false, false)));
+        byte[] interlaced = encode(width, height, PALETTE, List.of(new Frame(0, 0, width, height, indices, NONE, 10, false, true)));
+
+        GifDecoder decoder = new GifDecoder(interlaced);
+        decoder.advance();
+        int[] expected = new int[width * height];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = PALETTE[indices[i]];
+        }
+        assertArrayEquals(expected, decoder.getCanvas());
+
+        GifDecoder reference = new GifDecoder(plain);
+        reference.advance();
+        assertArrayEquals(reference.getCanvas(), decoder.getCanvas());
+    }
+
+    @Test
+    void restoreToBackgroundClearsTheFrameArea() throws IOException {
+        byte[] gif = encode(4, 4, PALETTE, List.of(
+            Frame.filled(0, 0, 4, 4, 0, KEEP),
+            Frame.filled(1, 1, 2, 2, 2, TO_BACKGROUND),
+            Frame.filled(0, 0, 1, 1, 1, NONE)));
+
+        GifDecoder decoder = new GifDecoder(gif);
+        decoder.advance();
+        decoder.advance();
+        assertEquals(BLUE, pixel(decoder, 1, 1));
+        assertEquals(RED, pixel(decoder, 0, 1));
+
+        decoder.advance();
+        assertEquals(GREEN, pixel(decoder, 0, 0));
+        assertEquals(0, pixel(decoder, 1, 1));
+        assertEquals(0, pixel(decoder, 2, 2));
+        assertEquals(RED, pixel(decoder, 3, 3));
+    }
+
+    @Test
+    void restoreToPreviousBringsBackTheEarlierCanvas() throws IOException {
+        byte[] gif = encode(4, 4, PALETTE, List.of(
+            Frame.filled(0, 0, 4, 4, 0, KEEP),
+            Frame.filled(1, 1, 2, 2, 2, TO_PREVIOUS),
+            Frame.filled(0, 0, 1, 1, 1, NONE)));
+
+        GifDecoder decoder = new GifDecoder(gif);
+        decoder.advance();
+        decoder.advance();
+        assertEquals(BLUE, pixel(decoder, 2, 2));
+
+        decoder.advance();
+        assertEquals(GREEN, pixel(decoder, 0, 0));
+        assertEquals(RED, pixel(decoder, 1, 1));
+        assertEquals(RED, pixel(decoder, 2, 2));
+    }
+
+    @Test
+    void transparentPixelsKeepWhatIsBelow() throws IOException {
+        byte[] overlay = {TRANSPARENT, 1, 1, TRANSPARENT};
+        byte[] gif = encode(2, 2, PALETTE, List.of(
+            Frame.filled(0, 0, 2, 2, 0, KEEP),
+            new Frame(0, 0, 2, 2, overlay, KEEP, 10, true, false)));
+
+        GifDecoder decoder = new GifDecoder(gif);
+        decoder.advance();
+        decoder.advance();
+        assertArrayEquals(new int[] {RED, GREEN, GREEN, RED}, decoder.getCanvas());
+    }
+
+    @Test
+    void reportsDelaysCountsFramesAndRewinds() throws IOException {
+        byte[] gif = encode(2, 2, PALETTE, List.of(
+            new Frame(0, 0, 2, 2, new byte[] {0, 0, 0, 0}, NONE, 5, false, false),
+            new Frame(0, 0, 2, 2, new byte[] {1, 1, 1, 1}, NONE, 25, false, false)));
+
+        GifDecoder decoder = new GifDecoder(gif);
+        assertEquals(2, decoder.countFrames());
+        assertEquals(50, decoder.advance());
+        assertEquals(250, decoder.advance());
+        assertEquals(GREEN, pixel(decoder, 1, 1));
+        assertEquals(-1, decoder.advance());
+
+        decoder.rewind();
+        assertEquals(50, decoder.advance());
+        assertEquals(RED, pixel(decoder, 1, 1));
+    }
+
+    @Test
+    void rejectsDataThatIsNotAGif() {
+        assertThrows(IOException.class, () -> new GifDecoder(new byte[] {'P', 'N', 'G', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}));
+    }
+
+    @Test
+    void failsCleanlyOnTruncatedData() throws IOException {
+        byte[] gif = encode(8, 8, PALETTE, List.of(Frame.filled(0, 0, 8, 8, 2, NONE)));
+        byte[] truncated = java.util.Arrays.copyOf(gif, gif.length - 6);
+
+        GifDecoder decoder = new GifDecoder(truncated);
+        assertThrows(IOException.class, decoder::advance);
+    }
+
+    private static int pixel(GifDecoder decoder, int x, int y) {
+        return decoder.getCanvas()[y * decoder.getWidth() + x];
+    }
+
+    private static int[] referencePixels(byte[] gif) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(gif));
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static byte[] encode(int screenWidth, int screenHeight, int[] palette, List<Frame> frames) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            IIOMetadata stream = writer.getDefaultStreamMetadata(null);
+            IIOMetadataNode screen = new IIOMetadataNode("LogicalScreenDescriptor");
+            screen.setAttribute("logicalScreenWidth", Integer.toString(screenWidth));
+            screen.setAttribute("logicalScreenHeight", Integer.toString(screenHeight));
+            screen.setAttribute("colorResolution", "8");
+            screen.setAttribute("pixelAspectRatio", "0");
+            IIOMetadataNode streamRoot = new IIOMetadataNode("javax_imageio_gif_stream_1.0");
+            streamRoot.appendChild(screen);
+            stream.mergeTree("javax_imageio_gif_stream_1.0", streamRoot);
+            writer.prepareWriteSequence(stream);
+
+            for (Frame frame : frames) {
+                BufferedImage image = indexedImage(frame, palette);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setProgressiveMode(frame.interlaced() ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+                IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+                describe(metadata, frame);
+                writer.writeToSequence(new IIOImage(image, null, metadata), param);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage indexedImage(Frame frame, int[] palette) {
+        int bits = palette.length > 4 ? 8 : 2;
+        IndexColorModel colors = new IndexColorModel(bits, palette.length, palette, 0, false, -1, java.awt.image.DataBuffer.TYPE_BYTE);
+        BufferedImage image = new BufferedImage(frame.width(), frame.height(),
+            bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY, colors);
+        for (int y = 0; y < frame.height(); y++) {
+            for (int x = 0; x < frame.width(); x++) {
+                image.getRaster().setSample(x, y, 0, frame.indices()[y * frame.width() + x] & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    private static void describe(IIOMetadata metadata, Frame frame) throws IIOInvalidTreeException {
+        String format = "javax_imageio_gif_image_1.0";
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+        IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", Integer.toString(frame.x()));
+        descriptor.setAttribute("imageTopPosition", Integer.toString(frame.y()));
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", frame.disposal());
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", frame.transparent() ? "TRUE" : "FALSE");
+        control.setAttribute("transparentColorIndex", Integer.toString(TRANSPARENT));
+        control.setAttribute("delayTime", Integer.toString(frame.delayCentis()));
+        metadata.setFromTree(format, root);
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+        for (int i = 0; i < parent.getLength(); i++) {
+            if (parent.item(i).getNodeName().equals(name)) {
+                return (IIOMetadataNode) parent.item(i);
+            }
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        parent.appendChild(node);
+        return node;
+    }
+}
@@ -0,0 +1,213 @@
+package com.lota.LotaGuide.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Downloads against a local server: connection reuse of the shared client, the body watchdog and
+ * revalidation of disk cache entries. The JDK only ships an HTTP/1.1 server, so reuse is checked as
+ * keep-alive; HTTP/2 origins multiplex on the same pooled connection.
+ */
+class ImageCacheHttpTest {
+    private static final int TIMEOUT_MILLIS = 300;
+    private static final int PIECES = 8;
+    private static final byte[] PHOTO = "GIF89a and then some pixels".getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 05 Oct 2026 10:00:00 GMT";
+    private static final String REVALIDATED = "Sat, 17 Oct 2026 10:00:00 GMT";
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicReference<String> ifNoneMatch = new AtomicReference<>();
+    private final AtomicReference<String> ifModifiedSince = new AtomicReference<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/image", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = new byte[1024];
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // Takes well over the timeout in total, but never pauses for as long as it
+        server.createContext("/steady", exchange -> {
+            exchange.sendResponseHeaders(200, PIECES);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < PIECES; i++) {
+                    out.write(i);
+                    out.flush();
+                    sleep(TIMEOUT_MILLIS / 3);
+                }
+            }
+        });
+        server.createContext("/stalled", exchange -> {
+            exchange.sendResponseHeaders(200, PIECES);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(0);
+                out.flush();
+                sleep(TIMEOUT_MILLIS * 10);
+            } catch (IOException ignored) {
+                // The client hung up
+            }
+        });
+        server.createContext("/photo.gif", exchange -> {
+            ifNoneMatch.set(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            ifModifiedSince.set(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+            if (ETAG.equals(ifNoneMatch.get())) {
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.getResponseHeaders().add("Last-Modified", REVALIDATED);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            fullResponses.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+            exchange.sendResponseHeaders(200, PHOTO.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PHOTO);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void sharedClientReusesConnections() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse<byte[]> response = ImageCache.HTTP_CLIENT.send(request("/image"), HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(200, response.statusCode());
+            assertEquals(1024, response.body().length);
+        }
+        assertEquals(1, clientPorts.size(), "every request after the first should reuse the connection");
+    }
+
+    @Test
+    void steadyBodyOutlastsTheTimeout() throws Exception {
+        long start = System.nanoTime();
+        try (InputStream body = open("/steady")) {
+            assertEquals(PIECES, body.readAllBytes().length);
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 > TIMEOUT_MILLIS * 2L, "the body should have taken longer than the timeout");
+    }
+
+    @Test
+    void stalledBodyTimesOut() throws Exception {
+        long start = System.nanoTime();
+        SocketTimeoutException e;
+        try (InputStream body = open("/stalled")) {
+            e = assertThrows(SocketTimeoutException.class, body::readAllBytes);
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < TIMEOUT_MILLIS * 5L, "the stall should end at the idle timeout");
+        assertEquals(FailureCache.Kind.TIMEOUT, ImageCache.classify(e));
+    }
+
+    @Test
+    void revalidatesStoredBodiesWithTheirValidators() throws Exception {
+        ImageDiskCache disk = new ImageDiskCache(directory, 1 << 20);
+        String url = url("/photo.gif");
+        ImageCache.getInstance().fetchImageData(url, disk, null, download()).release();
+        ImageDiskCache.Entry entry = disk.lookup(url);
+        assertNotNull(entry);
+        assertEquals(ETAG, entry.getEtag());
+        assertNull(ifNoneMatch.get());
+
+        ImageCache.ImageSource source = ImageCache.getInstance().fetchImageData(url, disk, entry, download());
+        try {
+            assertEquals(ETAG, ifNoneMatch.get());
+            assertEquals(LAST_MODIFIED, ifModifiedSince.get());
+            assertEquals(entry.getDataFile(), source.file);
+            assertArrayEquals(PHOTO, Files.readAllBytes(source.file));
+        } finally {
+            source.release();
+        }
+        assertEquals(1, fullResponses.get(), "the 304 is answered from disk");
+        assertEquals(REVALIDATED, disk.lookup(url).getLastModified());
+    }
+
+    @Test
+    void refetchesWhenTheRevalidatedBodyIsGone() throws Exception {
+        ImageDiskCache disk = new ImageDiskCache(directory, 1 << 20);
+        String url = url("/photo.gif");
+        ImageCache.getInstance().fetchImageData(url, disk, null, download()).release();
+        ImageDiskCache.Entry entry = disk.lookup(url);
+        Files.delete(entry.getDataFile());
+
+        ImageCache.ImageSource source = ImageCache.getInstance().fetchImageData(url, disk, entry, download());
+        try {
+            assertArrayEquals(PHOTO, Files.readAllBytes(source.file));
+        } finally {
+            source.release();
+        }
+        assertEquals(2, fullResponses.get(), "the body is fetched again without validators");
+    }
+
+    private static ImageCache.Download download() {
+        return new ImageCache.Download(new ImageLoadScheduler(), ImageLoadScheduler.Priority.VISIBLE, null);
+    }
+
+    private InputStream open(String path) throws Exception {
+        HttpResponse<InputStream> response = ImageCache.HTTP_CLIENT.send(request(path), HttpResponse.BodyHandlers.ofInputStream());
+        return new IdleTimeoutInputStream(response.body(), TIMEOUT_MILLIS);
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create(url(path))).GET().build();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lota.LotaGuide.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageDiskCacheTest {
+    private static final int ENTRY_SIZE = 60;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pruneSkipsPinnedEntries() throws IOException {
+        ImageDiskCache disk = new ImageDiskCache(directory, 100);
+        ImageDiskCache.Entry reading = disk.store("https://example.com/a.png", body(), null, null, true);
+        age(reading);
+
+        disk.store("https://example.com/b.png", body(), null, null);
+
+        assertTrue(Files.isRegularFile(reading.getDataFile()), "the least recently used entry is still being read");
+        assertNotNull(disk.lookup("https://example.com/a.png"));
+        assertNull(disk.lookup("https://example.com/b.png"));
+    }
+
+    @Test
+    void releasedEntriesArePrunedAgain() throws IOException {
+        ImageDiskCache disk = new ImageDiskCache(directory, 100);
+        ImageDiskCache.Entry reading = disk.store("https://example.com/a.png", body(), null, null, true);
+        age(reading);
+        disk.unpin(reading);
+
+        disk.store("https://example.com/b.png", body(), null, null);
+
+        assertFalse(Files.isRegularFile(reading.getDataFile()));
+        assertNotNull(disk.lookup("https://example.com/b.png"));
+    }
+
+    @Test
+    void pinsAreCounted() throws IOException {
+        ImageDiskCache disk = new ImageDiskCache(directory, 100);
+        ImageDiskCache.Entry entry = disk.store("https://example.com/a.png", body(), null, null, true);
+        assertTrue(disk.pin(entry));
+        age(entry);
+
+        disk.unpin(entry);
+        disk.store("https://example.com/b.png", body(), null, null);
+        assertTrue(Files.isRegularFile(entry.getDataFile()), "one of two loads still reads it");
+
+        disk.unpin(entry);
+        disk.store("https://example.com/c.png", body(), null, null);
+        assertFalse(Files.isRegularFile(entry.getDataFile()));
+    }
+
+    @Test
+    void cannotPinVanishedBodies() throws IOException {
+        ImageDiskCache disk = new ImageDiskCache(directory, 1000);
+        ImageDiskCache.Entry entry = disk.store("https://example.com/a.png", body(), null, null);
+        Files.delete(entry.getDataFile());
+
+        assertFalse(disk.pin(entry));
+    }
+
+    private static ByteArrayInputStream body() {
+        return new ByteArrayInputStream(new byte[ENTRY_SIZE]);
+    }
+
+    /**
+     * Makes the entry the least recently used, whatever the file system's timestamp resolution.
+     */
+    private static void age(ImageDiskCache.Entry entry) throws IOException {
+        Files.setLastModifiedTime(entry.getDataFile(), FileTime.fromMillis(0));
+    }
+}
@@ -0,0 +1,323 @@
+package com.lota.LotaGuide.client;
+
+import com.lota.LotaGuide.client.ImageLoadScheduler.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageLoadSchedulerTest {
+    private static final String HOST = "example.com";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    void limitsConcurrentRequestsPerHost() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(8, 1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch twoStarted = new CountDownLatch(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(scheduler.submitIo(HOST, Priority.VISIBLE, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                twoStarted.countDown();
+                await(release);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        assertTrue(twoStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Another host is not held up by the saturated one
+        scheduler.submitIo("other.example.com", Priority.BACKGROUND, () -> "done").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(2, running.get());
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void waitingRequestsRunInPriorityOrder() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(4, 1, 1);
+        Blocker blocker = new Blocker();
+        blocker.occupy(scheduler.submitIo(HOST, Priority.VISIBLE, blocker));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        List<CompletableFuture<?>> futures = List.of(
+            scheduler.submitIo(HOST, Priority.BACKGROUND, record(order, "background")),
+            scheduler.submitIo(HOST, Priority.ADJACENT, record(order, "adjacent")),
+            scheduler.submitIo(HOST, Priority.VISIBLE, record(order, "visible-1")),
+            scheduler.submitIo(HOST, Priority.VISIBLE, record(order, "visible-2")));
+        blocker.release();
+        awaitAll(blocker.future, futures);
+
+        assertEquals(List.of("visible-1", "visible-2", "adjacent", "background"), order);
+    }
+
+    @Test
+    void decodeWorkRunsInPriorityOrder() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(1, 1, 1);
+        Blocker blocker = new Blocker();
+        blocker.occupy(scheduler.submitDecode(Priority.VISIBLE, blocker));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        List<CompletableFuture<?>> futures = List.of(
+            scheduler.submitDecode(Priority.BACKGROUND, record(order, "background")),
+            scheduler.submitDecode(Priority.VISIBLE, record(order, "visible")),
+            scheduler.submitDecode(Priority.ADJACENT, record(order, "adjacent")));
+        blocker.release();
+        awaitAll(blocker.future, futures);
+
+        assertEquals(List.of("visible", "adjacent", "background"), order);
+    }
+
+    @Test
+    void promotedDecodeWorkJumpsTheQueue() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(1, 1, 1);
+        Blocker blocker = new Blocker();
+        blocker.occupy(scheduler.submitDecode(Priority.VISIBLE, blocker));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<Void> first = scheduler.submitDecode(Priority.BACKGROUND, record(order, "first"));
+        CompletableFuture<Void> second = scheduler.submitDecode(Priority.BACKGROUND, record(order, "second"));
+        CompletableFuture<Void> adjacent = scheduler.submitDecode(Priority.ADJACENT, record(order, "adjacent"));
+        scheduler.promote(second, Priority.VISIBLE);
+        // A lower priority is not a promotion; the task stays where it is
+        scheduler.promote(adjacent, Priority.BACKGROUND);
+        blocker.release();
+        awaitAll(blocker.future, List.of(first, second, adjacent));
+
+        assertEquals(List.of("second", "adjacent", "first"), order);
+    }
+
+    @Test
+    void promotedRequestsJumpTheHostQueue() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(4, 1, 1);
+        Blocker blocker = new Blocker();
+        blocker.occupy(scheduler.submitIo(HOST, Priority.VISIBLE, blocker));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<Void> adjacent = scheduler.submitIo(HOST, Priority.ADJACENT, record(order, "adjacent"));
+        CompletableFuture<Void> background = scheduler.submitIo(HOST, Priority.BACKGROUND, record(order, "background"));
+        scheduler.promote(background, Priority.VISIBLE);
+        blocker.release();
+        awaitAll(blocker.future, List.of(adjacent, background));
+
+        assertEquals(List.of("background", "adjacent"), order);
+    }
+
+    @Test
+    void promotingFinishedWorkIsHarmless() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(1, 1, 1);
+        CompletableFuture<String> done = scheduler.submitDecode(Priority.BACKGROUND, () -> "done");
+        assertEquals("done", done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.promote(done, Priority.VISIBLE);
+        scheduler.promote(new CompletableFuture<>(), Priority.VISIBLE);
+    }
+
+    @Test
+    void failuresCompleteTheFutureAndFreeTheHost() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(2, 1, 1);
+        CompletableFuture<String> failed = scheduler.submitIo(HOST, Priority.VISIBLE, () -> {
+            throw new IOException("boom");
+        });
+        ExecutionException error = assertThrows(ExecutionException.class, () -> failed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+
+        assertEquals("next", scheduler.submitIo(HOST, Priority.VISIBLE, () -> "next").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledWorkIsSkipped() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(1, 1, 1);
+        Blocker blocker = new Blocker();
+        blocker.occupy(scheduler.submitDecode(Priority.VISIBLE, blocker));
+        AtomicInteger runs = new AtomicInteger();
+
+        CompletableFuture<Integer> cancelled = scheduler.submitDecode(Priority.VISIBLE, runs::incrementAndGet);
+        cancelled.cancel(false);
+        blocker.release();
+        blocker.future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        scheduler.submitDecode(Priority.BACKGROUND, () -> null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(0, runs.get());
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    void resultsOfWorkCancelledWhileRunningAreDiscarded() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(1, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> discarded = new CompletableFuture<>();
+
+        CompletableFuture<String> future = scheduler.submitDecode(Priority.VISIBLE, () -> {
+            started.countDown();
+            await(release);
+            return "texture";
+        }, discarded::complete);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        future.cancel(false);
+        release.countDown();
+
+        assertEquals("texture", discarded.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Many callers share one load per URL the way ImageCache does: the first installs it, the others join,
+     * and any of them may cancel it while it runs. Every result must end up either delivered or discarded.
+     */
+    @Test
+    void concurrentJoinAndCancelLeaksNothing() throws Exception {
+        ImageLoadScheduler scheduler = new ImageLoadScheduler(4, 4, 2);
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger freed = new AtomicInteger();
+        ConcurrentHashMap<String, Load> pending = new ConcurrentHashMap<>();
+        int callers = 8;
+        int rounds = 2000;
+        CountDownLatch done = new CountDownLatch(callers);
+
+        for (int c = 0; c < callers; c++) {
+            long seed = c;
+            Thread caller = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        String url = "https://example.com/" + random.nextInt(3) + ".png";
+                        Load load = pending.computeIfAbsent(url, key -> {
+                            Load fresh = new Load();
+                            fresh.result = fresh.track(scheduler.submitIo(HOST, Priority.values()[random.nextInt(3)],
+                                    () -> resource(created), r -> free(r, freed)))
+                                .thenCompose(source -> {
+                                    // The source is handed to the decode stage, which owns it from here
+                                    free(source, freed);
+                                    return fresh.track(scheduler.submitDecode(Priority.VISIBLE,
+                                        () -> resource(created), r -> free(r, freed)));
+                                });
+                            // The cache takes ownership of whatever is delivered
+                            fresh.result.whenComplete((image, error) -> {
+                                if (image != null) free(image, freed);
+                                pending.remove(key, fresh);
+                            });
+                            return fresh;
+                        });
+                        switch (random.nextInt(3)) {
+                            case 0 -> load.cancel();
+                            case 1 -> load.promote(scheduler);
+                            default -> Thread.onSpinWait();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            caller.start();
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS * 3, TimeUnit.SECONDS));
+
+        // Running work finishes on its own; wait until the pools are idle
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (freed.get() != created.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(created.get(), freed.get(), "every result is delivered or discarded exactly once");
+    }
+
+    /**
+     * The part of ImageCache's Download that matters here: cancelling cancels whichever stage is current.
+     */
+    private static class Load {
+        private CompletableFuture<?> stage;
+        private boolean cancelled;
+        private CompletableFuture<AtomicInteger> result;
+
+        synchronized <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            stage = future;
+            if (cancelled) future.cancel(false);
+            return future;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            stage.cancel(false);
+        }
+
+        synchronized void promote(ImageLoadScheduler scheduler) {
+            scheduler.promote(stage, Priority.VISIBLE);
+        }
+    }
+
+    private static AtomicInteger resource(AtomicInteger created) throws InterruptedException {
+        created.incrementAndGet();
+        Thread.sleep(0, 50_000);
+        return new AtomicInteger();
+    }
+
+    private static void free(AtomicInteger resource, AtomicInteger freed) {
+        if (!resource.compareAndSet(0, 1)) {
+            throw new IllegalStateException("freed twice");
+        }
+        freed.incrementAndGet();
+    }
+
+    /**
+     * Work that keeps a thread (and host slot) busy until released, so later submissions queue up.
+     */
+    private static class Blocker implements Callable<Void> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private CompletableFuture<Void> future;
+
+        @Override
+        public Void call() throws InterruptedException {
+            started.countDown();
+            await(released);
+            return null;
+        }
+
+        /** Waits until the work behind {@code future} is running. */
+        void occupy(CompletableFuture<Void> future) throws InterruptedException {
+            this.future = future;
+            assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    private static Callable<Void> record(List<String> order, String name) {
+        return () -> {
+            order.add(name);
+            return null;
+        };
+    }
+
+    private static void awaitAll(CompletableFuture<?> blocker, List<? extends CompletableFuture<?>> futures) throws Exception {
+        blocker.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("timed out");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.lota.LotaGuide.client;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * Compares per-pixel texture filling ({@code getRGB(x, y)} and one bounds-checked store per pixel, as
+ * {@code NativeImage.setPixelRGBA} does) with {@link PixelConverter#toAbgr} followed by one bulk copy, as
+ * {@link PixelConverter#write} does. A NativeImage needs LWJGL's natives, so both paths write into a
+ * native-order direct buffer of the same layout instead.
+ * <p>
+ * Run with {@code ./gradlew benchmark}; sizes default to a 300-frame 480x270 GIF and can be passed as arguments.
+ */
+public final class PixelConverterBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private PixelConverterBenchmark() {}
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 480;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 270;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        IntBuffer target = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            perPixel(image, target, frames);
+            bulk(image, target, frames);
+        }
+        long perPixel = Long.MAX_VALUE;
+        long bulk = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            perPixel = Math.min(perPixel, perPixel(image, target, frames));
+            bulk = Math.min(bulk, bulk(image, target, frames));
+        }
+
+        System.out.printf("%d frames of %dx%d, best of %d%n", frames, width, height, ROUNDS);
+        System.out.printf("per-pixel: %8.1f ms (%.3f ms/frame)%n", perPixel / 1e6, perPixel / 1e6 / frames);
+        System.out.printf("bulk:      %8.1f ms (%.3f ms/frame)%n", bulk / 1e6, bulk / 1e6 / frames);
+        System.out.printf("speedup:   %8.1fx%n", (double) perPixel / bulk);
+    }
+
+    private static long perPixel(BufferedImage image, IntBuffer target, int frames) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    setPixel(target, width, height, x, y, PixelConverter.swizzle(image.getRGB(x, y)));
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long bulk(BufferedImage image, IntBuffer target, int frames) {
+        int count = image.getWidth() * image.getHeight();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            target.put(0, PixelConverter.toAbgr(image), 0, count);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void setPixel(IntBuffer target, int width, int height, int x, int y, int abgr) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException("Out of bounds");
+        }
+        target.put(x + y * width, abgr);
+    }
+}
@@ -0,0 +1,75 @@
+package com.lota.LotaGuide.client;
+
+import net.minecraft.resources.ResourceLocation;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The lookups book screens repeat every frame for a page that is not changing must not allocate.
+ * Measured with the JVM's per-thread allocation counter over many calls, after a warm-up, so a
+ * single allocation per call shows up as megabytes.
+ */
+class RenderPathAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int FRAMES = 200_000;
+    // Room for the counter's own bookkeeping, far below one allocation per frame
+    private static final long SLACK_BYTES = 4096;
+
+    @Test
+    void drawingAFrameOfALoadedImageDoesNotAllocate() {
+        ResourceLocation texture = new ResourceLocation("lotaguide", "test/atlas");
+        List<ImageCache.Frame> frames = List.of(
+            new ImageCache.Frame(texture, 0, 0, 64, 64, 256, 256),
+            new ImageCache.Frame(texture, 64, 0, 64, 64, 256, 256),
+            new ImageCache.Frame(texture, 128, 0, 64, 64, 256, 256));
+        ImageCache.CachedImage still = new ImageCache.CachedImage(frames.subList(0, 1), List.of(texture), List.of(100), 64, 64, 65536);
+        ImageCache.CachedImage animated = new ImageCache.CachedImage(frames, List.of(texture), List.of(100, 50, 70), 64, 64, 65536);
+
+        assertAllocationFree(now -> {
+            assertNotNull(still.getFrame(now));
+            assertNotNull(animated.getFrame(now));
+        });
+    }
+
+    @Test
+    void recordingAnAccessDoesNotAllocate() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(1 << 20);
+        policy.add("https://example.com/a.png", 1024);
+        policy.add("https://example.com/b.png", 1024);
+
+        // Two screens' pages alternating defeats the repeat-access shortcut
+        assertAllocationFree(now -> policy.recordAccess((now & 1) == 0 ? "https://example.com/a.png" : "https://example.com/b.png"));
+    }
+
+    @Test
+    void showingAFailureDoesNotAllocate() {
+        FailureCache failures = new FailureCache();
+        FailureCache.Failure failure = failures.record("https://example.com/a.png", FailureCache.Kind.TIMEOUT, "Timed out", 0);
+
+        assertAllocationFree(now -> {
+            assertNotNull(failure.getMessage());
+            if (failure.isRetryable() && !failure.isDue(now)) {
+                assertTrue(failure.millisUntilRetry(now) >= 0);
+            }
+        });
+    }
+
+    private static void assertAllocationFree(LongConsumer frame) {
+        for (int i = 0; i < WARMUP; i++) {
+            frame.accept(i);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.accept(i);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < SLACK_BYTES, allocated + " bytes allocated over " + FRAMES + " frames");
+    }
+}
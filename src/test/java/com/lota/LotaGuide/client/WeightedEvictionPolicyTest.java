@@ -0,0 +1,174 @@
+package com.lota.LotaGuide.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WeightedEvictionPolicyTest {
+    @Test
+    void budgetCountsWeightNotEntries() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(List.of(), policy.add("small" + i, 10));
+        }
+        assertEquals(10, policy.size());
+        assertEquals(100, policy.getTotalWeight());
+
+        WeightedEvictionPolicy<String> large = new WeightedEvictionPolicy<>(100);
+        large.add("big", 90);
+        assertEquals(List.of("big"), large.add("small", 20));
+        assertEquals(20, large.getTotalWeight());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAmongEquallyFrequent() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 40);
+        policy.add("b", 40);
+        policy.add("c", 20);
+        // "a" is counted once more than the others, "b" and "c" only differ in recency
+        policy.recordAccess("a");
+        policy.recordAccess("b");
+        policy.recordAccess("c");
+        policy.recordAccess("a");
+
+        assertEquals(List.of("b"), policy.setMaxWeight(60));
+        assertEquals(60, policy.getTotalWeight());
+    }
+
+    @Test
+    void prefersColdVictimsOverRecentOnes() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("hot", 50);
+        policy.add("cold", 40);
+        policy.add("other", 10);
+        for (int i = 0; i < 5; i++) {
+            policy.recordAccess("hot");
+            policy.recordAccess("other");
+        }
+        // "cold" was used last but less often than the others, which are all among the sampled victims
+        policy.recordAccess("cold");
+
+        assertEquals(List.of("cold"), policy.setMaxWeight(60));
+    }
+
+    @Test
+    void repeatedAccessesInARowCountOnce() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 50);
+        policy.add("b", 50);
+        for (int i = 0; i < 10; i++) {
+            policy.recordAccess("a");
+        }
+        policy.recordAccess("b");
+
+        // One real access each, so the least recently used one goes
+        assertEquals(List.of("a"), policy.setMaxWeight(50));
+    }
+
+    @Test
+    void pinnedEntriesAreNeverEvicted() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.pin("a");
+        policy.add("a", 60);
+        assertEquals(List.of(), policy.add("b", 60));
+        assertEquals(120, policy.getTotalWeight());
+        assertTrue(policy.isPinned("a"));
+
+        // Once unpinned, the budget is enforced again
+        assertEquals(List.of("a"), policy.unpin("a"));
+        assertFalse(policy.isPinned("a"));
+        assertEquals(60, policy.getTotalWeight());
+    }
+
+    @Test
+    void pinsNest() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(50);
+        policy.pin("a");
+        policy.pin("a");
+        policy.add("a", 40);
+        policy.add("b", 40);
+
+        assertEquals(List.of(), policy.unpin("a"));
+        assertTrue(policy.isPinned("a"));
+        assertEquals(List.of("a"), policy.unpin("a"));
+    }
+
+    @Test
+    void rejectsNewcomerWhenVictimsAreHotter() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 50);
+        policy.add("b", 50);
+        for (int i = 0; i < 3; i++) {
+            policy.recordAccess("a");
+            policy.recordAccess("b");
+        }
+
+        assertEquals(List.of("newcomer"), policy.add("newcomer", 50));
+        assertEquals(2, policy.size());
+        assertEquals(100, policy.getTotalWeight());
+    }
+
+    @Test
+    void admissionWeighsAllVictimsTogether() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        for (int i = 0; i < 4; i++) {
+            policy.add("page" + i, 25);
+        }
+        // Each page is as cold as the newcomer, but it would displace all four of them
+        policy.add("gif", 100);
+        assertEquals(4, policy.size());
+        assertFalse(policy.getTotalWeight() > 100);
+    }
+
+    @Test
+    void newcomerEarnsAdmissionWithRepeatedRequests() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 50);
+        policy.add("b", 50);
+        policy.recordAccess("a");
+        policy.recordAccess("b");
+
+        assertEquals(List.of("c"), policy.add("c", 50));
+        // The sketch remembers rejected keys, so a key requested again and again eventually gets in
+        List<String> evicted = policy.add("c", 50);
+        for (int i = 0; i < 5 && evicted.contains("c"); i++) {
+            evicted = policy.add("c", 50);
+        }
+        assertFalse(evicted.contains("c"));
+        assertEquals(1, evicted.size());
+        assertEquals(100, policy.getTotalWeight());
+    }
+
+    @Test
+    void pinnedNewcomerIsAlwaysAdmitted() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 60);
+        for (int i = 0; i < 5; i++) {
+            policy.recordAccess("a");
+            policy.add("other" + i, 0);
+            policy.remove("other" + i);
+        }
+        policy.pin("visible");
+
+        assertEquals(List.of("a"), policy.add("visible", 60));
+    }
+
+    @Test
+    void replacingAnEntryKeepsIt() {
+        WeightedEvictionPolicy<String> policy = new WeightedEvictionPolicy<>(100);
+        policy.add("a", 50);
+        policy.add("b", 40);
+        for (int i = 0; i < 3; i++) {
+            policy.recordAccess("a");
+            policy.recordAccess("b");
+        }
+
+        assertEquals(List.of("a"), policy.add("b", 80));
+        assertEquals(80, policy.getTotalWeight());
+    }
+}
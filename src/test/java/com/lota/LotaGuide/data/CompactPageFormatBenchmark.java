@@ -0,0 +1,143 @@
+package com.lota.LotaGuide.data;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the version 1 page encoding (one compound per page, as {@link ImageBookData.Page#toNBT} writes it)
+ * with {@link CompactPageFormat}: encoded size, raw and as compressed NBT, and the time to build and to read
+ * the tag of a full book.
+ * <p>
+ * Run with {@code ./gradlew benchmark}; the page count defaults to the page limit and can be passed as an argument.
+ */
+public final class CompactPageFormatBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2_000;
+
+    private CompactPageFormatBenchmark() {}
+
+    public static void main(String[] args) throws IOException {
+        int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : ImageBookData.MAX_PAGES;
+        List<ImageBookData.Page> pages = book(pageCount);
+
+        CompoundTag legacy = writeLegacy(pages);
+        CompoundTag compact = writeCompact(pages);
+        System.out.printf("%d pages%n", pageCount);
+        System.out.printf("%-8s %10s %12s %12s %12s%n", "", "raw bytes", "compressed", "write us", "read us");
+        report("v1", legacy, () -> writeLegacy(pages));
+        report("v2", compact, () -> writeCompact(pages));
+    }
+
+    private static void report(String name, CompoundTag tag, Writer writer) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            time(writer, tag);
+        }
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int i = 0; i < ROUNDS; i++) {
+            long[] round = time(writer, tag);
+            best[0] = Math.min(best[0], round[0]);
+            best[1] = Math.min(best[1], round[1]);
+        }
+        System.out.printf("%-8s %10d %12d %12.1f %12.1f%n", name, rawSize(tag), compressedSize(tag),
+            best[0] / 1e3 / ITERATIONS, best[1] / 1e3 / ITERATIONS);
+    }
+
+    /** Nanoseconds for {@link #ITERATIONS} writes and for as many reads of every page. */
+    private static long[] time(Writer writer, CompoundTag tag) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += writer.write().size();
+        }
+        long write = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            CompactPageFormat.Pages read = CompactPageFormat.read(tag);
+            for (int page = 0; page < read.size(); page++) {
+                sink += read.imageUrl(page).length() + read.text(page).length() + read.fontSize(page);
+            }
+        }
+        long readTime = System.nanoTime() - start;
+        if (sink == 42) System.out.print("");
+        return new long[] {write, readTime};
+    }
+
+    private static CompoundTag writeLegacy(List<ImageBookData.Page> pages) {
+        ListTag list = new ListTag();
+        for (ImageBookData.Page page : pages) {
+            list.add(page.toNBT());
+        }
+        CompoundTag tag = new CompoundTag();
+        tag.put(ImageBookData.TAG_PAGES, list);
+        return tag;
+    }
+
+    private static CompoundTag writeCompact(List<ImageBookData.Page> pages) {
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(pages, tag);
+        return tag;
+    }
+
+    private static long rawSize(CompoundTag tag) throws IOException {
+        CountingStream counter = new CountingStream();
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            NbtIo.write(tag, out);
+        }
+        return counter.count;
+    }
+
+    private static long compressedSize(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NbtIo.writeCompressed(tag, out);
+        return out.size();
+    }
+
+    /**
+     * A guide-like book: images from a few folders on one host, short captions and the odd long page.
+     */
+    private static List<ImageBookData.Page> book(int pageCount) {
+        Random random = new Random(42);
+        String[] words = {"the", "furnace", "smelts", "ore", "into", "ingots", "place", "a", "chest", "next", "to", "it",
+            "and", "connect", "hopper", "redstone", "signal", "when", "full"};
+        List<ImageBookData.Page> pages = new ArrayList<>();
+        for (int i = 0; i < pageCount; i++) {
+            String url = "https://cdn.example.com/guides/chapter" + (i / 10) + "/page" + i + ".png";
+            int length = random.nextInt(10) == 0 ? 900 : 40 + random.nextInt(200);
+            StringBuilder text = new StringBuilder();
+            while (text.length() < length) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            pages.add(new ImageBookData.Page(url, text.substring(0, length), ImageBookData.DEFAULT_FONT_SIZE));
+        }
+        return pages;
+    }
+
+    private interface Writer {
+        CompoundTag write();
+    }
+
+    private static class CountingStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
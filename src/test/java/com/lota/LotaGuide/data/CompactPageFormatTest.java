@@ -0,0 +1,186 @@
+package com.lota.LotaGuide.data;
+
+import net.minecraft.nbt.ByteArrayTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactPageFormatTest {
+    private static final String HASH = "0123456789abcdef".repeat(4);
+
+    @Test
+    void roundTripsEveryPageField() {
+        List<ImageBookData.Page> pages = List.of(
+            new ImageBookData.Page("https://example.com/img/a.png", "first", 12),
+            new ImageBookData.Page("https://example.com/img/b.png", "", 20, HASH, 640, 480),
+            new ImageBookData.Page("", "no image", 8),
+            new ImageBookData.Page("https://example.com/img/a.png", "first", 12));
+
+        CompactPageFormat.Pages read = roundTrip(pages);
+
+        assertEquals(pages.size(), read.size());
+        for (int i = 0; i < pages.size(); i++) {
+            assertPage(pages.get(i), read, i);
+        }
+    }
+
+    @Test
+    void sharesRepeatedStrings() {
+        List<ImageBookData.Page> pages = List.of(
+            new ImageBookData.Page("https://example.com/img/a.png", "same", 12),
+            new ImageBookData.Page("https://example.com/img/b.png", "same", 12),
+            new ImageBookData.Page("https://example.com/img/a.png", "same", 12));
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(pages, tag);
+
+        // "https://example.com/img/", "a.png", "same", "b.png"
+        assertEquals(4, tag.getList("strings", 8).size());
+    }
+
+    @Test
+    void leavesOutDefaultsAndEmptyImageInfo() {
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(List.of(new ImageBookData.Page("https://example.com/a.png", "text", ImageBookData.DEFAULT_FONT_SIZE)), tag);
+
+        assertEquals(CompactPageFormat.VERSION, tag.getInt(CompactPageFormat.TAG_FORMAT));
+        assertFalse(tag.contains("fontSizes"));
+        assertFalse(tag.contains("imageHashes"));
+        assertFalse(tag.contains("imageSizes"));
+        assertFalse(tag.contains("packedText"));
+    }
+
+    @Test
+    void packsLongTextAndReadsItBack() {
+        String longText = "The quick brown fox jumps over the lazy dog. ".repeat(20);
+        List<ImageBookData.Page> pages = List.of(
+            new ImageBookData.Page("https://example.com/a.png", longText, 12),
+            new ImageBookData.Page("https://example.com/b.png", "short", 12),
+            new ImageBookData.Page("https://example.com/c.png", longText + "!", 12));
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(pages, tag);
+
+        assertEquals(2, tag.getList("packedText", 7).size());
+        CompactPageFormat.Pages read = CompactPageFormat.read(tag);
+        assertEquals(longText, read.text(0));
+        assertEquals("short", read.text(1));
+        assertEquals(longText + "!", read.text(2));
+    }
+
+    @Test
+    void readsVersionOneBooks() {
+        ImageBookData.Page first = new ImageBookData.Page("https://example.com/a.png", "hello", 16, HASH, 32, 64);
+        ImageBookData.Page second = new ImageBookData.Page("https://example.com/b.png", "world", 12);
+        ListTag legacyPages = new ListTag();
+        legacyPages.add(first.toNBT());
+        legacyPages.add(second.toNBT());
+        CompoundTag legacy = new CompoundTag();
+        legacy.put(ImageBookData.TAG_PAGES, legacyPages);
+
+        CompactPageFormat.Pages read = CompactPageFormat.read(legacy);
+
+        assertEquals(2, read.size());
+        assertPage(first, read, 0);
+        assertPage(second, read, 1);
+    }
+
+    @Test
+    void migratesVersionOneBooksOnSave() {
+        UUID author = UUID.randomUUID();
+        ImageBookData.Page page = new ImageBookData.Page("https://example.com/a.png", "hello", 16, HASH, 32, 64);
+        ListTag legacyPages = new ListTag();
+        legacyPages.add(page.toNBT());
+        CompoundTag legacy = new CompoundTag();
+        legacy.putUUID(ImageBookData.TAG_AUTHOR, author);
+        legacy.putString(ImageBookData.TAG_AUTHOR_NAME, "Steve");
+        legacy.put(ImageBookData.TAG_PAGES, legacyPages);
+
+        CompoundTag migrated = ImageBookData.fromNBT(legacy).toNBT();
+
+        assertTrue(migrated.contains(CompactPageFormat.TAG_FORMAT));
+        assertFalse(migrated.contains(ImageBookData.TAG_PAGES));
+        ImageBookData data = ImageBookData.fromNBT(migrated);
+        assertEquals(author, data.getAuthorUUID());
+        assertEquals("Steve", data.getAuthorName());
+        assertEquals(1, data.getPageCount());
+        assertPage(page, CompactPageFormat.read(migrated), 0);
+    }
+
+    @Test
+    void readsEmptyTagsAsNoPages() {
+        assertEquals(0, CompactPageFormat.read(new CompoundTag()).size());
+        assertEquals(1, ImageBookData.fromNBT(new CompoundTag()).getPageCount());
+    }
+
+    @Test
+    void treatsOversizedPackedTextAsCorrupt() {
+        byte[] bomb = rawDeflate(new byte[64 * 1024 * 1024]);
+        CompoundTag tag = new CompoundTag();
+        tag.putInt(CompactPageFormat.TAG_FORMAT, CompactPageFormat.VERSION);
+        tag.put("strings", new ListTag());
+        tag.putIntArray("pageRefs", new int[] {-1, -1, 0});
+        ListTag packed = new ListTag();
+        packed.add(new ByteArrayTag(bomb));
+        tag.put("packedText", packed);
+
+        CompactPageFormat.Pages read = CompactPageFormat.read(tag);
+        assertEquals(1, read.size());
+        assertEquals("", read.text(0));
+    }
+
+    @Test
+    void readsTextAtTheLengthLimit() {
+        String text = "\u4e2d".repeat(ImageBookData.MAX_TEXT_LENGTH);
+        CompactPageFormat.Pages read = roundTrip(List.of(new ImageBookData.Page("", text, 12)));
+        assertEquals(text, read.text(0));
+    }
+
+    @Test
+    void readsUnknownVersionsAsNoPages() {
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(List.of(new ImageBookData.Page("https://example.com/a.png", "text", 12)), tag);
+        tag.putInt(CompactPageFormat.TAG_FORMAT, CompactPageFormat.VERSION + 1);
+
+        assertEquals(0, CompactPageFormat.read(tag).size());
+        assertEquals("", ImageBookData.fromNBT(tag).getPage(0).getImageUrl());
+    }
+
+    private static byte[] rawDeflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static CompactPageFormat.Pages roundTrip(List<ImageBookData.Page> pages) {
+        CompoundTag tag = new CompoundTag();
+        CompactPageFormat.write(pages, tag);
+        return CompactPageFormat.read(tag);
+    }
+
+    private static void assertPage(ImageBookData.Page expected, CompactPageFormat.Pages read, int index) {
+        assertEquals(expected.getImageUrl(), read.imageUrl(index));
+        assertEquals(expected.getText(), read.text(index));
+        assertEquals(expected.getFontSize(), read.fontSize(index));
+        assertEquals(expected.getImageHash(), read.imageHash(index));
+        assertEquals(expected.getImageWidth(), read.imageWidth(index));
+        assertEquals(expected.getImageHeight(), read.imageHeight(index));
+    }
+}
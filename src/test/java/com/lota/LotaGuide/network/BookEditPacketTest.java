@@ -0,0 +1,61 @@
+package com.lota.LotaGuide.network;
+
+import com.lota.LotaGuide.data.ImageBookData;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class BookEditPacketTest {
+    @Test
+    void baselineIgnoresFieldsEditsDoNotChange() {
+        ImageBookData book = book();
+        int before = BookEditPacket.baseline(book);
+
+        book.getPage(0).setImageInfo("a".repeat(64), 16, 16);
+        book.setAuthorUUID(UUID.randomUUID());
+        book.setAuthorName("someone");
+
+        assertEquals(before, BookEditPacket.baseline(book));
+    }
+
+    @Test
+    void baselineChangesWithEveryEditableField() {
+        int before = BookEditPacket.baseline(book());
+
+        ImageBookData url = book();
+        url.getPage(1).setImageUrl("https://example.com/other.png");
+        ImageBookData text = book();
+        text.getPage(1).setText("changed");
+        ImageBookData font = book();
+        font.getPage(1).increaseFontSize();
+        ImageBookData pages = book();
+        pages.addPage();
+
+        assertNotEquals(before, BookEditPacket.baseline(url));
+        assertNotEquals(before, BookEditPacket.baseline(text));
+        assertNotEquals(before, BookEditPacket.baseline(font));
+        assertNotEquals(before, BookEditPacket.baseline(pages));
+    }
+
+    @Test
+    void baselineDependsOnPageOrder() {
+        ImageBookData book = book();
+        ImageBookData swapped = book();
+        swapped.getPage(0).setText(book.getPage(1).getText());
+        swapped.getPage(1).setText(book.getPage(0).getText());
+
+        assertNotEquals(BookEditPacket.baseline(book), BookEditPacket.baseline(swapped));
+    }
+
+    private static ImageBookData book() {
+        ImageBookData book = new ImageBookData();
+        book.addPage();
+        book.getPage(0).setImageUrl("https://example.com/first.png");
+        book.getPage(0).setText("first");
+        book.getPage(1).setText("second");
+        return book;
+    }
+}
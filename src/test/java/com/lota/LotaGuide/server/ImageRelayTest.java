@@ -0,0 +1,129 @@
+package com.lota.LotaGuide.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageRelayTest {
+    @Test
+    void limitsPendingFetchesPerPlayer() {
+        ImageRelay.Session session = new ImageRelay.Session();
+        for (int id = 0; id < 4; id++) {
+            assertTrue(session.tryAccept(id));
+        }
+        assertFalse(session.tryAccept(4));
+
+        assertTrue(session.finishFetch(0));
+        assertTrue(session.tryAccept(4));
+    }
+
+    @Test
+    void countsTransfersAgainstTheRequestLimit() {
+        ImageRelay.Session session = new ImageRelay.Session();
+        for (int id = 0; id < 6; id++) {
+            assertTrue(session.tryAccept(id));
+            assertTrue(session.finishFetch(id));
+            session.startTransfer(id, new ImageRelay.Transfer(null, id, new byte[0]));
+        }
+        assertTrue(session.tryAccept(6));
+        assertTrue(session.tryAccept(7));
+        assertFalse(session.tryAccept(8), "six transfers and two fetches use up the eight requests");
+
+        session.cancel(0);
+        assertTrue(session.tryAccept(8));
+    }
+
+    @Test
+    void rejectsRequestIdsStillInUse() {
+        ImageRelay.Session session = new ImageRelay.Session();
+        assertTrue(session.tryAccept(1));
+        assertFalse(session.tryAccept(1));
+
+        session.finishFetch(1);
+        session.startTransfer(1, new ImageRelay.Transfer(null, 1, new byte[0]));
+        assertFalse(session.tryAccept(1));
+    }
+
+    @Test
+    void cancellingAPendingFetchDropsItsResult() {
+        ImageRelay.Session session = new ImageRelay.Session();
+        assertTrue(session.tryAccept(1));
+        session.cancel(1);
+        assertFalse(session.finishFetch(1));
+
+        // The cancellation is used up, and the slot is free again
+        assertTrue(session.tryAccept(1));
+        assertTrue(session.finishFetch(1));
+    }
+
+    @Test
+    void cancellingUnknownRequestsChangesNothing() {
+        ImageRelay.Session session = new ImageRelay.Session();
+        session.cancel(1);
+        assertTrue(session.tryAccept(1));
+        assertTrue(session.finishFetch(1));
+    }
+
+    @Test
+    void acceptsPublicAddresses() throws Exception {
+        assertNotNull(ImageRelay.resolvePublicHost("93.184.215.14"));
+        assertNotNull(ImageRelay.resolvePublicHost("100.128.0.1"));
+        assertNotNull(ImageRelay.resolvePublicHost("2606:2800:21f:cb07:6820:80da:af6b:8b2c"));
+        assertTrue(ImageRelay.isPublicAddress(ipv6("::ffff:5db8:d70e")));
+    }
+
+    @Test
+    void rejectsInternalAddresses() {
+        for (String host : new String[] {
+            "127.0.0.1", "10.1.2.3", "172.16.0.1", "192.168.1.1", "169.254.169.254", "0.0.0.0", "0.1.2.3",
+            "100.64.0.1", "100.127.255.254", "224.0.0.1", "::1", "::", "fe80::1", "fc00::1", "fd12:3456::1", "ff02::1"
+        }) {
+            assertNull(ImageRelay.resolvePublicHost(host), host);
+        }
+    }
+
+    @Test
+    void judgesEmbeddedIPv4AsIPv4() throws Exception {
+        assertFalse(ImageRelay.isPublicAddress(ipv6("::ffff:7f00:1")), "mapped loopback");
+        assertFalse(ImageRelay.isPublicAddress(ipv6("::ffff:a00:1")), "mapped 10.0.0.1");
+        assertFalse(ImageRelay.isPublicAddress(ipv6("::ffff:6440:1")), "mapped 100.64.0.1");
+        assertFalse(ImageRelay.isPublicAddress(ipv6("::c0a8:101")), "compatible 192.168.1.1");
+        assertFalse(ImageRelay.isPublicAddress(ipv6("64:ff9b::a9fe:a9fe")), "NAT64 169.254.169.254");
+    }
+
+    @Test
+    void rejectsEmptyHosts() {
+        assertNull(ImageRelay.resolvePublicHost(null));
+        assertNull(ImageRelay.resolvePublicHost(""));
+    }
+
+    @Test
+    void returnsTheAddressThatWasChecked() {
+        InetAddress address = ImageRelay.resolvePublicHost("93.184.215.14");
+        assertNotNull(address);
+        assertEquals("93.184.215.14", address.getHostAddress());
+    }
+
+    /**
+     * Keeps the IPv6 form, which InetAddress.getByName drops for mapped addresses.
+     */
+    private static InetAddress ipv6(String literal) throws Exception {
+        byte[] bytes = InetAddress.getByName(literal).getAddress();
+        return Inet6Address.getByAddress(null, bytes.length == 4 ? mapped(bytes) : bytes, null);
+    }
+
+    private static byte[] mapped(byte[] ipv4) {
+        byte[] bytes = new byte[16];
+        bytes[10] = (byte) 0xFF;
+        bytes[11] = (byte) 0xFF;
+        System.arraycopy(ipv4, 0, bytes, 12, 4);
+        return bytes;
+    }
+}
@@ -0,0 +1,119 @@
+package com.lota.LotaGuide.server;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OriginResponseTest {
+    private static final byte[] BODY = "not really an image, but long enough".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private final AtomicReference<String> host = new AtomicReference<>();
+    private final AtomicReference<String> etag = new AtomicReference<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fixed", exchange -> {
+            host.set(exchange.getRequestHeaders().getFirst("Host"));
+            etag.set(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        server.createContext("/chunked", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (byte b : BODY) {
+                    out.write(b);
+                    out.flush();
+                }
+            }
+        });
+        server.createContext("/unchanged", exchange -> {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        });
+        server.createContext("/truncated", exchange -> {
+            exchange.sendResponseHeaders(200, BODY.length);
+            exchange.getResponseBody().write(BODY, 0, 4);
+            // Closing short of the promised length drops the connection
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void connectsToTheGivenAddressWithoutResolvingTheHost() throws IOException {
+        int port = server.getAddress().getPort();
+        // The .invalid name cannot resolve, so reaching the server proves the host was never looked up
+        URI uri = URI.create("http://images.invalid:" + port + "/fixed");
+        try (OriginResponse response = get(uri, Map.of("If-None-Match", "\"v0\""))) {
+            assertEquals(200, response.status());
+            assertEquals("\"v1\"", response.header("etag"));
+            assertEquals(BODY.length, response.contentLength());
+            assertArrayEquals(BODY, response.body().readAllBytes());
+        }
+        assertEquals("images.invalid:" + port, host.get());
+        assertEquals("\"v0\"", etag.get());
+    }
+
+    @Test
+    void readsChunkedBodies() throws IOException {
+        try (OriginResponse response = get(uri("/chunked"), Map.of())) {
+            assertEquals(-1, response.contentLength());
+            assertArrayEquals(BODY, response.body().readAllBytes());
+        }
+    }
+
+    @Test
+    void notModifiedHasNoBody() throws IOException {
+        try (OriginResponse response = get(uri("/unchanged"), Map.of())) {
+            assertEquals(304, response.status());
+            assertEquals(-1, response.body().read());
+        }
+    }
+
+    @Test
+    void truncatedBodiesAreErrors() throws IOException {
+        try (OriginResponse response = get(uri("/truncated"), Map.of())) {
+            InputStream body = response.body();
+            assertThrows(IOException.class, body::readAllBytes);
+        }
+    }
+
+    @Test
+    void refusesLineBreaksInHeaderValues() {
+        assertThrows(IOException.class, () -> get(uri("/fixed"), Map.of("If-None-Match", "\"v1\"\r\nX-Injected: 1")));
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static OriginResponse get(URI uri, Map<String, String> headers) throws IOException {
+        return OriginResponse.get(uri, InetAddress.getLoopbackAddress(), headers, 5000, 5000);
+    }
+}